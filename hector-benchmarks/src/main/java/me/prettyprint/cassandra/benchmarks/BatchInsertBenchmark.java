@@ -0,0 +1,76 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.cassandra.service.CassandraClient;
+import me.prettyprint.cassandra.service.Keyspace;
+
+import org.apache.cassandra.service.Column;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Keyspace.batchInsert of a row of numColumns columns against the stub server: the conversion of
+ * the column lists to thrift's ColumnOrSuperColumn lists, failover handling and thrift
+ * serialization. Run with -p latencyMicros=0 to leave out the server's latency.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchInsertBenchmark {
+
+  @State(Scope.Thread)
+  public static class BatchState {
+
+    @Param({"10", "100", "1000"})
+    public int numColumns;
+
+    StubServerState server;
+    CassandraClient client;
+    Keyspace keyspace;
+    final Map<String, List<Column>> columnMap = new HashMap<String, List<Column>>();
+
+    @Setup
+    public void setup(StubServerState server) throws Exception {
+      this.server = server;
+      client = server.pool.borrowClient(server.getUrl(), server.getPort());
+      keyspace = client.getKeyspace(StubCassandraServer.KEYSPACE);
+      List<Column> columns = new ArrayList<Column>(numColumns);
+      for (int i = 0; i < numColumns; ++i) {
+        columns.add(new Column(bytes("column" + i), bytes("value" + i), i));
+      }
+      columnMap.put(StubCassandraServer.COLUMN_FAMILY, columns);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      server.pool.releaseClient(keyspace.getClient());
+    }
+  }
+
+  @Benchmark
+  public void batchInsert(BatchState state) throws Exception {
+    state.keyspace.batchInsert("key", state.columnMap, null);
+  }
+}
@@ -0,0 +1,48 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.prettyprint.cassandra.utils.StripedCounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Incrementing a single counter from several threads at once: the StripedCounter the monitor
+ * counts with vs. the AtomicLong it used to. The number of threads may be changed with -t; the
+ * difference only shows with about as many cores as threads.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CounterBenchmark {
+
+  private final StripedCounter striped = new StripedCounter();
+  private final AtomicLong atomic = new AtomicLong(0);
+
+  @Benchmark
+  public void striped() {
+    striped.increment();
+  }
+
+  @Benchmark
+  public long atomicLong() {
+    return atomic.incrementAndGet();
+  }
+}
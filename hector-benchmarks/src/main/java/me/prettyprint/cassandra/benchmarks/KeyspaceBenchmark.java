@@ -0,0 +1,91 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.cassandra.service.CassandraClient;
+import me.prettyprint.cassandra.service.Keyspace;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end keyspace operations against the stub server: failover handling, thrift
+ * serialization and result conversion. Each thread uses its own client and keyspace.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class KeyspaceBenchmark {
+
+  private static final int NUM_KEYS = 20;
+
+  @State(Scope.Thread)
+  public static class KeyspaceState {
+    StubServerState server;
+    CassandraClient client;
+    Keyspace keyspace;
+    final ColumnPath columnPath = new ColumnPath(StubCassandraServer.COLUMN_FAMILY, null,
+        bytes("column"));
+    final ColumnParent columnParent = new ColumnParent(StubCassandraServer.COLUMN_FAMILY, null);
+    final SlicePredicate predicate = new SlicePredicate(null,
+        new SliceRange(new byte[0], new byte[0], false, StubCassandraServer.NUM_COLUMNS));
+    final byte[] value = bytes("value");
+    final List<String> keys = new ArrayList<String>(NUM_KEYS);
+
+    @Setup
+    public void setup(StubServerState server) throws Exception {
+      this.server = server;
+      client = server.pool.borrowClient(server.getUrl(), server.getPort());
+      keyspace = client.getKeyspace(StubCassandraServer.KEYSPACE);
+      for (int i = 0; i < NUM_KEYS; ++i) {
+        keys.add("key" + i);
+      }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      server.pool.releaseClient(keyspace.getClient());
+    }
+  }
+
+  @Benchmark
+  public Column getColumn(KeyspaceState state) throws Exception {
+    return state.keyspace.getColumn("key", state.columnPath);
+  }
+
+  @Benchmark
+  public void insert(KeyspaceState state) throws Exception {
+    state.keyspace.insert("key", state.columnPath, state.value);
+  }
+
+  @Benchmark
+  public Map<String, List<Column>> multigetSlice(KeyspaceState state) throws Exception {
+    return state.keyspace.multigetSlice(state.keys, state.columnParent, state.predicate);
+  }
+}
@@ -0,0 +1,37 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.cassandra.service.CassandraClient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Borrowing a client from the pool and releasing it, from several threads at once.
+ * The number of threads may be changed with -t, e.g. -t 32.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class PoolBenchmark {
+
+  @Benchmark
+  public CassandraClient borrowRelease(StubServerState state) throws Exception {
+    CassandraClient client = state.pool.borrowClient(state.getUrl(), state.getPort());
+    state.pool.releaseClient(client);
+    return client;
+  }
+}
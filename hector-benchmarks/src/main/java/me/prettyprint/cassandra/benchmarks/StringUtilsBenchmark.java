@@ -0,0 +1,82 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.cassandra.utils.StringUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * String to UTF-8 bytes conversions, used for every key, column name and value.
+ *
+ * The byName benchmarks are the conversions by charset name StringUtils used to make, for
+ * comparison. Run with -prof gc to compare the allocation rates.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringUtilsBenchmark {
+
+  @Param({"16", "256"})
+  public int length;
+
+  /** Plain ascii strings, or strings with multi byte characters */
+  @Param({"true", "false"})
+  public boolean ascii;
+
+  private String string;
+  private byte[] bytes;
+
+  @Setup
+  public void setup() {
+    StringBuilder b = new StringBuilder(length);
+    for (int i = 0; i < length; ++i) {
+      b.append(ascii ? (char) ('a' + i % 26) : (char) (0x05d0 + i % 27));
+    }
+    string = b.toString();
+    bytes = StringUtils.bytes(string);
+  }
+
+  @Benchmark
+  public byte[] bytes() {
+    return StringUtils.bytes(string);
+  }
+
+  @Benchmark
+  public String string() {
+    return StringUtils.string(bytes);
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    return StringUtils.encode(string);
+  }
+
+  @Benchmark
+  public byte[] bytesByName() throws UnsupportedEncodingException {
+    return string.getBytes("utf-8");
+  }
+
+  @Benchmark
+  public String stringByName() throws UnsupportedEncodingException {
+    return new String(bytes, "utf-8");
+  }
+}
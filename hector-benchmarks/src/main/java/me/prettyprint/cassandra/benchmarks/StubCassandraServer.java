@@ -0,0 +1,230 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import me.prettyprint.cassandra.service.Keyspace;
+
+import org.apache.cassandra.service.Cassandra;
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnOrSuperColumn;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.KeySlice;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TTransportFactory;
+
+/**
+ * An in-process thrift server which answers every call with canned data after a configurable
+ * latency, so that the client's own overhead (pooling, failover, conversions) can be measured
+ * without a real cluster.
+ *
+ * Reads return {@link #NUM_COLUMNS} columns for every key; writes are dropped.
+ * The server knows a single keyspace, {@link #KEYSPACE}, with a standard column family
+ * {@link #COLUMN_FAMILY}.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class StubCassandraServer implements Cassandra.Iface {
+
+  public static final String KEYSPACE = "Keyspace1";
+  public static final String COLUMN_FAMILY = "Standard1";
+  public static final int NUM_COLUMNS = 10;
+
+  private final int port;
+  private final long latencyNanos;
+  private final boolean framed;
+  private final List<ColumnOrSuperColumn> columns;
+  private final Map<String, Map<String, String>> keyspaceDesc;
+  private TServer server;
+
+  /**
+   * @param port the port to listen on
+   * @param latencyMicros the time each call takes, 0 to answer immediately
+   */
+  public StubCassandraServer(int port, long latencyMicros) {
+    this(port, latencyMicros, false);
+  }
+
+  /**
+   * @param port the port to listen on
+   * @param latencyMicros the time each call takes, 0 to answer immediately
+   * @param framed whether the server uses a framed transport
+   */
+  public StubCassandraServer(int port, long latencyMicros, boolean framed) {
+    this.port = port;
+    this.framed = framed;
+    this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    columns = new ArrayList<ColumnOrSuperColumn>(NUM_COLUMNS);
+    for (int i = 0; i < NUM_COLUMNS; ++i) {
+      columns.add(new ColumnOrSuperColumn(new Column(bytes("column" + i), bytes("value" + i), 0),
+          null));
+    }
+    keyspaceDesc = new HashMap<String, Map<String, String>>();
+    Map<String, String> cfDesc = new HashMap<String, String>();
+    cfDesc.put(Keyspace.CF_TYPE, Keyspace.CF_TYPE_STANDARD);
+    keyspaceDesc.put(COLUMN_FAMILY, cfDesc);
+  }
+
+  /**
+   * Starts serving on a background thread.
+   */
+  public void start() throws TTransportException {
+    TTransportFactory transportFactory = framed ? new TFramedTransport.Factory() :
+        new TTransportFactory();
+    server = new TThreadPoolServer(new Cassandra.Processor(this), new TServerSocket(port),
+        transportFactory, new TBinaryProtocol.Factory());
+    Thread t = new Thread("stub-cassandra-" + port) {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+
+  public void stop() {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  private void await() {
+    if (latencyNanos > 0) {
+      LockSupport.parkNanos(latencyNanos);
+    }
+  }
+
+  @Override
+  public ColumnOrSuperColumn get(String keyspace, String key, ColumnPath columnPath,
+      int consistencyLevel) {
+    await();
+    return columns.get(0);
+  }
+
+  @Override
+  public List<ColumnOrSuperColumn> get_slice(String keyspace, String key,
+      ColumnParent columnParent, SlicePredicate predicate, int consistencyLevel) {
+    await();
+    return columns;
+  }
+
+  @Override
+  public Map<String, ColumnOrSuperColumn> multiget(String keyspace, List<String> keys,
+      ColumnPath columnPath, int consistencyLevel) {
+    await();
+    Map<String, ColumnOrSuperColumn> ret = new HashMap<String, ColumnOrSuperColumn>();
+    for (String key : keys) {
+      ret.put(key, columns.get(0));
+    }
+    return ret;
+  }
+
+  @Override
+  public Map<String, List<ColumnOrSuperColumn>> multiget_slice(String keyspace, List<String> keys,
+      ColumnParent columnParent, SlicePredicate predicate, int consistencyLevel) {
+    await();
+    Map<String, List<ColumnOrSuperColumn>> ret = new HashMap<String, List<ColumnOrSuperColumn>>();
+    for (String key : keys) {
+      ret.put(key, columns);
+    }
+    return ret;
+  }
+
+  @Override
+  public int get_count(String keyspace, String key, ColumnParent columnParent,
+      int consistencyLevel) {
+    await();
+    return NUM_COLUMNS;
+  }
+
+  @Override
+  public List<String> get_key_range(String keyspace, String columnFamily, String start,
+      String finish, int count, int consistencyLevel) {
+    await();
+    return Arrays.asList(start);
+  }
+
+  @Override
+  public List<KeySlice> get_range_slice(String keyspace, ColumnParent columnParent,
+      SlicePredicate predicate, String startKey, String finishKey, int rowCount,
+      int consistencyLevel) {
+    await();
+    List<KeySlice> ret = new ArrayList<KeySlice>();
+    ret.add(new KeySlice(startKey, columns));
+    return ret;
+  }
+
+  @Override
+  public void insert(String keyspace, String key, ColumnPath columnPath, byte[] value,
+      long timestamp, int consistencyLevel) {
+    await();
+  }
+
+  @Override
+  public void batch_insert(String keyspace, String key,
+      Map<String, List<ColumnOrSuperColumn>> cfmap, int consistencyLevel) {
+    await();
+  }
+
+  @Override
+  public void remove(String keyspace, String key, ColumnPath columnPath, long timestamp,
+      int consistencyLevel) {
+    await();
+  }
+
+  @Override
+  public String get_string_property(String property) throws TException {
+    if ("token map".equals(property)) {
+      return "{\"0\":\"localhost\"}";
+    }
+    if ("config file".equals(property)) {
+      return "<Partitioner>org.apache.cassandra.dht.RandomPartitioner</Partitioner>";
+    }
+    if ("cluster name".equals(property)) {
+      return "Stub Cluster";
+    }
+    if ("version".equals(property)) {
+      return "0.5.1";
+    }
+    return "";
+  }
+
+  @Override
+  public List<String> get_string_list_property(String property) throws TException {
+    if ("keyspaces".equals(property)) {
+      return Arrays.asList(KEYSPACE);
+    }
+    return new ArrayList<String>();
+  }
+
+  @Override
+  public Map<String, Map<String, String>> describe_keyspace(String keyspace)
+      throws NotFoundException {
+    if (!KEYSPACE.equals(keyspace)) {
+      throw new NotFoundException();
+    }
+    return keyspaceDesc;
+  }
+}
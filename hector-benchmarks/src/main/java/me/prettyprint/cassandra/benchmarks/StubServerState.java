@@ -0,0 +1,69 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import me.prettyprint.cassandra.service.CassandraClientPool;
+import me.prettyprint.cassandra.service.CassandraClientPoolFactory;
+import me.prettyprint.cassandra.service.CassandraHost;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A stub server and a client pool connected to it, shared by all the threads of a benchmark.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+public class StubServerState {
+
+  /** The latency of every call to the stub server */
+  @Param({"0", "500"})
+  public long latencyMicros;
+
+  /** Use the lock free pool of each host instead of the commons-pool based one */
+  @Param({"false", "true"})
+  public boolean lockFreePool;
+
+  public StubCassandraServer server;
+  public CassandraClientPool pool;
+
+  @Setup
+  public void setup() throws Exception {
+    server = new StubCassandraServer(findFreePort(), latencyMicros);
+    server.start();
+    CassandraHost host = new CassandraHost("localhost", server.getPort());
+    host.setLockFreePool(lockFreePool);
+    host.setMaxActive(256);
+    host.setMaxIdle(256);
+    pool = CassandraClientPoolFactory.INSTANCE.createNew(new CassandraHost[] { host });
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.close();
+    server.stop();
+  }
+
+  public String getUrl() {
+    return "localhost";
+  }
+
+  public int getPort() {
+    return server.getPort();
+  }
+
+  static int findFreePort() throws IOException {
+    ServerSocket s = new ServerSocket(0);
+    try {
+      return s.getLocalPort();
+    } finally {
+      s.close();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package me.prettyprint.cassandra.benchmarks;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.cassandra.service.CassandraClient;
+import me.prettyprint.cassandra.service.CassandraClientPool;
+import me.prettyprint.cassandra.service.CassandraClientPoolFactory;
+import me.prettyprint.cassandra.service.CassandraHost;
+import me.prettyprint.cassandra.service.Keyspace;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * insert and multigetSlice over the transport stacks configurable per {@link CassandraHost}:
+ * the size of the socket stream buffers, framed or unframed transport and TCP_NODELAY.
+ *
+ * Single threaded, with a single connection, so that the number of read/write syscalls per
+ * operation can be counted by running the benchmark under strace (see the README).
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransportBenchmark {
+
+  private static final int NUM_KEYS = 20;
+
+  @Param({"1024", "65536"})
+  public int transportBufferSize;
+
+  @Param({"false", "true"})
+  public boolean framed;
+
+  @Param({"true", "false"})
+  public boolean tcpNoDelay;
+
+  /** The size of the inserted value */
+  @Param({"100", "10000"})
+  public int valueSize;
+
+  private StubCassandraServer server;
+  private CassandraClientPool pool;
+  private CassandraClient client;
+  private Keyspace keyspace;
+  private final ColumnPath columnPath = new ColumnPath(StubCassandraServer.COLUMN_FAMILY, null,
+      bytes("column"));
+  private final ColumnParent columnParent =
+      new ColumnParent(StubCassandraServer.COLUMN_FAMILY, null);
+  private final SlicePredicate predicate = new SlicePredicate(null,
+      new SliceRange(new byte[0], new byte[0], false, StubCassandraServer.NUM_COLUMNS));
+  private final List<String> keys = new ArrayList<String>(NUM_KEYS);
+  private byte[] value;
+
+  @Setup
+  public void setup() throws Exception {
+    server = new StubCassandraServer(StubServerState.findFreePort(), 0, framed);
+    server.start();
+    CassandraHost host = new CassandraHost("localhost", server.getPort());
+    host.setTransportBufferSize(transportBufferSize);
+    host.setFramedTransport(framed);
+    host.setTcpNoDelay(tcpNoDelay);
+    pool = CassandraClientPoolFactory.INSTANCE.createNew(new CassandraHost[] { host });
+    client = pool.borrowClient("localhost", server.getPort());
+    keyspace = client.getKeyspace(StubCassandraServer.KEYSPACE);
+    for (int i = 0; i < NUM_KEYS; ++i) {
+      keys.add("key" + i);
+    }
+    value = new byte[valueSize];
+    Arrays.fill(value, (byte) 'v');
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    pool.releaseClient(keyspace.getClient());
+    server.stop();
+  }
+
+  @Benchmark
+  public void insert() throws Exception {
+    keyspace.insert("key", columnPath, value);
+  }
+
+  @Benchmark
+  public Map<String, List<Column>> multigetSlice() throws Exception {
+    return keyspace.multigetSlice(keys, columnParent, predicate);
+  }
+}
@@ -0,0 +1,235 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.cassandra.service.CassandraClient.FailoverPolicy;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SuperColumn;
+
+/**
+ * An asynchronous, thread safe handle to a keyspace.
+ *
+ * Every operation is submitted to a bounded executor and returns a {@link Future} immediately.
+ * When the operation runs, a client is borrowed from the pool, the operation is performed on the
+ * client's {@link Keyspace} (with the keyspace's usual failover behavior) and the client is
+ * released back to the pool. So a pooled connection is only held while its operation runs and
+ * many independent operations may be issued concurrently from one thread:
+ *
+ * <pre>
+ * AsyncKeyspace ks = new AsyncKeyspace(pool, new String[] {"cas1:9160", "cas2:9160"}, "Keyspace1");
+ * Future&lt;Column&gt; f1 = ks.getColumn("key1", columnPath);
+ * Future&lt;Column&gt; f2 = ks.getColumn("key2", columnPath);
+ * Column c1 = f1.get();
+ * Column c2 = f2.get();
+ * </pre>
+ *
+ * Errors thrown by the operations, such as NotFoundException, are reported by the future's
+ * get() as the cause of an ExecutionException.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class AsyncKeyspace {
+
+  /** Default number of threads of the executor created by this class */
+  public static final int DEFAULT_NUM_THREADS = 16;
+
+  /** Default number of queued operations of the executor created by this class */
+  public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+  private static final AtomicInteger executorNumber = new AtomicInteger(0);
+
+  private final CassandraClientPool pool;
+  private final String[] hosts;
+  private final String keyspaceName;
+  private final int consistencyLevel;
+  private final FailoverPolicy failoverPolicy;
+  private final ExecutorService executor;
+
+  /**
+   * Creates an async keyspace with the default consistency level and failover policy, running on
+   * an executor with {@link #DEFAULT_NUM_THREADS} threads.
+   *
+   * @param hosts An array of "url:port" cassandra hosts to load balance the operations between.
+   *    If null then clients are borrowed from all the hosts the pool is configured with.
+   */
+  public AsyncKeyspace(CassandraClientPool pool, String[] hosts, String keyspaceName) {
+    this(pool, hosts, keyspaceName, CassandraClient.DEFAULT_CONSISTENCY_LEVEL,
+        CassandraClient.DEFAULT_FAILOVER_POLICY,
+        createExecutor(DEFAULT_NUM_THREADS, DEFAULT_QUEUE_SIZE));
+  }
+
+  /**
+   * @param hosts An array of "url:port" cassandra hosts to load balance the operations between.
+   *    If null then clients are borrowed from all the hosts the pool is configured with.
+   * @param executor The executor running the operations. Its number of threads bounds the number
+   *    of operations in flight (and connections in use).
+   */
+  public AsyncKeyspace(CassandraClientPool pool, String[] hosts, String keyspaceName,
+      int consistencyLevel, FailoverPolicy failoverPolicy, ExecutorService executor) {
+    this.pool = pool;
+    this.hosts = hosts;
+    this.keyspaceName = keyspaceName;
+    this.consistencyLevel = consistencyLevel;
+    this.failoverPolicy = failoverPolicy;
+    this.executor = executor;
+  }
+
+  /**
+   * Creates a bounded executor suitable for an AsyncKeyspace.
+   * When both the threads and the queue are full, the submitting thread runs the operation
+   * itself, which slows callers down instead of letting the queue grow unbounded.
+   */
+  public static ExecutorService createExecutor(int numThreads, int queueSize) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 60,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+        new DaemonThreadFactory("hector-async-" + executorNumber.incrementAndGet()),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Submits an arbitrary operation on the keyspace.
+   * The keyspace handed to the operation may only be used until the operation returns.
+   */
+  public <T> Future<T> submit(final KeyspaceOperation<T> operation) {
+    return executor.submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        CassandraClient client = hosts == null ? pool.borrowClient() : pool.borrowClient(hosts);
+        Keyspace ks;
+        try {
+          ks = client.getKeyspace(keyspaceName, consistencyLevel, failoverPolicy);
+        } catch (Exception e) {
+          pool.releaseClient(client);
+          throw e;
+        }
+        try {
+          return operation.execute(ks);
+        } finally {
+          // The keyspace may have failed over to a different client
+          pool.releaseClient(ks.getClient());
+        }
+      }
+    });
+  }
+
+  /**
+   * @see Keyspace#getColumn(String, ColumnPath)
+   */
+  public Future<Column> getColumn(final String key, final ColumnPath columnPath) {
+    return submit(new KeyspaceOperation<Column>() {
+      @Override
+      public Column execute(Keyspace ks) throws Exception {
+        return ks.getColumn(key, columnPath);
+      }
+    });
+  }
+
+  /**
+   * @see Keyspace#getSlice(String, ColumnParent, SlicePredicate)
+   */
+  public Future<List<Column>> getSlice(final String key, final ColumnParent columnParent,
+      final SlicePredicate predicate) {
+    return submit(new KeyspaceOperation<List<Column>>() {
+      @Override
+      public List<Column> execute(Keyspace ks) throws Exception {
+        return ks.getSlice(key, columnParent, predicate);
+      }
+    });
+  }
+
+  /**
+   * @see Keyspace#multigetSlice(List, ColumnParent, SlicePredicate)
+   */
+  public Future<Map<String, List<Column>>> multigetSlice(final List<String> keys,
+      final ColumnParent columnParent, final SlicePredicate predicate) {
+    return submit(new KeyspaceOperation<Map<String, List<Column>>>() {
+      @Override
+      public Map<String, List<Column>> execute(Keyspace ks) throws Exception {
+        return ks.multigetSlice(keys, columnParent, predicate);
+      }
+    });
+  }
+
+  /**
+   * @see Keyspace#insert(String, ColumnPath, byte[])
+   */
+  public Future<Void> insert(final String key, final ColumnPath columnPath, final byte[] value) {
+    return submit(new KeyspaceOperation<Void>() {
+      @Override
+      public Void execute(Keyspace ks) throws Exception {
+        ks.insert(key, columnPath, value);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * @see Keyspace#batchInsert(String, Map, Map)
+   */
+  public Future<Void> batchInsert(final String key, final Map<String, List<Column>> cfmap,
+      final Map<String, List<SuperColumn>> superColumnMap) {
+    return submit(new KeyspaceOperation<Void>() {
+      @Override
+      public Void execute(Keyspace ks) throws Exception {
+        ks.batchInsert(key, cfmap, superColumnMap);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * @see Keyspace#remove(String, ColumnPath)
+   */
+  public Future<Void> remove(final String key, final ColumnPath columnPath) {
+    return submit(new KeyspaceOperation<Void>() {
+      @Override
+      public Void execute(Keyspace ks) throws Exception {
+        ks.remove(key, columnPath);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Shuts down the executor. Previously submitted operations are still executed.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public String getName() {
+    return keyspaceName;
+  }
+
+  public int getConsistencyLevel() {
+    return consistencyLevel;
+  }
+
+  public FailoverPolicy getFailoverPolicy() {
+    return failoverPolicy;
+  }
+
+  /**
+   * An operation performed on a keyspace.
+   *
+   * @param <T> the result type of the operation. Use Void for mutators.
+   */
+  public interface KeyspaceOperation<T> {
+    T execute(Keyspace ks) throws Exception;
+  }
+}
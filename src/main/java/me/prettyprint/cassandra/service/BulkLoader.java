@@ -0,0 +1,548 @@
+package me.prettyprint.cassandra.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.SuperColumn;
+import org.apache.cassandra.service.TimedOutException;
+import org.apache.cassandra.service.UnavailableException;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a large number of rows with {@link Keyspace#batchInsert}, running up to maxInFlight
+ * batches concurrently.
+ *
+ * Rows are read from the caller's iterator only as fast as they're written: once maxInFlight
+ * batches are in flight, the loading thread waits for one of them to complete before it reads on.
+ * A row with more than maxBatchColumns columns (counting the sub columns of super columns) is
+ * written by several batches. A batch which fails with a TimedOutException, an
+ * UnavailableException or a TException is retried up to maxRetries times, waiting
+ * retryDelayMillis before the first retry and twice as long before each of the next. Any other
+ * error, or a batch which still fails after its retries, fails the load.
+ *
+ * Progress is logged every progressIntervalMillis. If a checkpoint file is set, the number of rows
+ * loaded (such that all the rows before them are loaded too) is written to it at the same interval
+ * and when the load fails. A load started with the checkpoint file of a load which didn't complete
+ * skips that many rows of its iterator, so the iterator has to yield the rows in the same order.
+ * Rows loaded after the checkpoint was written are written again, which is harmless as long as
+ * their columns have the same timestamps. The file is deleted once the load completes.
+ *
+ * <pre>
+ * BulkLoader loader = new BulkLoader(pool, null, "Keyspace1");
+ * loader.setCheckpointFile(new File("/var/tmp/users.checkpoint"));
+ * loader.load(rows);
+ * </pre>
+ *
+ * Options must be set before {@link #load(Iterator)}. A loader runs one load at a time.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class BulkLoader {
+
+  private static final Logger log = LoggerFactory.getLogger(BulkLoader.class);
+
+  public static final int DEFAULT_MAX_BATCH_COLUMNS = 100;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  public static final long DEFAULT_RETRY_DELAY_MILLIS = 100;
+  public static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 10 * 1000;
+
+  private static final AtomicInteger loaderNumber = new AtomicInteger(0);
+
+  private final KeyspaceOperations keyspace;
+
+  private int maxBatchColumns = DEFAULT_MAX_BATCH_COLUMNS;
+  private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private int maxRetries = DEFAULT_MAX_RETRIES;
+  private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+  private long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+  private File checkpointFile;
+
+  private final AtomicLong rowsLoaded = new AtomicLong(0);
+  private final AtomicLong columnsLoaded = new AtomicLong(0);
+  private final AtomicLong batchesWritten = new AtomicLong(0);
+  private final AtomicLong retries = new AtomicLong(0);
+  private volatile long startTime;
+  private volatile long endTime;
+
+  /** The first error which failed the load, null while it didn't fail */
+  private volatile Exception failure;
+
+  /** Limits the number of batches in flight */
+  private Semaphore inFlight;
+
+  /** The rows loaded so far, by their index in the input; guarded by this */
+  private long rowsDone;
+  private final SortedSet<Long> doneAfterGap = new TreeSet<Long>();
+  private long lastProgressTime;
+
+  /**
+   * Loads through a {@link SharedKeyspace}, with clients borrowed from the hosts, with the default
+   * consistency level and failover policy.
+   *
+   * @param hosts An array of "url:port" cassandra hosts to load to.
+   *    If null then clients are borrowed from all the hosts the pool is configured with.
+   */
+  public BulkLoader(CassandraClientPool pool, String[] hosts, String keyspaceName) {
+    this(new SharedKeyspace(pool, hosts, keyspaceName));
+  }
+
+  /**
+   * @param keyspace The keyspace to load to. It's used by several threads at once, so it has to
+   *    be thread safe, e.g. a {@link SharedKeyspace}.
+   */
+  public BulkLoader(KeyspaceOperations keyspace) {
+    this.keyspace = keyspace;
+  }
+
+  /**
+   * Loads the rows, returning once they're all written.
+   *
+   * @throws TException if the load failed, its cause is the error which failed it.
+   * @throws InterruptedException if interrupted while waiting for batches in flight. The batches
+   *    in flight still complete in the background, but no new batches are sent.
+   */
+  public void load(Iterator<Row> rows) throws TException, InterruptedException {
+    long skip = readCheckpoint();
+    if (skip > 0) {
+      log.info("Resuming the load from {}, skipping {} rows", checkpointFile, skip);
+    }
+    reset(skip);
+    ExecutorService executor = Executors.newFixedThreadPool(maxInFlight,
+        new DaemonThreadFactory("hector-bulk-loader-" + loaderNumber.incrementAndGet()));
+    try {
+      long index = 0;
+      for (; index < skip && rows.hasNext(); ++index) {
+        rows.next();
+      }
+      while (failure == null && rows.hasNext()) {
+        submit(executor, index++, rows.next());
+      }
+      // Wait for the batches in flight
+      inFlight.acquire(maxInFlight);
+      inFlight.release(maxInFlight);
+    } finally {
+      executor.shutdown();
+      endTime = System.currentTimeMillis();
+    }
+
+    if (failure != null) {
+      writeCheckpoint();
+      throw new TException("Bulk load failed after " + getRowsLoaded() + " rows", failure);
+    }
+    if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+      log.warn("Unable to delete the checkpoint file {}", checkpointFile);
+    }
+    logProgress();
+  }
+
+  private void submit(ExecutorService executor, final long index, Row row)
+      throws InterruptedException {
+    if (row.getNumColumns() == 0) {
+      rowDone(index);
+      return;
+    }
+    List<Row> batches = split(row);
+    final AtomicInteger pendingBatches = new AtomicInteger(batches.size());
+    for (final Row batch : batches) {
+      inFlight.acquire();
+      if (failure != null) {
+        inFlight.release();
+        return;
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            write(batch);
+            if (pendingBatches.decrementAndGet() == 0) {
+              rowDone(index);
+            }
+          } catch (Exception e) {
+            if (failure == null) {
+              failure = e;
+            }
+            log.error("Unable to load row " + batch.getKey(), e);
+          } finally {
+            inFlight.release();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes a batch, retrying recoverable errors.
+   */
+  private void write(Row batch) throws Exception {
+    long delay = retryDelayMillis;
+    for (int attempt = 0; ; ++attempt) {
+      Exception error;
+      try {
+        keyspace.batchInsert(batch.getKey(), batch.getColumnMap(), batch.getSuperColumnMap());
+        batchesWritten.incrementAndGet();
+        columnsLoaded.addAndGet(batch.getNumColumns());
+        return;
+      } catch (TimedOutException e) {
+        error = e;
+      } catch (UnavailableException e) {
+        error = e;
+      } catch (TException e) {
+        error = e;
+      }
+      if (attempt >= maxRetries) {
+        throw error;
+      }
+      log.warn("Unable to write row {}, retrying: {}", batch.getKey(), error.toString());
+      retries.incrementAndGet();
+      Thread.sleep(delay);
+      delay *= 2;
+    }
+  }
+
+  /**
+   * Splits a row into batches of up to maxBatchColumns columns.
+   */
+  /*package*/ List<Row> split(Row row) {
+    if (row.getNumColumns() <= maxBatchColumns) {
+      return Collections.singletonList(row);
+    }
+    List<Row> batches = new ArrayList<Row>();
+    Row batch = new Row(row.getKey());
+    if (row.getColumnMap() != null) {
+      for (Map.Entry<String, List<Column>> entry : row.getColumnMap().entrySet()) {
+        for (Column column : entry.getValue()) {
+          if (batch.getNumColumns() == maxBatchColumns) {
+            batches.add(batch);
+            batch = new Row(row.getKey());
+          }
+          batch.addColumn(entry.getKey(), column);
+        }
+      }
+    }
+    if (row.getSuperColumnMap() != null) {
+      for (Map.Entry<String, List<SuperColumn>> entry : row.getSuperColumnMap().entrySet()) {
+        for (SuperColumn superColumn : entry.getValue()) {
+          for (Column column : superColumn.getColumns()) {
+            if (batch.getNumColumns() == maxBatchColumns) {
+              batches.add(batch);
+              batch = new Row(row.getKey());
+            }
+            batch.addSubColumn(entry.getKey(), superColumn.getName(), column);
+          }
+        }
+      }
+    }
+    batches.add(batch);
+    return batches;
+  }
+
+  private void reset(long skip) {
+    failure = null;
+    inFlight = new Semaphore(maxInFlight);
+    rowsLoaded.set(0);
+    columnsLoaded.set(0);
+    batchesWritten.set(0);
+    retries.set(0);
+    startTime = System.currentTimeMillis();
+    endTime = 0;
+    synchronized (this) {
+      rowsDone = skip;
+      doneAfterGap.clear();
+      lastProgressTime = startTime;
+    }
+  }
+
+  /**
+   * Called when all the batches of a row are written.
+   */
+  private void rowDone(long index) {
+    rowsLoaded.incrementAndGet();
+    boolean progress = false;
+    synchronized (this) {
+      if (index == rowsDone) {
+        ++rowsDone;
+        while (!doneAfterGap.isEmpty() && doneAfterGap.first() == rowsDone) {
+          doneAfterGap.remove(doneAfterGap.first());
+          ++rowsDone;
+        }
+      } else {
+        doneAfterGap.add(index);
+      }
+      long now = System.currentTimeMillis();
+      if (now - lastProgressTime >= progressIntervalMillis) {
+        lastProgressTime = now;
+        progress = true;
+      }
+    }
+    if (progress) {
+      logProgress();
+      writeCheckpoint();
+    }
+  }
+
+  private void logProgress() {
+    log.info("Loaded {} rows, {} columns, {} rows/s", new Object[] {getRowsLoaded(),
+        getColumnsLoaded(), (long) getRowsPerSecond()});
+  }
+
+  private long readCheckpoint() throws TException {
+    if (checkpointFile == null || !checkpointFile.exists()) {
+      return 0;
+    }
+    try {
+      BufferedReader reader = new BufferedReader(new FileReader(checkpointFile));
+      try {
+        return Long.parseLong(reader.readLine().trim());
+      } finally {
+        reader.close();
+      }
+    } catch (Exception e) {
+      throw new TException("Unable to read the checkpoint file " + checkpointFile, e);
+    }
+  }
+
+  /**
+   * Writes the number of rows loaded with all the rows before them to the checkpoint file.
+   * It's written to a temp file first so a crash doesn't leave a truncated checkpoint.
+   */
+  private synchronized void writeCheckpoint() {
+    if (checkpointFile == null) {
+      return;
+    }
+    File tmp = new File(checkpointFile.getPath() + ".tmp");
+    try {
+      Writer writer = new FileWriter(tmp);
+      try {
+        writer.write(Long.toString(rowsDone));
+        writer.write('\n');
+      } finally {
+        writer.close();
+      }
+      checkpointFile.delete();
+      if (!tmp.renameTo(checkpointFile)) {
+        throw new IOException("Unable to rename " + tmp + " to " + checkpointFile);
+      }
+    } catch (IOException e) {
+      log.error("Unable to write the checkpoint file " + checkpointFile, e);
+    }
+  }
+
+  /**
+   * @return Number of rows loaded by the current or last load, not counting the rows skipped
+   *    since they were loaded before the checkpoint.
+   */
+  public long getRowsLoaded() {
+    return rowsLoaded.get();
+  }
+
+  public long getColumnsLoaded() {
+    return columnsLoaded.get();
+  }
+
+  public long getBatchesWritten() {
+    return batchesWritten.get();
+  }
+
+  /**
+   * @return Number of batches retried by the current or last load.
+   */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * @return The throughput of the current or last load.
+   */
+  public double getRowsPerSecond() {
+    long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+    long millis = Math.max(1, end - startTime);
+    return getRowsLoaded() * 1000.0 / millis;
+  }
+
+  public int getMaxBatchColumns() {
+    return maxBatchColumns;
+  }
+
+  /**
+   * Max number of columns written by one batchInsert. Larger rows are written by several.
+   */
+  public void setMaxBatchColumns(int maxBatchColumns) {
+    this.maxBatchColumns = maxBatchColumns;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Max number of batches written concurrently, which is also the number of clients in use.
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  public long getRetryDelayMillis() {
+    return retryDelayMillis;
+  }
+
+  /**
+   * Time to wait before the first retry of a batch, doubled for each of its next retries.
+   */
+  public void setRetryDelayMillis(long retryDelayMillis) {
+    this.retryDelayMillis = retryDelayMillis;
+  }
+
+  public long getProgressIntervalMillis() {
+    return progressIntervalMillis;
+  }
+
+  /**
+   * Time between progress reports and checkpoints.
+   */
+  public void setProgressIntervalMillis(long progressIntervalMillis) {
+    this.progressIntervalMillis = progressIntervalMillis;
+  }
+
+  public File getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * The file the load's progress is saved to and resumed from, null (the default) for none.
+   */
+  public void setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
+  /**
+   * A row to load: its columns and super columns, by column family.
+   */
+  public static class Row {
+
+    private final String key;
+    private Map<String, List<Column>> columnMap;
+    private Map<String, List<SuperColumn>> superColumnMap;
+    private int numColumns;
+
+    public Row(String key) {
+      this(key, null, null);
+    }
+
+    /**
+     * @param columnMap The row's columns by column family, may be null.
+     * @param superColumnMap The row's super columns by column family, may be null.
+     */
+    public Row(String key, Map<String, List<Column>> columnMap,
+        Map<String, List<SuperColumn>> superColumnMap) {
+      this.key = key;
+      this.columnMap = columnMap;
+      this.superColumnMap = superColumnMap;
+      if (columnMap != null) {
+        for (List<Column> columns : columnMap.values()) {
+          numColumns += columns.size();
+        }
+      }
+      if (superColumnMap != null) {
+        for (List<SuperColumn> superColumns : superColumnMap.values()) {
+          for (SuperColumn superColumn : superColumns) {
+            numColumns += superColumn.getColumns().size();
+          }
+        }
+      }
+    }
+
+    public Row addColumn(String columnFamily, Column column) {
+      if (columnMap == null) {
+        columnMap = new LinkedHashMap<String, List<Column>>();
+      }
+      List<Column> columns = columnMap.get(columnFamily);
+      if (columns == null) {
+        columns = new ArrayList<Column>();
+        columnMap.put(columnFamily, columns);
+      }
+      columns.add(column);
+      ++numColumns;
+      return this;
+    }
+
+    /**
+     * Adds a sub column to the column family's last super column if it has the given name, else to
+     * a new super column.
+     */
+    public Row addSubColumn(String columnFamily, byte[] superColumnName, Column column) {
+      if (superColumnMap == null) {
+        superColumnMap = new LinkedHashMap<String, List<SuperColumn>>();
+      }
+      List<SuperColumn> superColumns = superColumnMap.get(columnFamily);
+      if (superColumns == null) {
+        superColumns = new ArrayList<SuperColumn>();
+        superColumnMap.put(columnFamily, superColumns);
+      }
+      SuperColumn superColumn = superColumns.isEmpty() ? null :
+          superColumns.get(superColumns.size() - 1);
+      if (superColumn == null || !Arrays.equals(superColumn.getName(), superColumnName)) {
+        superColumn = new SuperColumn(superColumnName, new ArrayList<Column>());
+        superColumns.add(superColumn);
+      }
+      superColumn.getColumns().add(column);
+      ++numColumns;
+      return this;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * @return The columns by column family, null if there are none.
+     */
+    public Map<String, List<Column>> getColumnMap() {
+      return columnMap == null || columnMap.isEmpty() ? null : columnMap;
+    }
+
+    /**
+     * @return The super columns by column family, null if there are none.
+     */
+    public Map<String, List<SuperColumn>> getSuperColumnMap() {
+      return superColumnMap == null || superColumnMap.isEmpty() ? null : superColumnMap;
+    }
+
+    /**
+     * @return Number of columns, counting the sub columns of super columns.
+     */
+    public int getNumColumns() {
+      return numColumns;
+    }
+  }
+}
@@ -5,6 +5,7 @@ import java.util.Map;
 import java.util.Set;
 
 
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.service.Cassandra;
 import org.apache.cassandra.service.ConsistencyLevel;
 import org.apache.cassandra.service.NotFoundException;
@@ -115,7 +116,7 @@ public interface CassandraClient {
 
   /**
    * Gets the token map with an option to refresh the value from cassandra.
-   * If fresh is false, a local cached value may be returned.
+   * If fresh is false, a cached value, shared by the clients of the pool, may be returned.
    *
    * @param fresh Whether to query cassandra remote host for an up to date value, or to serve
    *  a possibly cached value.
@@ -129,6 +130,13 @@ public interface CassandraClient {
    */
   String getConfigFile() throws TException;
 
+  /**
+   * Gets the partitioner used by the cluster, as read from the server's config file.
+   * If the config file does not specify a known partitioner, the cassandra default,
+   * RandomPartitioner, is returned.
+   */
+  IPartitioner<?> getPartitioner() throws TException;
+
   /**
    * @return Server version
    */
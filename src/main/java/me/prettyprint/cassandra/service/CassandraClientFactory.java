@@ -1,6 +1,10 @@
 package me.prettyprint.cassandra.service;
 
-
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
 
 import me.prettyprint.cassandra.service.CassandraClientMonitor.Counter;
@@ -10,6 +14,7 @@ import org.apache.commons.pool.PoolableObjectFactory;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -36,24 +41,39 @@ import org.slf4j.LoggerFactory;
   private final CassandraClientPool pool;
   private final String url;
   private final int port;
+  private final String[] prewarmKeyspaces;
+  private final boolean framedTransport;
+  private final int transportBufferSize;
+  private final int socketSendBufferSize;
+  private final int socketReceiveBufferSize;
+  private final boolean tcpNoDelay;
 
   public CassandraClientFactory(CassandraClientPool pools, CassandraHost cassandraHost,
       CassandraClientMonitor clientMonitor) {
     this.pool = pools;
     this.url = cassandraHost.getUrl();
     this.port = cassandraHost.getPort();
+    prewarmKeyspaces = cassandraHost.getPrewarmKeyspaces();
+    framedTransport = cassandraHost.isFramedTransport();
+    transportBufferSize = cassandraHost.getTransportBufferSize();
+    socketSendBufferSize = cassandraHost.getSocketSendBufferSize();
+    socketReceiveBufferSize = cassandraHost.getSocketReceiveBufferSize();
+    tcpNoDelay = cassandraHost.isTcpNoDelay();
     timeout = getTimeout();
     this.clientMonitor = clientMonitor;
   }
 
   public CassandraClient create() throws TTransportException, TException, UnknownHostException {
+    // Clients of a pool share the pool's metadata
+    ClusterMetadata metadata = pool instanceof CassandraClientPoolImpl ?
+        ((CassandraClientPoolImpl) pool).getClusterMetadata() : new ClusterMetadata();
     return new CassandraClientImpl(createThriftClient(url, port),
-        new KeyspaceFactory(clientMonitor), url, port, pool);
+        new KeyspaceFactory(clientMonitor), url, port, pool, metadata);
   }
 
   private Cassandra.Client createThriftClient(String  url, int port)
       throws TTransportException , TException {
-    TTransport tr = new TSocket(url, port, timeout);
+    TTransport tr = createTransport(url, port);
     TProtocol proto = new TBinaryProtocol(tr);
     Cassandra.Client client = new Cassandra.Client(proto);
     try {
@@ -69,6 +89,67 @@ import org.slf4j.LoggerFactory;
     return client;
   }
 
+  /**
+   * Creates the (yet unopened) transport stack: a socket with buffered streams, framed if the
+   * host asks for it.
+   */
+  private TTransport createTransport(String url, int port) throws TTransportException {
+    BufferedSocket socket = new BufferedSocket(url, port, timeout, transportBufferSize);
+    try {
+      Socket s = socket.getSocket();
+      s.setTcpNoDelay(tcpNoDelay);
+      if (socketSendBufferSize > 0) {
+        s.setSendBufferSize(socketSendBufferSize);
+      }
+      if (socketReceiveBufferSize > 0) {
+        // Set before connecting, so that windows larger than 64K can be negotiated
+        s.setReceiveBufferSize(socketReceiveBufferSize);
+      }
+    } catch (SocketException e) {
+      throw new TTransportException("Unable to set socket options for " + url + ":" + port, e);
+    }
+    return framedTransport ? new TFramedTransport(socket) : socket;
+  }
+
+  /**
+   * A TSocket whose streams are buffered by buffers of the given size, rather than thrift's
+   * fixed 1K buffers.
+   */
+  private static class BufferedSocket extends TSocket {
+
+    private final int bufferSize;
+
+    BufferedSocket(String host, int port, int timeout, int bufferSize) {
+      super(host, port, timeout);
+      this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void open() throws TTransportException {
+      super.open();
+      try {
+        inputStream_ = new BufferedInputStream(getSocket().getInputStream(), bufferSize);
+        outputStream_ = new BufferedOutputStream(getSocket().getOutputStream(), bufferSize);
+      } catch (IOException e) {
+        close();
+        throw new TTransportException(TTransportException.NOT_OPEN, e);
+      }
+    }
+  }
+
+  /**
+   * Checks that the host is up by opening a new connection and making a cheap call on it.
+   * The connection is closed right after.
+   */
+  public void probe() throws TException {
+    Cassandra.Client client = createThriftClient(url, port);
+    try {
+      client.get_string_property("version");
+    } finally {
+      client.getInputProtocol().getTransport().close();
+    }
+  }
+
   /**
    * Gets an environment variable CASSANDRA_THRIFT_SOCKET_TIMEOUT value.
    * If doesn't exist, returns 0.
@@ -105,19 +186,53 @@ import org.slf4j.LoggerFactory;
     log.debug("Creating a new client...");
     CassandraClient c = create();
     log.debug("New client created: {}", c);
+    if (prewarmKeyspaces != null) {
+      prewarmKeyspaces(c);
+    }
     return c;
   }
 
+  private void prewarmKeyspaces(CassandraClient c) {
+    for (String keyspace : prewarmKeyspaces) {
+      try {
+        c.getKeyspace(keyspace);
+      } catch (Exception e) {
+        log.warn("Unable to resolve keyspace " + keyspace + " at " + c, e);
+      }
+    }
+  }
+
   @Override
   public boolean validateObject(Object obj) {
     return validateClient((CassandraClient) obj);
   }
 
   private boolean validateClient(CassandraClient client) {
-    // TODO send fast and easy request to cassandra
+    // Only local checks, this is called on borrows and releases. Idle clients are validated
+    // against the server in the background, by validateIdleClient.
     return !client.isClosed() && !client.hasErrors();
   }
 
+  /**
+   * Validates an idle client by a cheap call to cassandra, so that connections which were broken
+   * while idle (e.g. cut by a firewall) aren't handed to borrowers.
+   * Unlike {@link #validateObject(Object)} this makes a round trip, so it's only used by the idle
+   * client evictors, off the request path.
+   */
+  public boolean validateIdleClient(CassandraClient client) {
+    if (!validateClient(client)) {
+      return false;
+    }
+    try {
+      client.getCassandra().get_string_property("version");
+      return true;
+    } catch (Exception e) {
+      log.info("Idle client {} failed validation: {}", client, e.getMessage());
+      clientMonitor.incCounter(Counter.INVALID_IDLE_CLIENTS);
+      return false;
+    }
+  }
+
   private void closeClient(CassandraClient cclient) {
     ((CassandraClientPoolImpl) pool).reportDestroyed(cclient);
     Cassandra.Client client = cclient.getCassandra();
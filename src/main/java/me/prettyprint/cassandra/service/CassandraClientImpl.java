@@ -2,14 +2,17 @@ package me.prettyprint.cassandra.service;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.RandomPartitioner;
 import org.apache.cassandra.service.Cassandra;
 import org.apache.cassandra.service.NotFoundException;
 import org.apache.cassandra.service.Cassandra.Client;
@@ -27,11 +30,12 @@ import org.slf4j.LoggerFactory;
 
   private final static String PROP_CLUSTER_NAME = "cluster name";
   private final static String PROP_CONFIG_FILE = "config file";
-  private final static String PROP_TOKEN_MAP = "token map";
-  private final static String PROP_KEYSPACE = "keyspaces";
   private final static String PROP_VERSION = "version";
 
-  @SuppressWarnings("unused")
+  /** Extracts the partitioner class name from the server's config file */
+  private static final Pattern PARTITIONER_PATTERN =
+      Pattern.compile("<Partitioner>\\s*([^<\\s]+)\\s*</Partitioner>");
+
   private static final Logger log = LoggerFactory.getLogger(CassandraClientImpl.class);
 
   /** Serial number of the client used to track client creation for debug purposes */
@@ -42,20 +46,20 @@ import org.slf4j.LoggerFactory;
   /** The thrift object */
   private final Cassandra.Client cassandra;
 
-  /** List of known keyspaces */
-  private List<String> keyspaces;
-
   private final ConcurrentHashMap<String, KeyspaceImpl> keyspaceMap =
       new ConcurrentHashMap<String, KeyspaceImpl>();
 
-  private String clusterName;
+  /** The keyspaces, their descriptions and the token map, shared by the clients of the pool */
+  private final ClusterMetadata metadata;
 
-  private Map<String, String> tokenMap;
+  private String clusterName;
 
   private String configFile;
 
   private String serverVersion;
 
+  private IPartitioner<?> partitioner;
+
   private final KeyspaceFactory keyspaceFactory;
 
   private final int port;
@@ -69,8 +73,8 @@ import org.slf4j.LoggerFactory;
   private boolean hasErrors = false;
 
   public CassandraClientImpl(Cassandra.Client cassandraThriftClient,
-      KeyspaceFactory keyspaceFactory, String url, int port, CassandraClientPool clientPools)
-      throws UnknownHostException {
+      KeyspaceFactory keyspaceFactory, String url, int port, CassandraClientPool clientPools,
+      ClusterMetadata metadata) throws UnknownHostException {
     this.mySerial = serial.incrementAndGet();
     cassandra = cassandraThriftClient;
     this.keyspaceFactory = keyspaceFactory;
@@ -78,6 +82,7 @@ import org.slf4j.LoggerFactory;
     this.url = url;
     ip = getIpString(url);
     this.clientPools = clientPools;
+    this.metadata = metadata;
   }
 
   private static String getIpString(String url) throws UnknownHostException {
@@ -119,8 +124,9 @@ import org.slf4j.LoggerFactory;
     String keyspaceMapKey = buildKeyspaceMapName(keyspaceName, consistencyLevel, failoverPolicy);
     KeyspaceImpl keyspace = keyspaceMap.get(keyspaceMapKey);
     if (keyspace == null) {
-      if (getKeyspaces().contains(keyspaceName)) {
-        Map<String, Map<String, String>> keyspaceDesc = cassandra.describe_keyspace(keyspaceName);
+      if (metadata.hasKeyspace(this, keyspaceName)) {
+        Map<String, Map<String, String>> keyspaceDesc =
+            metadata.getKeyspaceDescription(this, keyspaceName);
         keyspace = (KeyspaceImpl) keyspaceFactory.create(this, keyspaceName, keyspaceDesc,
             consistencyLevel, failoverPolicy, clientPools);
         KeyspaceImpl tmp = keyspaceMap.putIfAbsent(keyspaceMapKey , keyspace);
@@ -138,10 +144,7 @@ import org.slf4j.LoggerFactory;
 
   @Override
   public List<String> getKeyspaces() throws TException {
-    if (keyspaces == null) {
-      keyspaces = cassandra.get_string_list_property(PROP_KEYSPACE);
-    }
-    return keyspaces;
+    return metadata.getKeyspaces(this);
   }
 
   @Override
@@ -151,20 +154,31 @@ import org.slf4j.LoggerFactory;
 
   @Override
   public Map<String, String> getTokenMap(boolean fresh) throws TException {
-    if (tokenMap == null || fresh) {
-      tokenMap = new HashMap<String, String>();
-      String strTokens = getStringProperty(PROP_TOKEN_MAP);
-      // Parse the result of the form {"token1":"host1","token2":"host2"}
-      strTokens = trimBothSides(strTokens);
-      String[] tokenPairs = strTokens.split(",");
-      for (String tokenPair: tokenPairs) {
-        String[] keyValue = tokenPair.split(":");
-        String token = trimBothSides(keyValue[0]);
-        String host = trimBothSides(keyValue[1]);
-        tokenMap.put(token, host);
+    return metadata.getTokenMap(this, fresh);
+  }
+
+  @Override
+  public IPartitioner<?> getPartitioner() throws TException {
+    if (partitioner == null) {
+      partitioner = createPartitioner(getConfigFile());
+    }
+    return partitioner;
+  }
+
+  /**
+   * Instantiates the partitioner named in the config file, falling back to RandomPartitioner.
+   */
+  private static IPartitioner<?> createPartitioner(String configFile) {
+    Matcher m = PARTITIONER_PATTERN.matcher(configFile == null ? "" : configFile);
+    if (m.find()) {
+      String className = m.group(1);
+      try {
+        return (IPartitioner<?>) Class.forName(className).getDeclaredConstructor().newInstance();
+      } catch (Exception e) {
+        log.error("Unable to create partitioner " + className + "; using RandomPartitioner", e);
       }
     }
-    return tokenMap;
+    return new RandomPartitioner();
   }
 
   @Override
@@ -197,19 +211,6 @@ import org.slf4j.LoggerFactory;
     return cassandra;
   }
 
-  /**
-   * Trims the string, one char from each side.
-   * For example, this: asdf becomes this: sd
-   * Useful in those cases:  "asdf" => asdf
-   * @param str
-   * @return
-   */
-  private String trimBothSides(String str) {
-    str = str.substring(1);
-    str = str.substring(0, str.length() - 1);
-    return str;
-  }
-
   @Override
   public int getPort() {
     return port;
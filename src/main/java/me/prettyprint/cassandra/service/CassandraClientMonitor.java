@@ -1,12 +1,14 @@
 package me.prettyprint.cassandra.service;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentMap;
+
+import me.prettyprint.cassandra.utils.StripedCounter;
 
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
@@ -15,10 +17,18 @@ import org.slf4j.LoggerFactory;
 /*package*/ class CassandraClientMonitor implements CassandraClientMonitorMBean {
 
   private static final Logger log = LoggerFactory.getLogger(CassandraClientMonitor.class);
-  private final Map<Counter, AtomicLong> counters;
+
+  /** Counters, indexed by {@link Counter#ordinal()} */
+  private final StripedCounter[] counters;
 
   private final Set<CassandraClientPool> pools;
 
+  /** Latencies of successful operations, by thrift operation name */
+  private final ConcurrentMap<String, LatencyHistogram> operationLatencies;
+
+  /** Latencies of successful calls, by host */
+  private final ConcurrentMap<String, LatencyHistogram> hostLatencies;
+
   /**
    * List of available JMX counts
    */
@@ -36,52 +46,160 @@ import org.slf4j.LoggerFactory;
     RECOVERABLE_LB_CONNECT_ERRORS,
     /** Connection time errors - unable to connect to host or something... */
     CONNECT_ERROR,
+    /** Reads which were speculatively sent to a second host since the first was slow */
+    SPECULATIVE_READS,
+    /** Speculative reads in which the second host answered first */
+    SPECULATIVE_READ_WINS,
+    /** Times a host was quarantined by its circuit breaker */
+    HOSTS_QUARANTINED,
+    /** Borrows which skipped or failed fast on a quarantined host */
+    QUARANTINED_HOST_SKIPS,
+    /** Idle clients closed by the evictor since they failed validation */
+    INVALID_IDLE_CLIENTS,
+    /** Reads answered by a column family cache */
+    CACHE_HITS,
+    /** Reads through a column family cache which weren't cached */
+    CACHE_MISSES,
+    /** Cache hits on columns cached as not found */
+    CACHE_NOT_FOUND_HITS,
+    /** Cached results evicted from column family caches, with their rows or since they expired */
+    CACHE_EVICTIONS,
+    /** Failover retries suppressed by a retry policy, by its budget or by the error */
+    RETRIES_SUPPRESSED,
   }
 
   public CassandraClientMonitor() {
     // Use a high concurrency map.
     pools = Collections.newSetFromMap(new ConcurrentHashMap<CassandraClientPool,Boolean>());
-    counters = new HashMap<Counter, AtomicLong>();
-    for (Counter counter: Counter.values()) {
-      counters.put(counter, new AtomicLong(0));
+    counters = new StripedCounter[Counter.values().length];
+    for (int i = 0; i < counters.length; ++i) {
+      counters[i] = new StripedCounter();
     }
+    operationLatencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    hostLatencies = new ConcurrentHashMap<String, LatencyHistogram>();
   }
 
   public void incCounter(Counter counterType) {
-    counters.get(counterType).incrementAndGet();
+    counters[counterType.ordinal()].increment();
+  }
+
+  public void incCounter(Counter counterType, long n) {
+    counters[counterType.ordinal()].add(n);
+  }
+
+  private long getCount(Counter counterType) {
+    return counters[counterType.ordinal()].sum();
+  }
+
+  /**
+   * Records the latency of a successful operation, including the time it took to fail over.
+   * @param operation the name of the thrift operation, e.g. get_slice
+   */
+  public void recordOperationLatency(String operation, long micros) {
+    getHistogram(operationLatencies, operation).record(micros);
+  }
+
+  /**
+   * Records the latency of a successful call to a host.
+   */
+  public void recordHostLatency(String host, long micros) {
+    getHistogram(hostLatencies, host).record(micros);
+  }
+
+  private static LatencyHistogram getHistogram(ConcurrentMap<String, LatencyHistogram> histograms,
+      String name) {
+    LatencyHistogram histogram = histograms.get(name);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      LatencyHistogram tmp = histograms.putIfAbsent(name, histogram);
+      if (tmp != null) {
+        histogram = tmp;
+      }
+    }
+    return histogram;
+  }
+
+  private static Map<String, String> getSummaries(Map<String, LatencyHistogram> histograms) {
+    Map<String, String> ret = new TreeMap<String, String>();
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      ret.put(entry.getKey(), entry.getValue().getSnapshot().toString());
+    }
+    return ret;
+  }
+
+  private static LatencyHistogram.Snapshot getSnapshot(Map<String, LatencyHistogram> histograms,
+      String name) {
+    LatencyHistogram histogram = histograms.get(name);
+    return histogram == null ? null : histogram.getSnapshot();
+  }
+
+  @Override
+  public Map<String, String> getOperationLatencies() {
+    return getSummaries(operationLatencies);
+  }
+
+  @Override
+  public Map<String, String> getHostLatencies() {
+    return getSummaries(hostLatencies);
+  }
+
+  @Override
+  public long getOperationLatencyPercentile(String operation, double percentile) {
+    LatencyHistogram.Snapshot snapshot = getSnapshot(operationLatencies, operation);
+    return snapshot == null ? 0 : snapshot.getPercentile(percentile);
+  }
+
+  @Override
+  public long getOperationLatencyMax(String operation) {
+    LatencyHistogram.Snapshot snapshot = getSnapshot(operationLatencies, operation);
+    return snapshot == null ? 0 : snapshot.getMax();
+  }
+
+  @Override
+  public long getHostLatencyPercentile(String host, double percentile) {
+    LatencyHistogram.Snapshot snapshot = getSnapshot(hostLatencies, host);
+    return snapshot == null ? 0 : snapshot.getPercentile(percentile);
+  }
+
+  @Override
+  public long getHostLatencyMax(String host) {
+    LatencyHistogram.Snapshot snapshot = getSnapshot(hostLatencies, host);
+    return snapshot == null ? 0 : snapshot.getMax();
   }
 
+  @Override
   public long getWriteSuccess() {
-    return counters.get(Counter.WRITE_SUCCESS).longValue();
+    return getCount(Counter.WRITE_SUCCESS);
   }
 
   @Override
   public long getReadFail() {
-    return counters.get(Counter.READ_FAIL).longValue();
+    return getCount(Counter.READ_FAIL);
   }
 
+  @Override
   public long getReadSuccess() {
-    return counters.get(Counter.READ_SUCCESS).longValue();
+    return getCount(Counter.READ_SUCCESS);
   }
 
   @Override
   public long getSkipHostSuccess() {
-    return counters.get(Counter.SKIP_HOST_SUCCESS).longValue();
+    return getCount(Counter.SKIP_HOST_SUCCESS);
   }
 
   @Override
   public long getRecoverableTimedOutCount() {
-    return counters.get(Counter.RECOVERABLE_TIMED_OUT_EXCEPTIONS).longValue();
+    return getCount(Counter.RECOVERABLE_TIMED_OUT_EXCEPTIONS);
   }
 
   @Override
   public long getRecoverableUnavailableCount() {
-    return counters.get(Counter.RECOVERABLE_UNAVAILABLE_EXCEPTIONS).longValue();
+    return getCount(Counter.RECOVERABLE_UNAVAILABLE_EXCEPTIONS);
   }
 
   @Override
   public long getWriteFail() {
-    return counters.get(Counter.WRITE_FAIL).longValue();
+    return getCount(Counter.WRITE_FAIL);
   }
 
   @Override
@@ -94,7 +212,7 @@ import org.slf4j.LoggerFactory;
 
   @Override
   public long getNumPoolExhaustedEventCount() {
-    return counters.get(Counter.POOL_EXHAUSTED).longValue();
+    return getCount(Counter.POOL_EXHAUSTED);
   }
 
   @Override
@@ -171,7 +289,7 @@ import org.slf4j.LoggerFactory;
 
   @Override
   public long getRecoverableTransportExceptionCount() {
-    return counters.get(Counter.RECOVERABLE_TRANSPORT_EXCEPTIONS).longValue();
+    return getCount(Counter.RECOVERABLE_TRANSPORT_EXCEPTIONS);
   }
 
   @Override
@@ -184,13 +302,76 @@ import org.slf4j.LoggerFactory;
     pools.add(pool);
   }
 
+  public void removePool(CassandraClientPool pool) {
+    pools.remove(pool);
+  }
+
   @Override
   public long getRecoverableLoadBalancedConnectErrors() {
-    return counters.get(Counter.RECOVERABLE_LB_CONNECT_ERRORS).longValue();
+    return getCount(Counter.RECOVERABLE_LB_CONNECT_ERRORS);
   }
 
   @Override
   public long getNumConnectionErrors() {
-    return counters.get(Counter.CONNECT_ERROR).longValue();
+    return getCount(Counter.CONNECT_ERROR);
+  }
+
+  @Override
+  public long getSpeculativeReadCount() {
+    return getCount(Counter.SPECULATIVE_READS);
+  }
+
+  @Override
+  public long getSpeculativeReadWinCount() {
+    return getCount(Counter.SPECULATIVE_READ_WINS);
+  }
+
+  @Override
+  public long getNumHostsQuarantined() {
+    return getCount(Counter.HOSTS_QUARANTINED);
+  }
+
+  @Override
+  public long getNumQuarantinedHostSkips() {
+    return getCount(Counter.QUARANTINED_HOST_SKIPS);
+  }
+
+  @Override
+  public long getNumInvalidIdleClients() {
+    return getCount(Counter.INVALID_IDLE_CLIENTS);
+  }
+
+  @Override
+  public long getCacheHitCount() {
+    return getCount(Counter.CACHE_HITS);
+  }
+
+  @Override
+  public long getCacheMissCount() {
+    return getCount(Counter.CACHE_MISSES);
+  }
+
+  @Override
+  public long getCacheNotFoundHitCount() {
+    return getCount(Counter.CACHE_NOT_FOUND_HITS);
+  }
+
+  @Override
+  public long getCacheEvictionCount() {
+    return getCount(Counter.CACHE_EVICTIONS);
+  }
+
+  @Override
+  public long getNumSuppressedRetries() {
+    return getCount(Counter.RETRIES_SUPPRESSED);
+  }
+
+  @Override
+  public Set<String> getQuarantinedHosts() {
+    Set<String> ret = new HashSet<String>();
+    for (CassandraClientPool pool: pools) {
+      ret.addAll(pool.getQuarantinedHosts());
+    }
+    return ret;
   }
 }
@@ -1,5 +1,6 @@
 package me.prettyprint.cassandra.service;
 
+import java.util.Map;
 import java.util.Set;
 
 
@@ -16,6 +17,16 @@ import org.apache.thrift.transport.TTransportException;
  */
 public interface CassandraClientMonitorMBean {
 
+  /**
+   * @return Number of successful writes.
+   */
+  long getWriteSuccess();
+
+  /**
+   * @return Number of successful reads.
+   */
+  long getReadSuccess();
+
   /**
    * @return Number of failed (and not-recovered) writes.
    */
@@ -112,6 +123,103 @@ public interface CassandraClientMonitorMBean {
 
   public Set<String> getKnownHosts();
 
+  /**
+   * @return Number of reads which were hedged, i.e. sent to a second host since the first host
+   * did not answer within the {@link SpeculativeReadPolicy} delay.
+   */
+  long getSpeculativeReadCount();
+
+  /**
+   * @return Number of hedged reads in which the second host answered first.
+   */
+  long getSpeculativeReadWinCount();
+
+  /**
+   * Latencies of successful operations over the last minute, by thrift operation name (get,
+   * get_slice, multiget_slice, insert, batch_insert, remove, get_range_slice, get_count...).
+   * Latencies include the time spent failing over to other hosts.
+   * @return a summary of count, p50, p95, p99, p999 and max, in microseconds, per operation.
+   */
+  Map<String, String> getOperationLatencies();
+
+  /**
+   * Latencies of successful calls over the last minute, by host.
+   * @return a summary of count, p50, p95, p99, p999 and max, in microseconds, per host.
+   */
+  Map<String, String> getHostLatencies();
+
+  /**
+   * @param percentile between 0 and 100, e.g. 99.9
+   * @return the latency of the operation at the percentile over the last minute, in microseconds.
+   */
+  long getOperationLatencyPercentile(String operation, double percentile);
+
+  /**
+   * @return the max latency of the operation over the last minute, in microseconds.
+   */
+  long getOperationLatencyMax(String operation);
+
+  /**
+   * @param percentile between 0 and 100, e.g. 99.9
+   * @return the latency of calls to the host at the percentile over the last minute, in
+   * microseconds.
+   */
+  long getHostLatencyPercentile(String host, double percentile);
+
+  /**
+   * @return the max latency of calls to the host over the last minute, in microseconds.
+   */
+  long getHostLatencyMax(String host);
+
+  /**
+   * @return Number of times hosts were quarantined by their circuit breakers.
+   */
+  long getNumHostsQuarantined();
+
+  /**
+   * @return Number of borrows which skipped, or failed fast on, a quarantined host.
+   */
+  long getNumQuarantinedHostSkips();
+
+  /**
+   * @return Number of idle clients which were closed by the idle client evictor since they failed
+   * validation.
+   */
+  long getNumInvalidIdleClients();
+
+  /**
+   * @return Number of reads answered by the column family caches.
+   */
+  long getCacheHitCount();
+
+  /**
+   * @return Number of reads through the column family caches which weren't cached.
+   */
+  long getCacheMissCount();
+
+  /**
+   * @return Number of column family cache hits on columns cached as not found, included in
+   * {@link #getCacheHitCount()}.
+   */
+  long getCacheNotFoundHitCount();
+
+  /**
+   * @return Number of results evicted from the column family caches, since their rows were least
+   * recently used or since they expired.
+   */
+  long getCacheEvictionCount();
+
+  /**
+   * @return Number of failover retries which the {@link RetryPolicy} didn't allow, since the
+   * retry budget was spent or since the error isn't retried. These operations failed instead.
+   */
+  long getNumSuppressedRetries();
+
+  /**
+   * @return The hosts which are currently quarantined.
+   */
+  Set<String> getQuarantinedHosts();
+
   /**
    * Tells all pulls to update their list of known hosts.
    * This is useful when an admin adds/removes a host from the ring and wants the application to
@@ -102,7 +102,8 @@ public interface CassandraClientPool {
    * Borrows a load-balanced client, a random client from the array of given client addresses.
    *
    * This method is typically used to allow load balancing b/w the list of given client URLs. The
-   * method will return a random client from the array of the given url:port pairs.
+   * method will return a random client from the array of the given url:port pairs, or the client
+   * chosen by the {@link #getLoadBalancingPolicy() load balancing policy} if there is one.
    * The method will try connecting each host in the list and will only stop when there's one
    * successful connection, so in that sense it's also useful for failover.
    *
@@ -144,11 +145,115 @@ public interface CassandraClientPool {
 
   int getNumActive();
 
+  /**
+   * @param urlPort a string of the format url:port
+   * @return Number of active clients of the host's pool.
+   */
+  int getNumActive(String urlPort);
+
   Set<String> getKnownHosts();
 
+  /**
+   * @return The url:port of the hosts whose circuit breakers are currently open.
+   * @see CassandraHost#setCircuitBreaker(boolean)
+   */
+  Set<String> getQuarantinedHosts();
+
   /**
    * Use this method to invalidate the client and take it out of the pool.
    * This is usually so when the client has errors.
    */
   void invalidateClient(CassandraClient client);
+
+  /**
+   * Whether keyspaces obtained from clients of this pool send single-key operations directly to
+   * a host which owns the key, rather than to the host of the keyspace's client.
+   *
+   * When enabled, the key is hashed with the cluster's partitioner and looked up in the ring
+   * (see {@link CassandraClient#getTokenMap(boolean)}). If the ring is unknown or the owning host
+   * cannot be reached, the operation is performed on the keyspace's client as usual.
+   */
+  boolean isTokenAwareRouting();
+
+  void setTokenAwareRouting(boolean tokenAwareRouting);
+
+  /**
+   * The policy by which keyspaces obtained from clients of this pool hedge slow reads by sending
+   * them to another host as well. null (the default) means reads are never hedged.
+   */
+  SpeculativeReadPolicy getSpeculativeReadPolicy();
+
+  void setSpeculativeReadPolicy(SpeculativeReadPolicy speculativeReadPolicy);
+
+  /**
+   * The policy by which keyspaces obtained from clients of this pool split large multigets into
+   * smaller, parallel, multigets. null (the default) means multigets are never split.
+   */
+  MultigetSplitPolicy getMultigetSplitPolicy();
+
+  void setMultigetSplitPolicy(MultigetSplitPolicy multigetSplitPolicy);
+
+  /**
+   * The policy by which {@link #borrowClient(String[])}, and keyspaces failing over, choose a
+   * host. null (the default) means a random host is borrowed from and keyspaces fail over to the
+   * next host in the ring.
+   */
+  LoadBalancingPolicy getLoadBalancingPolicy();
+
+  void setLoadBalancingPolicy(LoadBalancingPolicy loadBalancingPolicy);
+
+  /**
+   * The policy by which keyspaces obtained from clients of this pool back off and limit their
+   * retries when failing over. null (the default) means failed operations are retried on the next
+   * host at once, up to the keyspace's {@link CassandraClient.FailoverPolicy} retries.
+   */
+  RetryPolicy getRetryPolicy();
+
+  void setRetryPolicy(RetryPolicy retryPolicy);
+
+  /**
+   * Time between background refreshes of the cluster metadata (keyspaces, keyspace descriptions
+   * and the token map) which the clients of this pool share. 0 or less means the metadata is only
+   * refreshed after failures and when asked for fresh. One minute by default.
+   */
+  long getMetadataRefreshIntervalMillis();
+
+  void setMetadataRefreshIntervalMillis(long metadataRefreshIntervalMillis);
+
+  /**
+   * Caches reads of a column family by the keyspaces of this pool's clients, see
+   * {@link ColumnFamilyCache}. Replaces the column family's cache if it already has one.
+   *
+   * @param maxRows The max number of rows to cache, the least recently used rows are evicted. 0 or
+   * less removes the column family's cache.
+   * @param ttlMillis Time a read is cached for. Writes made through this pool invalidate the rows
+   * they write; writes made by others are seen after this time.
+   */
+  void setColumnFamilyCache(String keyspaceName, String columnFamily, int maxRows,
+      long ttlMillis);
+
+  /**
+   * Like {@link #setColumnFamilyCache(String, String, int, long)}, and also caches that columns
+   * weren't found by {@link Keyspace#getColumn} and {@link Keyspace#getColumnOrNull}, for
+   * notFoundTtlMillis.
+   *
+   * @param ttlMillis Time a read is cached for, 0 or less to only cache columns which weren't
+   * found.
+   * @param notFoundTtlMillis Time a column which wasn't found is cached for, 0 or less to not
+   * cache them.
+   */
+  void setColumnFamilyCache(String keyspaceName, String columnFamily, int maxRows,
+      long ttlMillis, long notFoundTtlMillis);
+
+  /**
+   * @return The cache of the column family, null if it isn't cached.
+   */
+  ColumnFamilyCache getColumnFamilyCache(String keyspaceName, String columnFamily);
+
+  /**
+   * Closes the pools of all the hosts and stops the pool's background work: idle client
+   * maintenance, metadata refreshes and the threads of its speculative read and multiget split
+   * policies. Clients can't be borrowed from a closed pool.
+   */
+  void close();
 }
@@ -56,6 +56,15 @@ import org.apache.thrift.TException;
   CassandraClient borrowClient() throws Exception, PoolExhaustedException,
       IllegalStateException;
 
+  /**
+   * Opens a new client and adds it to the idle clients, unless the pool already holds maxIdle
+   * idle clients or is exhausted. Used to warm the pool up ahead of borrows.
+   *
+   * @return true if a client was added.
+   * @throws Exception if the client could not be created.
+   */
+  boolean addIdleClient() throws Exception;
+
   /**
    * Returns a client to pool.
    * The client must was an instance previously borrowed from this pool by borrowClient().
@@ -122,4 +131,9 @@ import org.apache.thrift.TException;
    *    are borrowed as well as clients that are currently kept in the pool.
    */
   Set<CassandraClient> getLiveClients();
+
+  /**
+   * Notifies the pool that the client has been destroyed (its transport closed) by the factory.
+   */
+  void reportDestroyed(CassandraClient client);
 }
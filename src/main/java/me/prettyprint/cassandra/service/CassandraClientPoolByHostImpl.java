@@ -7,6 +7,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.pool.PoolableObjectFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.apache.commons.pool.impl.GenericObjectPoolFactory;
 import org.apache.thrift.TException;
@@ -27,6 +28,8 @@ import com.google.common.collect.ImmutableSet;
   private final int maxIdle;
   private final ExhaustedPolicy exhaustedPolicy;
   private final long maxWaitTimeWhenExhausted;
+  private final long idleEvictionIntervalMillis;
+  private final long maxIdleTimeMillis;
   private final GenericObjectPool pool;
 
   /**
@@ -61,6 +64,8 @@ import com.google.common.collect.ImmutableSet;
     this.maxIdle = cassandraHost.getMaxIdle();
     this.maxWaitTimeWhenExhausted = cassandraHost.getMaxWaitTimeWhenExhausted();
     this.exhaustedPolicy = cassandraHost.getExhaustedPolicy();   
+    this.idleEvictionIntervalMillis = cassandraHost.getIdleEvictionIntervalMillis();
+    this.maxIdleTimeMillis = cassandraHost.getMaxIdleTimeMillis();
     this.clientFactory = cassandraClientFactory;    
     
     blockedThreadsCount = new AtomicInteger(0);
@@ -85,6 +90,15 @@ import com.google.common.collect.ImmutableSet;
     }
   }
 
+  @Override
+  public boolean addIdleClient() throws Exception {
+    if (pool.getNumIdle() >= maxIdle || pool.getNumIdle() + pool.getNumActive() >= maxActive) {
+      return false;
+    }
+    pool.addObject();
+    return true;
+  }
+
   @Override
   public void close() {
     try {
@@ -115,10 +129,61 @@ import com.google.common.collect.ImmutableSet;
   }
 
   private GenericObjectPool createPool() {
-    GenericObjectPoolFactory poolFactory = new GenericObjectPoolFactory(clientFactory, maxActive,
+    boolean evict = idleEvictionIntervalMillis > 0;
+    GenericObjectPoolFactory poolFactory = new GenericObjectPoolFactory(
+        evict ? new IdleValidatingFactory(clientFactory) : clientFactory, maxActive,
         getObjectPoolExhaustedAction(exhaustedPolicy),
         maxWaitTimeWhenExhausted, maxIdle);
-    return (GenericObjectPool) poolFactory.createPool();
+    GenericObjectPool p = (GenericObjectPool) poolFactory.createPool();
+    if (evict) {
+      // The evictor takes each idle client out of the pool while validating it, so borrowers
+      // don't wait for the validation, they get the next idle client or a new one.
+      p.setTestWhileIdle(true);
+      // Negative means all the idle clients are tested in each run
+      p.setNumTestsPerEvictionRun(-1);
+      p.setMinEvictableIdleTimeMillis(maxIdleTimeMillis > 0 ? maxIdleTimeMillis : -1);
+      p.setTimeBetweenEvictionRunsMillis(idleEvictionIntervalMillis);
+    }
+    return p;
+  }
+
+  /**
+   * The factory of a pool with an idle evictor.
+   * Since clients aren't tested on borrow or on return the pool only validates clients in its
+   * evictor, so validation goes to the server.
+   */
+  private static class IdleValidatingFactory implements PoolableObjectFactory {
+
+    private final CassandraClientFactory clientFactory;
+
+    IdleValidatingFactory(CassandraClientFactory clientFactory) {
+      this.clientFactory = clientFactory;
+    }
+
+    @Override
+    public Object makeObject() throws Exception {
+      return clientFactory.makeObject();
+    }
+
+    @Override
+    public void destroyObject(Object obj) throws Exception {
+      clientFactory.destroyObject(obj);
+    }
+
+    @Override
+    public boolean validateObject(Object obj) {
+      return clientFactory.validateIdleClient((CassandraClient) obj);
+    }
+
+    @Override
+    public void activateObject(Object obj) throws Exception {
+      clientFactory.activateObject(obj);
+    }
+
+    @Override
+    public void passivateObject(Object obj) throws Exception {
+      clientFactory.passivateObject(obj);
+    }
   }
 
   public static byte getObjectPoolExhaustedAction(ExhaustedPolicy exhaustedAction){
@@ -208,7 +273,8 @@ import com.google.common.collect.ImmutableSet;
     return ImmutableSet.copyOf(liveClientsFromPool);
   }
 
-  void reportDestroyed(CassandraClient client) {
+  @Override
+  public void reportDestroyed(CassandraClient client) {
     log.debug("Client has been destroyed: {}", client);
     liveClientsFromPool.remove(client);
   }
@@ -7,10 +7,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import me.prettyprint.cassandra.service.CassandraClientMonitor.Counter;
 
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,11 +33,40 @@ import org.slf4j.LoggerFactory;
    */
   private final Map<CassandraHost, CassandraClientPoolByHost> pools;
 
+  /**
+   * The circuit breakers of the hosts configured with {@link CassandraHost#isCircuitBreaker()}.
+   */
+  private final ConcurrentMap<CassandraHost, HostCircuitBreaker> circuitBreakers;
+
   private final CassandraClientMonitor clientMonitor;
 
+  private volatile boolean tokenAwareRouting = false;
+
+  private volatile SpeculativeReadPolicy speculativeReadPolicy;
+
+  private volatile MultigetSplitPolicy multigetSplitPolicy;
+
+  private volatile LoadBalancingPolicy loadBalancingPolicy;
+
+  private volatile RetryPolicy retryPolicy;
+
+  private volatile boolean closed = false;
+
+  /** Metadata shared by the clients of all the hosts */
+  private final ClusterMetadata clusterMetadata;
+
+  /** Column family caches, by keyspace name and column family */
+  private final ConcurrentMap<String, ColumnFamilyCache> caches;
+
+  /** Created when the first host with a minIdle is added; guarded by pools */
+  private PoolMaintainer poolMaintainer;
+
   public CassandraClientPoolImpl(CassandraClientMonitor clientMonitor) {
     pools = new HashMap<CassandraHost, CassandraClientPoolByHost>();
+    circuitBreakers = new ConcurrentHashMap<CassandraHost, HostCircuitBreaker>();
     this.clientMonitor = clientMonitor;
+    clusterMetadata = new ClusterMetadata(this, ClusterMetadata.DEFAULT_REFRESH_INTERVAL_MILLIS);
+    caches = new ConcurrentHashMap<String, ColumnFamilyCache>();
   }
   
   public CassandraClientPoolImpl(CassandraClientMonitor clientMonitor, String[] cassandraHosts) {
@@ -70,7 +102,32 @@ import org.slf4j.LoggerFactory;
   @Override
   public CassandraClient borrowClient(String url, int port)
       throws IllegalStateException, PoolExhaustedException, Exception {
-    return getPool(new CassandraHost(url, port)).borrowClient();
+    return borrowClient(new CassandraHost(url, port));
+  }
+
+  private CassandraClient borrowClient(CassandraHost cassandraHost)
+      throws IllegalStateException, PoolExhaustedException, Exception {
+    CassandraClientPoolByHost pool = getPool(cassandraHost);
+    HostCircuitBreaker breaker = circuitBreakers.get(cassandraHost);
+    if (breaker == null) {
+      return pool.borrowClient();
+    }
+    if (!breaker.allowRequest()) {
+      clientMonitor.incCounter(Counter.QUARANTINED_HOST_SKIPS);
+      throw new TTransportException(TTransportException.NOT_OPEN, "Host " + cassandraHost +
+          " is quarantined");
+    }
+    try {
+      return pool.borrowClient();
+    } catch (PoolExhaustedException e) {
+      // The host isn't to blame
+      throw e;
+    } catch (IllegalStateException e) {
+      throw e;
+    } catch (Exception e) {
+      breaker.recordFailure();
+      throw e;
+    }
   }
 
   @Override
@@ -93,6 +150,11 @@ import org.slf4j.LoggerFactory;
     return count;
   }
 
+  @Override
+  public int getNumActive(String urlPort) {
+    return getPool(new CassandraHost(urlPort)).getNumActive();
+  }
+
   @Override
   public int getNumBlockedThreads() {
     int count = 0;
@@ -133,14 +195,34 @@ import org.slf4j.LoggerFactory;
       synchronized (pools) {
         pool = pools.get(cassandraHost);
         if (pool == null) {
-          pool = new CassandraClientPoolByHostImpl(cassandraHost, this, clientMonitor);
+          if (closed) {
+            throw new IllegalStateException("Pool closed");
+          }
+          pool = createPool(cassandraHost);
+          if (cassandraHost.isCircuitBreaker()) {
+            circuitBreakers.put(cassandraHost, new HostCircuitBreaker(cassandraHost,
+                new CassandraClientFactory(this, cassandraHost, clientMonitor), clientMonitor));
+          }
           pools.put(cassandraHost, pool);
+          if (cassandraHost.getMinIdle() > 0) {
+            if (poolMaintainer == null) {
+              poolMaintainer = new PoolMaintainer(this);
+            }
+            poolMaintainer.add(cassandraHost, pool);
+          }
         }
       }
     }
     return pool;
   }
 
+  private CassandraClientPoolByHost createPool(CassandraHost cassandraHost) {
+    if (cassandraHost.isLockFreePool()) {
+      return new LockFreeCassandraClientPoolByHostImpl(cassandraHost, this, clientMonitor);
+    }
+    return new CassandraClientPoolByHostImpl(cassandraHost, this, clientMonitor);
+  }
+
   @Override
   public Set<String> getPoolNames() {
     Set<String> names = new HashSet<String>();
@@ -152,7 +234,12 @@ import org.slf4j.LoggerFactory;
 
   @Override
   public void releaseClient(CassandraClient client) throws Exception {
-    getPool(client).releaseClient(client);
+    CassandraHost cassandraHost = getHost(client);
+    HostCircuitBreaker breaker = circuitBreakers.get(cassandraHost);
+    if (breaker != null && !client.hasErrors()) {
+      breaker.recordSuccess();
+    }
+    getPool(cassandraHost).releaseClient(client);
   }
 
   @Override
@@ -175,16 +262,41 @@ import org.slf4j.LoggerFactory;
 
   @Override
   public void invalidateClient(CassandraClient client) {
-    getPool(client).invalidateClient(client);
+    CassandraHost cassandraHost = getHost(client);
+    HostCircuitBreaker breaker = circuitBreakers.get(cassandraHost);
+    if (breaker != null) {
+      breaker.recordFailure();
+    }
+    getPool(cassandraHost).invalidateClient(client);
+    // The ring may have changed
+    clusterMetadata.refreshSoon();
+  }
 
+  @Override
+  public Set<String> getQuarantinedHosts() {
+    Set<String> hosts = new HashSet<String>();
+    for (Map.Entry<CassandraHost, HostCircuitBreaker> entry : circuitBreakers.entrySet()) {
+      if (!entry.getValue().allowRequest()) {
+        hosts.add(entry.getKey().getUrlPort());
+      }
+    }
+    return hosts;
+  }
+
+  HostCircuitBreaker getCircuitBreaker(CassandraHost cassandraHost) {
+    return circuitBreakers.get(cassandraHost);
   }
 
   void reportDestroyed(CassandraClient client) {
-    ((CassandraClientPoolByHostImpl) getPool(client)).reportDestroyed(client);
+    getPool(client).reportDestroyed(client);
   }
 
   private CassandraClientPoolByHost getPool(CassandraClient c) {
-    return getPool(new CassandraHost(c.getUrl(), c.getPort()));
+    return getPool(getHost(c));
+  }
+
+  private static CassandraHost getHost(CassandraClient c) {
+    return new CassandraHost(c.getUrl(), c.getPort());
   }
 
   @Override
@@ -195,21 +307,137 @@ import org.slf4j.LoggerFactory;
   @Override
   public CassandraClient borrowClient(String urlPort) throws IllegalStateException,
       PoolExhaustedException, Exception {        
-    return getPool(new CassandraHost(urlPort)).borrowClient();
+    return borrowClient(new CassandraHost(urlPort));
+  }
+
+  @Override
+  public boolean isTokenAwareRouting() {
+    return tokenAwareRouting;
+  }
+
+  @Override
+  public void setTokenAwareRouting(boolean tokenAwareRouting) {
+    this.tokenAwareRouting = tokenAwareRouting;
+  }
+
+  @Override
+  public SpeculativeReadPolicy getSpeculativeReadPolicy() {
+    return speculativeReadPolicy;
+  }
+
+  @Override
+  public void setSpeculativeReadPolicy(SpeculativeReadPolicy speculativeReadPolicy) {
+    this.speculativeReadPolicy = speculativeReadPolicy;
+  }
+
+  @Override
+  public MultigetSplitPolicy getMultigetSplitPolicy() {
+    return multigetSplitPolicy;
+  }
+
+  @Override
+  public void setMultigetSplitPolicy(MultigetSplitPolicy multigetSplitPolicy) {
+    this.multigetSplitPolicy = multigetSplitPolicy;
+  }
+
+  @Override
+  public LoadBalancingPolicy getLoadBalancingPolicy() {
+    return loadBalancingPolicy;
+  }
+
+  @Override
+  public void setLoadBalancingPolicy(LoadBalancingPolicy loadBalancingPolicy) {
+    this.loadBalancingPolicy = loadBalancingPolicy;
+  }
+
+  @Override
+  public void close() {
+    synchronized (pools) {
+      closed = true;
+      for (CassandraClientPoolByHost pool: pools.values()) {
+        pool.close();
+      }
+      if (poolMaintainer != null) {
+        poolMaintainer.shutdown();
+      }
+    }
+    clusterMetadata.setRefreshIntervalMillis(0);
+    SpeculativeReadPolicy speculative = speculativeReadPolicy;
+    if (speculative != null) {
+      speculative.shutdown();
+    }
+    MultigetSplitPolicy split = multigetSplitPolicy;
+    if (split != null) {
+      split.shutdown();
+    }
+    clientMonitor.removePool(this);
+  }
+
+  @Override
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  @Override
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  @Override
+  public long getMetadataRefreshIntervalMillis() {
+    return clusterMetadata.getRefreshIntervalMillis();
+  }
+
+  @Override
+  public void setMetadataRefreshIntervalMillis(long metadataRefreshIntervalMillis) {
+    clusterMetadata.setRefreshIntervalMillis(metadataRefreshIntervalMillis);
+  }
+
+  @Override
+  public void setColumnFamilyCache(String keyspaceName, String columnFamily, int maxRows,
+      long ttlMillis) {
+    setColumnFamilyCache(keyspaceName, columnFamily, maxRows, ttlMillis, 0);
+  }
+
+  @Override
+  public void setColumnFamilyCache(String keyspaceName, String columnFamily, int maxRows,
+      long ttlMillis, long notFoundTtlMillis) {
+    String name = keyspaceName + "." + columnFamily;
+    if (maxRows <= 0) {
+      caches.remove(name);
+    } else {
+      caches.put(name, new ColumnFamilyCache(keyspaceName, columnFamily, maxRows, ttlMillis,
+          notFoundTtlMillis, clientMonitor));
+    }
+  }
+
+  @Override
+  public ColumnFamilyCache getColumnFamilyCache(String keyspaceName, String columnFamily) {
+    if (caches.isEmpty()) {
+      return null;
+    }
+    return caches.get(keyspaceName + "." + columnFamily);
+  }
+
+  ClusterMetadata getClusterMetadata() {
+    return clusterMetadata;
   }
 
   @Override
   public CassandraClient borrowClient(String[] clientUrls) throws Exception {
     List<String> clients = new ArrayList<String>(Arrays.asList(clientUrls));
+    skipQuarantinedHosts(clients);
+    LoadBalancingPolicy policy = loadBalancingPolicy;
     while(!clients.isEmpty()) {
-      int rand = (int) (Math.random() * clients.size());
+      int index = policy == null ? (int) (Math.random() * clients.size()) :
+          clients.indexOf(policy.selectHost(clients, this));
       try {
-        return borrowClient(clients.get(rand));
+        return borrowClient(clients.get(index));
       } catch (Exception e) {
         if (clients.size() > 1) {
-          log.warn("Unable to obtain client " + clients.get(rand) + " will try the next client", e);
+          log.warn("Unable to obtain client " + clients.get(index) + " will try the next client", e);
           clientMonitor.incCounter(Counter.RECOVERABLE_LB_CONNECT_ERRORS);
-          clients.remove(rand);
+          clients.remove(index);
         } else {
           throw e;
         }
@@ -219,6 +447,29 @@ import org.slf4j.LoggerFactory;
     // this to make the compiler happy.
     return null;
   }
+
+  /**
+   * Removes the quarantined hosts from the list of url:port, unless all of them are quarantined,
+   * in which case borrowing fails on the first one tried.
+   */
+  private void skipQuarantinedHosts(List<String> clients) {
+    if (circuitBreakers.isEmpty()) {
+      return;
+    }
+    List<String> healthy = new ArrayList<String>(clients.size());
+    for (String urlPort : clients) {
+      HostCircuitBreaker breaker = circuitBreakers.get(new CassandraHost(urlPort));
+      if (breaker == null || breaker.allowRequest()) {
+        healthy.add(urlPort);
+      }
+    }
+    if (!healthy.isEmpty() && healthy.size() < clients.size()) {
+      for (int i = healthy.size(); i < clients.size(); ++i) {
+        clientMonitor.incCounter(Counter.QUARANTINED_HOST_SKIPS);
+      }
+      clients.retainAll(healthy);
+    }
+  }
   
 
 }
@@ -22,8 +22,23 @@ public class CassandraHost {
 
   private int maxActive = DEFAULT_MAX_ACTIVE;
   private int maxIdle = DEFAULT_MAX_IDLE;
+  private int minIdle = DEFAULT_MIN_IDLE;
+  private boolean prewarmOnStart = false;
+  private String[] prewarmKeyspaces;
   private long maxWaitTimeWhenExhausted = DEFAULT_MAX_WAITTIME_WHEN_EXHAUSTED;
   private ExhaustedPolicy exhaustedPolicy = ExhaustedPolicy.WHEN_EXHAUSTED_BLOCK;
+  private boolean lockFreePool = false;
+  private boolean circuitBreaker = false;
+  private int circuitBreakerConsecutiveFailures = DEFAULT_CIRCUIT_BREAKER_CONSECUTIVE_FAILURES;
+  private double circuitBreakerErrorRate = DEFAULT_CIRCUIT_BREAKER_ERROR_RATE;
+  private long circuitBreakerProbeIntervalMillis = DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL_MILLIS;
+  private boolean framedTransport = false;
+  private int transportBufferSize = DEFAULT_TRANSPORT_BUFFER_SIZE;
+  private int socketSendBufferSize = 0;
+  private int socketReceiveBufferSize = 0;
+  private boolean tcpNoDelay = true;
+  private long idleEvictionIntervalMillis = DEFAULT_IDLE_EVICTION_INTERVAL_MILLIS;
+  private long maxIdleTimeMillis = DEFAULT_MAX_IDLE_TIME_MILLIS;
 
   public static final int DEFAULT_MAX_ACTIVE = 50;
 
@@ -38,6 +53,32 @@ public class CassandraHost {
    * number will decrease to 5
    */
   public static final int DEFAULT_MAX_IDLE = 5 ;
+
+  /**
+   * The default min idle number is 0, so idle clients are only created by borrows
+   */
+  public static final int DEFAULT_MIN_IDLE = 0;
+
+  public static final int DEFAULT_CIRCUIT_BREAKER_CONSECUTIVE_FAILURES = 5;
+
+  public static final double DEFAULT_CIRCUIT_BREAKER_ERROR_RATE = 0.5;
+
+  public static final long DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL_MILLIS = 2000;
+
+  /**
+   * The default size of the buffers around the socket streams, same as thrift's TSocket
+   */
+  public static final int DEFAULT_TRANSPORT_BUFFER_SIZE = 1024;
+
+  /**
+   * By default idle clients are validated every 30 seconds
+   */
+  public static final long DEFAULT_IDLE_EVICTION_INTERVAL_MILLIS = 30 * 1000;
+
+  /**
+   * By default idle clients are kept for as long as they're valid
+   */
+  public static final long DEFAULT_MAX_IDLE_TIME_MILLIS = 0;
   
   public CassandraHost(String urlPort) {
     this(parseHostFromUrl(urlPort), parsePortFromUrl(urlPort));
@@ -133,6 +174,43 @@ public class CassandraHost {
     this.maxIdle = maxIdle;
   }
 
+  /**
+   * The number of idle clients a background maintainer keeps in the pool, so that borrows don't
+   * need to connect. Bounded by maxIdle.
+   */
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  /**
+   * Whether minIdle clients are opened, in parallel, as soon as the pool is created rather than
+   * by the first run of the maintainer.
+   */
+  public boolean isPrewarmOnStart() {
+    return prewarmOnStart;
+  }
+
+  public void setPrewarmOnStart(boolean prewarmOnStart) {
+    this.prewarmOnStart = prewarmOnStart;
+  }
+
+  /**
+   * Keyspaces which every new client resolves (with the default consistency level and failover
+   * policy) when it's created, so a later getKeyspace doesn't need a describe_keyspace call.
+   * null (the default) means keyspaces are resolved on demand.
+   */
+  public String[] getPrewarmKeyspaces() {
+    return prewarmKeyspaces;
+  }
+
+  public void setPrewarmKeyspaces(String[] prewarmKeyspaces) {
+    this.prewarmKeyspaces = prewarmKeyspaces;
+  }
+
   public long getMaxWaitTimeWhenExhausted() {
     return maxWaitTimeWhenExhausted;
   }
@@ -149,6 +227,149 @@ public class CassandraHost {
     this.exhaustedPolicy = exhaustedPolicy;
   }
   
+  /**
+   * Whether connections to this host are pooled by the lock free pool implementation
+   * ({@link LockFreeCassandraClientPoolByHostImpl}) rather than by commons-pool.
+   * Use it when many threads borrow clients from the same host concurrently.
+   */
+  public boolean isLockFreePool() {
+    return lockFreePool;
+  }
+
+  public void setLockFreePool(boolean lockFreePool) {
+    this.lockFreePool = lockFreePool;
+  }
+
+  /**
+   * Whether the host is quarantined when it fails, so that clients aren't borrowed from it
+   * until a background probe finds it's up again. See {@link HostCircuitBreaker}.
+   */
+  public boolean isCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  public void setCircuitBreaker(boolean circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Number of consecutive failures after which the host is quarantined.
+   */
+  public int getCircuitBreakerConsecutiveFailures() {
+    return circuitBreakerConsecutiveFailures;
+  }
+
+  public void setCircuitBreakerConsecutiveFailures(int circuitBreakerConsecutiveFailures) {
+    this.circuitBreakerConsecutiveFailures = circuitBreakerConsecutiveFailures;
+  }
+
+  /**
+   * The rate of failed calls, between 0 and 1, at which the host is quarantined.
+   */
+  public double getCircuitBreakerErrorRate() {
+    return circuitBreakerErrorRate;
+  }
+
+  public void setCircuitBreakerErrorRate(double circuitBreakerErrorRate) {
+    this.circuitBreakerErrorRate = circuitBreakerErrorRate;
+  }
+
+  /**
+   * Time between probes of a quarantined host.
+   */
+  public long getCircuitBreakerProbeIntervalMillis() {
+    return circuitBreakerProbeIntervalMillis;
+  }
+
+  public void setCircuitBreakerProbeIntervalMillis(long circuitBreakerProbeIntervalMillis) {
+    this.circuitBreakerProbeIntervalMillis = circuitBreakerProbeIntervalMillis;
+  }
+
+  /**
+   * Whether the thrift transport is framed (TFramedTransport). Must match the server, a framed
+   * client can't talk to an unframed server and vice versa.
+   */
+  public boolean isFramedTransport() {
+    return framedTransport;
+  }
+
+  public void setFramedTransport(boolean framedTransport) {
+    this.framedTransport = framedTransport;
+  }
+
+  /**
+   * The size, in bytes, of the buffers around the socket's input and output streams. Thrift
+   * writes a message field by field, so each flush of the buffer is a write syscall.
+   * Larger buffers mean fewer syscalls for large requests (e.g. batch inserts) and responses
+   * (e.g. multiget slices).
+   */
+  public int getTransportBufferSize() {
+    return transportBufferSize;
+  }
+
+  public void setTransportBufferSize(int transportBufferSize) {
+    this.transportBufferSize = transportBufferSize;
+  }
+
+  /**
+   * The socket's SO_SNDBUF, 0 (the default) to use the OS default.
+   */
+  public int getSocketSendBufferSize() {
+    return socketSendBufferSize;
+  }
+
+  public void setSocketSendBufferSize(int socketSendBufferSize) {
+    this.socketSendBufferSize = socketSendBufferSize;
+  }
+
+  /**
+   * The socket's SO_RCVBUF, 0 (the default) to use the OS default.
+   */
+  public int getSocketReceiveBufferSize() {
+    return socketReceiveBufferSize;
+  }
+
+  public void setSocketReceiveBufferSize(int socketReceiveBufferSize) {
+    this.socketReceiveBufferSize = socketReceiveBufferSize;
+  }
+
+  /**
+   * Whether Nagle's algorithm is disabled on the socket (TCP_NODELAY), true by default.
+   */
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  /**
+   * Time between runs of the pool's idle client evictor, which validates the idle clients by a
+   * call to cassandra and closes the broken ones and the ones idle for longer than
+   * maxIdleTimeMillis. The evictor runs in the background and borrowers never wait for it.
+   * 0 or less disables the evictor.
+   */
+  public long getIdleEvictionIntervalMillis() {
+    return idleEvictionIntervalMillis;
+  }
+
+  public void setIdleEvictionIntervalMillis(long idleEvictionIntervalMillis) {
+    this.idleEvictionIntervalMillis = idleEvictionIntervalMillis;
+  }
+
+  /**
+   * Time after which the evictor closes an idle client, 0 or less to keep idle clients for as
+   * long as they're valid.
+   */
+  public long getMaxIdleTimeMillis() {
+    return maxIdleTimeMillis;
+  }
+
+  public void setMaxIdleTimeMillis(long maxIdleTimeMillis) {
+    this.maxIdleTimeMillis = maxIdleTimeMillis;
+  }
+
   public static String parseHostFromUrl(String urlPort) {
     return urlPort.substring(0, urlPort.lastIndexOf(':'));      
   }
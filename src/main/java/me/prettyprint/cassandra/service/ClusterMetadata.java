@@ -0,0 +1,270 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.cassandra.service.Cassandra;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the cluster's metadata: the list of keyspaces, the keyspace descriptions and the token
+ * map. One instance is shared by all the clients of a {@link CassandraClientPool}, so a new client
+ * doesn't need a describe_keyspace, a get_string_list_property("keyspaces") and a token map
+ * call before its first operation.
+ *
+ * Metadata is fetched on first use by the client which asks for it. After that, if the pool is
+ * given, the cached metadata is refreshed in the background every refresh interval, and soon after
+ * clients of the pool fail (see {@link #refreshSoon()}), by a client borrowed from one of the
+ * hosts the metadata was fetched from.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+/*package*/ class ClusterMetadata {
+
+  private static final Logger log = LoggerFactory.getLogger(ClusterMetadata.class);
+
+  static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 60 * 1000;
+
+  /** Min time between two refreshes triggered by failures */
+  static final long MIN_REFRESH_ON_FAILURE_INTERVAL_MILLIS = 5 * 1000;
+
+  private final static String PROP_TOKEN_MAP = "token map";
+  private final static String PROP_KEYSPACE = "keyspaces";
+
+  /** Refreshes the metadata of all pools */
+  private static final ScheduledExecutorService refresher =
+      Executors.newSingleThreadScheduledExecutor(
+          new DaemonThreadFactory("hector-metadata-refresher"));
+
+  /** The pool to borrow clients from for background refreshes, null if there are none */
+  private final CassandraClientPool pool;
+
+  private volatile List<String> keyspaces;
+
+  private final ConcurrentMap<String, Map<String, Map<String, String>>> keyspaceDescriptions =
+      new ConcurrentHashMap<String, Map<String, Map<String, String>>>();
+
+  private volatile Map<String, String> tokenMap;
+
+  /** The url:port of the hosts the metadata was fetched from */
+  private final Set<String> sources =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+  private volatile long lastRefreshOnFailure = 0;
+
+  /** The periodic refresh, guarded by this */
+  private ScheduledFuture<?> refreshTask;
+  private long refreshIntervalMillis;
+
+  /**
+   * Metadata which is only fetched on demand, never refreshed in the background.
+   */
+  public ClusterMetadata() {
+    this(null, 0);
+  }
+
+  /**
+   * @param pool The pool to borrow clients from for background refreshes
+   * @param refreshIntervalMillis Time between background refreshes, 0 or less to disable them
+   */
+  public ClusterMetadata(CassandraClientPool pool, long refreshIntervalMillis) {
+    this.pool = pool;
+    setRefreshIntervalMillis(refreshIntervalMillis);
+  }
+
+  public List<String> getKeyspaces(CassandraClient client) throws TException {
+    List<String> ks = keyspaces;
+    if (ks == null) {
+      ks = fetchKeyspaces(client);
+    }
+    return ks;
+  }
+
+  /**
+   * Gets the keyspace list, fetching it again if it doesn't contain the keyspace, in case the
+   * keyspace is new.
+   */
+  public boolean hasKeyspace(CassandraClient client, String keyspaceName) throws TException {
+    return getKeyspaces(client).contains(keyspaceName) ||
+        fetchKeyspaces(client).contains(keyspaceName);
+  }
+
+  private List<String> fetchKeyspaces(CassandraClient client) throws TException {
+    List<String> ks = client.getCassandra().get_string_list_property(PROP_KEYSPACE);
+    keyspaces = ks;
+    addSource(client);
+    return ks;
+  }
+
+  public Map<String, Map<String, String>> getKeyspaceDescription(CassandraClient client,
+      String keyspaceName) throws NotFoundException, TException {
+    Map<String, Map<String, String>> desc = keyspaceDescriptions.get(keyspaceName);
+    if (desc == null) {
+      desc = client.getCassandra().describe_keyspace(keyspaceName);
+      keyspaceDescriptions.put(keyspaceName, desc);
+      addSource(client);
+    }
+    return desc;
+  }
+
+  /**
+   * @param fresh Whether to fetch the token map from the client's host even if it's cached
+   */
+  public Map<String, String> getTokenMap(CassandraClient client, boolean fresh)
+      throws TException {
+    Map<String, String> map = tokenMap;
+    if (map == null || fresh) {
+      map = parseTokenMap(client.getCassandra().get_string_property(PROP_TOKEN_MAP));
+      tokenMap = map;
+      addSource(client);
+    }
+    return map;
+  }
+
+  /**
+   * Parses a token map of the form {"token1":"host1","token2":"host2"}
+   */
+  static Map<String, String> parseTokenMap(String strTokens) {
+    Map<String, String> map = new HashMap<String, String>();
+    strTokens = trimBothSides(strTokens);
+    String[] tokenPairs = strTokens.split(",");
+    for (String tokenPair: tokenPairs) {
+      String[] keyValue = tokenPair.split(":");
+      String token = trimBothSides(keyValue[0]);
+      String host = trimBothSides(keyValue[1]);
+      map.put(token, host);
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  /**
+   * Trims the string, one char from each side.
+   * For example, this: asdf becomes this: sd
+   * Useful in those cases:  "asdf" => asdf
+   */
+  private static String trimBothSides(String str) {
+    str = str.substring(1);
+    str = str.substring(0, str.length() - 1);
+    return str;
+  }
+
+  private void addSource(CassandraClient client) {
+    if (pool != null) {
+      sources.add(client.getUrl() + ":" + client.getPort());
+    }
+  }
+
+  public synchronized long getRefreshIntervalMillis() {
+    return refreshIntervalMillis;
+  }
+
+  /**
+   * Sets the time between background refreshes, 0 or less to disable them.
+   */
+  public synchronized void setRefreshIntervalMillis(long refreshIntervalMillis) {
+    this.refreshIntervalMillis = refreshIntervalMillis;
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+      refreshTask = null;
+    }
+    if (pool != null && refreshIntervalMillis > 0) {
+      refreshTask = refresher.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          refresh();
+        }
+      }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Refreshes the metadata in the background, e.g. after a host failed, since the ring may have
+   * changed. Refreshes triggered this way are at least
+   * {@link #MIN_REFRESH_ON_FAILURE_INTERVAL_MILLIS} apart.
+   */
+  public void refreshSoon() {
+    if (pool == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastRefreshOnFailure < MIN_REFRESH_ON_FAILURE_INTERVAL_MILLIS) {
+      return;
+    }
+    lastRefreshOnFailure = now;
+    if (refreshPending.compareAndSet(false, true)) {
+      refresher.execute(new Runnable() {
+        @Override
+        public void run() {
+          refreshPending.set(false);
+          refresh();
+        }
+      });
+    }
+  }
+
+  /**
+   * Fetches the metadata which is already cached again, by a client borrowed from the pool.
+   */
+  void refresh() {
+    if (sources.isEmpty()) {
+      // Nothing fetched yet
+      return;
+    }
+    CassandraClient client;
+    try {
+      client = pool.borrowClient(sources.toArray(new String[sources.size()]));
+    } catch (Exception e) {
+      log.warn("Unable to borrow a client to refresh the cluster metadata: {}", e.getMessage());
+      return;
+    }
+    try {
+      if (keyspaces != null) {
+        fetchKeyspaces(client);
+      }
+      for (String keyspaceName : keyspaceDescriptions.keySet()) {
+        try {
+          keyspaceDescriptions.put(keyspaceName,
+              client.getCassandra().describe_keyspace(keyspaceName));
+        } catch (NotFoundException e) {
+          keyspaceDescriptions.remove(keyspaceName);
+        }
+      }
+      if (tokenMap != null) {
+        getTokenMap(client, true);
+      }
+      log.debug("Refreshed the cluster metadata from {}", client);
+    } catch (Exception e) {
+      log.warn("Unable to refresh the cluster metadata from " + client, e);
+      client.markAsError();
+    } finally {
+      release(client);
+    }
+  }
+
+  private void release(CassandraClient client) {
+    try {
+      if (client.hasErrors()) {
+        pool.invalidateClient(client);
+      } else {
+        pool.releaseClient(client);
+      }
+    } catch (Exception e) {
+      log.error("Unable to release client " + client, e);
+    }
+  }
+}
@@ -0,0 +1,393 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import me.prettyprint.cassandra.service.CassandraClientMonitor.Counter;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+
+import com.reardencommerce.kernel.collections.shared.evictable.ConcurrentLinkedHashMap;
+import com.reardencommerce.kernel.collections.shared.evictable.ConcurrentLinkedHashMap.EvictionListener;
+import com.reardencommerce.kernel.collections.shared.evictable.ConcurrentLinkedHashMap.EvictionPolicy;
+
+/**
+ * A read through cache of a single column family, shared by the keyspaces of all the clients of a
+ * pool. See {@link CassandraClientPool#setColumnFamilyCache(String, String, int, long)}.
+ *
+ * The results of {@link Keyspace#getColumn(String, ColumnPath)} and
+ * {@link Keyspace#getSlice(String, ColumnParent, SlicePredicate)} are cached by row. The cache
+ * holds up to maxRows rows, evicting the least recently used rows, and each result expires
+ * ttlMillis after it was read. Columns which weren't found may be cached as well, for
+ * notFoundTtlMillis, so lookups which mostly miss (e.g. existence checks) don't go to cassandra
+ * each time either. A write to a row (insert, batchInsert or remove) through a client
+ * of the pool invalidates the whole row; writes made by other processes are only seen once the
+ * cached results expire.
+ *
+ * Each row holds up to {@link #MAX_RESULTS_PER_ROW} results, evicting its least recently used
+ * ones, and a put to a row drops the row's expired results, so rows read in many different ways
+ * don't grow without bounds. Columns are copied into and out of the cache, so callers may modify
+ * the columns they get.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class ColumnFamilyCache {
+
+  /** Number of stripes of the row versions */
+  private static final int NUM_STRIPES = 64;
+
+  /** Max number of cached results, i.e. different columns and slices, of a single row */
+  public static final int MAX_RESULTS_PER_ROW = 64;
+
+  /**
+   * Returned by {@link #getColumn(String, ColumnPath)} for a column cached as not found. Compared
+   * by identity.
+   */
+  /*package*/ static final Column NOT_FOUND = new Column();
+
+  private final String keyspaceName;
+  private final String columnFamily;
+  private final long ttlMillis;
+  private final long notFoundTtlMillis;
+  private final CassandraClientMonitor monitor;
+
+  private final ConcurrentLinkedHashMap<String, Row> rows;
+
+  /** Counts the results evicted from their rows */
+  private final EvictionListener<Query, Entry> resultEvictionListener =
+      new EvictionListener<Query, Entry>() {
+        @Override
+        public void onEviction(Query query, Entry entry) {
+          countEvictions(1);
+        }
+      };
+
+  /**
+   * Versions of the rows, by stripe, incremented by each invalidation. A result is only cached if
+   * the version of its row didn't change while it was being read, so a read which raced with a
+   * write doesn't cache the value from before the write.
+   */
+  private final AtomicLongArray versions = new AtomicLongArray(NUM_STRIPES);
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong notFoundHits = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  public ColumnFamilyCache(String keyspaceName, String columnFamily, int maxRows, long ttlMillis,
+      CassandraClientMonitor monitor) {
+    this(keyspaceName, columnFamily, maxRows, ttlMillis, 0, monitor);
+  }
+
+  /**
+   * @param ttlMillis Time a result is cached for, 0 or less to cache no results
+   * @param notFoundTtlMillis Time a column which wasn't found is cached for, 0 or less to not
+   * cache columns which weren't found
+   */
+  public ColumnFamilyCache(String keyspaceName, String columnFamily, int maxRows, long ttlMillis,
+      long notFoundTtlMillis, CassandraClientMonitor monitor) {
+    this.keyspaceName = keyspaceName;
+    this.columnFamily = columnFamily;
+    this.ttlMillis = ttlMillis;
+    this.notFoundTtlMillis = notFoundTtlMillis;
+    this.monitor = monitor;
+    rows = ConcurrentLinkedHashMap.create(EvictionPolicy.LRU, maxRows,
+        new EvictionListener<String, Row>() {
+          @Override
+          public void onEviction(String key, Row row) {
+            countEvictions(row.results.size());
+          }
+        });
+  }
+
+  /**
+   * @return The cached column, {@link #NOT_FOUND} if it's cached as not found, or null if it isn't
+   * cached.
+   */
+  /*package*/ Column getColumn(String key, ColumnPath columnPath) {
+    Column column = (Column) get(key, new Query(columnPath));
+    return column == null || column == NOT_FOUND ? column : new Column(column);
+  }
+
+  /**
+   * @return A copy of the cached slice, or null if it isn't cached.
+   */
+  @SuppressWarnings("unchecked")
+  /*package*/ List<Column> getSlice(String key, ColumnParent columnParent,
+      SlicePredicate predicate) {
+    List<Column> slice = (List<Column>) get(key, new Query(columnParent, predicate));
+    return slice == null ? null : copy(slice);
+  }
+
+  /*package*/ void putColumn(String key, ColumnPath columnPath, Column column, long version) {
+    put(key, new Query(columnPath), column == null ? null : new Column(column), version,
+        ttlMillis);
+  }
+
+  /**
+   * Caches that the column wasn't found.
+   */
+  /*package*/ void putNotFound(String key, ColumnPath columnPath, long version) {
+    put(key, new Query(columnPath), NOT_FOUND, version, notFoundTtlMillis);
+  }
+
+  /*package*/ void putSlice(String key, ColumnParent columnParent, SlicePredicate predicate,
+      List<Column> slice, long version) {
+    put(key, new Query(columnParent, predicate),
+        slice == null ? null : Collections.unmodifiableList(copy(slice)), version, ttlMillis);
+  }
+
+  private static List<Column> copy(List<Column> slice) {
+    List<Column> copy = new ArrayList<Column>(slice.size());
+    for (Column column : slice) {
+      copy.add(new Column(column));
+    }
+    return copy;
+  }
+
+  /**
+   * The version of the row, to pass to the put which follows the read.
+   */
+  /*package*/ long getVersion(String key) {
+    return versions.get(stripe(key));
+  }
+
+  /**
+   * Drops the cached results of the row.
+   */
+  /*package*/ void invalidate(String key) {
+    // The version is incremented first, so a concurrent put either sees it or its result is
+    // removed with the row
+    versions.incrementAndGet(stripe(key));
+    rows.remove(key);
+  }
+
+  private Object get(String key, Query query) {
+    Row row = rows.get(key);
+    Entry entry = row == null ? null : row.results.get(query);
+    if (entry != null && entry.expires <= currentTimeMillis()) {
+      if (row.results.remove(query, entry)) {
+        countEvictions(1);
+      }
+      entry = null;
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      monitor.incCounter(Counter.CACHE_MISSES);
+      return null;
+    }
+    hits.incrementAndGet();
+    monitor.incCounter(Counter.CACHE_HITS);
+    if (entry.value == NOT_FOUND) {
+      notFoundHits.incrementAndGet();
+      monitor.incCounter(Counter.CACHE_NOT_FOUND_HITS);
+    }
+    return entry.value;
+  }
+
+  private void put(String key, Query query, Object value, long version, long ttl) {
+    if (value == null || ttl <= 0 || getVersion(key) != version) {
+      return;
+    }
+    Row row = rows.get(key);
+    if (row == null) {
+      Row newRow = new Row(resultEvictionListener);
+      row = rows.putIfAbsent(key, newRow);
+      if (row == null) {
+        row = newRow;
+      }
+    }
+    long now = currentTimeMillis();
+    Entry entry = new Entry(value, now + ttl);
+    row.results.put(query, entry);
+    if (getVersion(key) != version) {
+      // The row was invalidated meanwhile
+      row.results.remove(query, entry);
+    }
+    removeExpired(row, now);
+  }
+
+  private void removeExpired(Row row, long now) {
+    for (Map.Entry<Query, Entry> e : row.results.entrySet()) {
+      if (e.getValue().expires <= now && row.results.remove(e.getKey(), e.getValue())) {
+        countEvictions(1);
+      }
+    }
+  }
+
+  private void countEvictions(int n) {
+    if (n > 0) {
+      evictions.addAndGet(n);
+      monitor.incCounter(Counter.CACHE_EVICTIONS, n);
+    }
+  }
+
+  private static int stripe(String key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % NUM_STRIPES;
+  }
+
+  public String getKeyspaceName() {
+    return keyspaceName;
+  }
+
+  public String getColumnFamily() {
+    return columnFamily;
+  }
+
+  /**
+   * @return Number of cached rows
+   */
+  public int size() {
+    return rows.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return Number of hits on columns cached as not found, included in {@link #getHits()}.
+   */
+  public long getNotFoundHits() {
+    return notFoundHits.get();
+  }
+
+  /**
+   * @return Number of results evicted, with their rows, from full rows or since they expired.
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /** Overridden by tests */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public String toString() {
+    return "ColumnFamilyCache<" + keyspaceName + "." + columnFamily + ">";
+  }
+
+  /**
+   * The cached results of a row.
+   */
+  private static class Row {
+    final ConcurrentMap<Query, Entry> results;
+
+    Row(EvictionListener<Query, Entry> evictionListener) {
+      results = ConcurrentLinkedHashMap.create(EvictionPolicy.LRU, MAX_RESULTS_PER_ROW,
+          evictionListener);
+    }
+  }
+
+  private static class Entry {
+    final Object value;
+    final long expires;
+
+    Entry(Object value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+
+  /**
+   * A read of a row: a column, or a slice by column names or by range, optionally within a super
+   * column. Thrift's classes can't be used as keys since they don't implement hashCode.
+   */
+  private static class Query {
+    final byte[] superColumn;
+    final byte[] column;
+    final List<byte[]> columnNames;
+    final byte[] start;
+    final byte[] finish;
+    final boolean reversed;
+    final int count;
+    final int hash;
+
+    Query(ColumnPath columnPath) {
+      this(columnPath.getSuper_column(), columnPath.getColumn(), null, null, null, false, 0);
+    }
+
+    Query(ColumnParent columnParent, SlicePredicate predicate) {
+      this(columnParent.getSuper_column(), null, predicate.getColumn_names(),
+          range(predicate) == null ? null : range(predicate).getStart(),
+          range(predicate) == null ? null : range(predicate).getFinish(),
+          range(predicate) != null && range(predicate).isReversed(),
+          range(predicate) == null ? 0 : range(predicate).getCount());
+    }
+
+    private Query(byte[] superColumn, byte[] column, List<byte[]> columnNames, byte[] start,
+        byte[] finish, boolean reversed, int count) {
+      this.superColumn = superColumn;
+      this.column = column;
+      this.columnNames = columnNames;
+      this.start = start;
+      this.finish = finish;
+      this.reversed = reversed;
+      this.count = count;
+      int h = Arrays.hashCode(superColumn);
+      h = 31 * h + Arrays.hashCode(column);
+      if (columnNames != null) {
+        for (byte[] name : columnNames) {
+          h = 31 * h + Arrays.hashCode(name);
+        }
+      }
+      h = 31 * h + Arrays.hashCode(start);
+      h = 31 * h + Arrays.hashCode(finish);
+      h = 31 * h + (reversed ? 1 : 0);
+      hash = 31 * h + count;
+    }
+
+    private static SliceRange range(SlicePredicate predicate) {
+      return predicate.getSlice_range();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Query)) {
+        return false;
+      }
+      Query other = (Query) obj;
+      return hash == other.hash && reversed == other.reversed && count == other.count &&
+          Arrays.equals(superColumn, other.superColumn) && Arrays.equals(column, other.column) &&
+          Arrays.equals(start, other.start) && Arrays.equals(finish, other.finish) &&
+          namesEqual(columnNames, other.columnNames);
+    }
+
+    private static boolean namesEqual(List<byte[]> a, List<byte[]> b) {
+      if (a == null || b == null) {
+        return a == b;
+      }
+      if (a.size() != b.size()) {
+        return false;
+      }
+      for (int i = 0; i < a.size(); ++i) {
+        if (!Arrays.equals(a.get(i), b.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so background work done by hector does not keep the JVM from
+ * exiting.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+/*package*/ class DaemonThreadFactory implements ThreadFactory {
+
+  private final AtomicInteger threadNumber = new AtomicInteger(0);
+  private final String namePrefix;
+
+  public DaemonThreadFactory(String namePrefix) {
+    this.namePrefix = namePrefix;
+  }
+
+  @Override
+  public Thread newThread(Runnable r) {
+    Thread t = new Thread(r, namePrefix + "-" + threadNumber.incrementAndGet());
+    t.setDaemon(true);
+    return t;
+  }
+}
@@ -0,0 +1,189 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import me.prettyprint.cassandra.service.CassandraClientMonitor.Counter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the health of a single cassandra host, so that clients aren't borrowed from a host which
+ * is known to be down.
+ *
+ * The breaker is closed as long as the host is healthy. It opens (quarantining the host) after
+ * {@link CassandraHost#getCircuitBreakerConsecutiveFailures()} consecutive failures, or when at
+ * least {@link CassandraHost#getCircuitBreakerErrorRate()} of the calls within the last
+ * {@link #WINDOW_MILLIS} failed (and there were at least {@link #MIN_REQUESTS_IN_WINDOW} of them).
+ * While open, borrows from the host fail immediately instead of waiting for the connect timeout.
+ *
+ * Once open, a background prober opens a fresh connection to the host and calls
+ * get_string_property("version") every {@link CassandraHost#getCircuitBreakerProbeIntervalMillis()}.
+ * When a probe succeeds the breaker is half open: clients may be borrowed again, the first success
+ * closes the breaker and the first failure opens it again.
+ *
+ * Successes and failures are reported by {@link CassandraClientPoolImpl}: a released client
+ * counts as a success, an invalidated client or a failed connect as a failure.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+/*package*/ class HostCircuitBreaker {
+
+  private static final Logger log = LoggerFactory.getLogger(HostCircuitBreaker.class);
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN,
+  }
+
+  /** Length of the window over which the error rate is measured */
+  static final long WINDOW_MILLIS = 10 * 1000;
+
+  /** Min number of calls within the window before the error rate is considered */
+  static final int MIN_REQUESTS_IN_WINDOW = 20;
+
+  /** Probes the open hosts of all pools */
+  private static final ScheduledExecutorService prober =
+      Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("hector-host-prober"));
+
+  private final CassandraHost cassandraHost;
+  private final CassandraClientFactory clientFactory;
+  private final CassandraClientMonitor monitor;
+  private final int consecutiveFailuresThreshold;
+  private final double errorRateThreshold;
+  private final long probeIntervalMillis;
+
+  private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+  private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+  private final AtomicLong windowStart = new AtomicLong(0);
+  private final AtomicInteger windowRequests = new AtomicInteger(0);
+  private final AtomicInteger windowFailures = new AtomicInteger(0);
+
+  public HostCircuitBreaker(CassandraHost cassandraHost, CassandraClientFactory clientFactory,
+      CassandraClientMonitor monitor) {
+    this.cassandraHost = cassandraHost;
+    this.clientFactory = clientFactory;
+    this.monitor = monitor;
+    consecutiveFailuresThreshold = cassandraHost.getCircuitBreakerConsecutiveFailures();
+    errorRateThreshold = cassandraHost.getCircuitBreakerErrorRate();
+    probeIntervalMillis = cassandraHost.getCircuitBreakerProbeIntervalMillis();
+  }
+
+  /**
+   * @return false if the host is quarantined.
+   */
+  public boolean allowRequest() {
+    return state.get() != State.OPEN;
+  }
+
+  public State getState() {
+    return state.get();
+  }
+
+  public void recordSuccess() {
+    consecutiveFailures.set(0);
+    countRequest(false);
+    if (state.get() == State.HALF_OPEN && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+      log.info("Host {} is healthy again", cassandraHost);
+    }
+  }
+
+  public void recordFailure() {
+    int consecutive = consecutiveFailures.incrementAndGet();
+    countRequest(true);
+    State current = state.get();
+    if (current == State.HALF_OPEN) {
+      open(current, "a failure after it answered a probe");
+    } else if (current == State.CLOSED) {
+      if (consecutive >= consecutiveFailuresThreshold) {
+        open(current, consecutive + " consecutive failures");
+      } else if (isErrorRateExceeded()) {
+        int requests = windowRequests.get();
+        int failures = windowFailures.get();
+        open(current, String.format("%d of %d calls failed (%.0f%%) within %ds", failures,
+            requests, 100.0 * failures / requests, WINDOW_MILLIS / 1000));
+      }
+    }
+  }
+
+  /**
+   * @param reason which threshold tripped, for the log.
+   */
+  private void open(State from, String reason) {
+    if (!state.compareAndSet(from, State.OPEN)) {
+      return;
+    }
+    log.warn("Quarantining host {} after {}", cassandraHost, reason);
+    monitor.incCounter(Counter.HOSTS_QUARANTINED);
+    scheduleProbe();
+  }
+
+  private void scheduleProbe() {
+    prober.schedule(new Runnable() {
+      @Override
+      public void run() {
+        probe();
+      }
+    }, probeIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Checks an open host, half opens the breaker if the host is up.
+   */
+  void probe() {
+    if (state.get() != State.OPEN) {
+      return;
+    }
+    try {
+      clientFactory.probe();
+    } catch (Exception e) {
+      log.debug("Host {} is still down: {}", cassandraHost, e.getMessage());
+      scheduleProbe();
+      return;
+    }
+    consecutiveFailures.set(0);
+    windowStart.set(currentTimeMillis());
+    windowRequests.set(0);
+    windowFailures.set(0);
+    if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+      log.info("Host {} answered a probe, letting clients through", cassandraHost);
+    }
+  }
+
+  private void countRequest(boolean failed) {
+    long now = currentTimeMillis();
+    long start = windowStart.get();
+    if (now - start >= WINDOW_MILLIS && windowStart.compareAndSet(start, now)) {
+      // A new window. Calls counted concurrently may get lost, which is fine
+      windowRequests.set(0);
+      windowFailures.set(0);
+    }
+    windowRequests.incrementAndGet();
+    if (failed) {
+      windowFailures.incrementAndGet();
+    }
+  }
+
+  private boolean isErrorRateExceeded() {
+    int requests = windowRequests.get();
+    return requests >= MIN_REQUESTS_IN_WINDOW &&
+        windowFailures.get() >= errorRateThreshold * requests;
+  }
+
+  /** Overridden by tests */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public String toString() {
+    return "HostCircuitBreaker<" + cassandraHost + ", " + state.get() + ">";
+  }
+}
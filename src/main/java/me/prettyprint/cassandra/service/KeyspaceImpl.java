@@ -5,13 +5,25 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import me.prettyprint.cassandra.service.CassandraClient.FailoverPolicy;
 import me.prettyprint.cassandra.service.CassandraClientMonitor.Counter;
+import me.prettyprint.cassandra.utils.Serializer;
 
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.service.Cassandra;
 import org.apache.cassandra.service.Column;
 import org.apache.cassandra.service.ColumnOrSuperColumn;
@@ -55,9 +67,6 @@ import org.slf4j.LoggerFactory;
 
   private CassandraClient client;
 
-  /** The cassandra thrift proxy */
-  private Cassandra.Client cassandra;
-
   private final String keyspaceName;
 
   private final Map<String, Map<String, String>> keyspaceDesc;
@@ -73,6 +82,12 @@ import org.slf4j.LoggerFactory;
 
   private final CassandraClientMonitor monitor;
 
+  /**
+   * The ring used for token aware routing. Lazily built from the client's token map, null if
+   * unknown.
+   */
+  private TokenRing tokenRing;
+
   public KeyspaceImpl(CassandraClient client, String keyspaceName,
       Map<String, Map<String, String>> keyspaceDesc, int consistencyLevel,
       FailoverPolicy failoverPolicy, CassandraClientPool clientPools, CassandraClientMonitor monitor)
@@ -81,7 +96,6 @@ import org.slf4j.LoggerFactory;
     this.consistency = consistencyLevel;
     this.keyspaceDesc = keyspaceDesc;
     this.keyspaceName = keyspaceName;
-    this.cassandra = client.getCassandra();
     this.failoverPolicy = failoverPolicy;
     this.clientPools = clientPools;
     this.monitor = monitor;
@@ -113,7 +127,7 @@ import org.slf4j.LoggerFactory;
       }
     }
 
-    Operation<Void> op = new Operation<Void>(OperationType.WRITE) {
+    Operation<Void> op = new Operation<Void>(OperationType.WRITE, "batch_insert", key) {
       @Override
       public Void execute(Client cassandra) throws InvalidRequestException, UnavailableException,
           TException, TimedOutException {
@@ -121,13 +135,19 @@ import org.slf4j.LoggerFactory;
         return null;
       }
     };
-    operateWithFailover(op);
+    try {
+      operateWithFailover(op);
+    } finally {
+      for (String columnFamily : cfmap.keySet()) {
+        invalidateCachedRow(columnFamily, key);
+      }
+    }
   }
 
   @Override
   public int getCount(final String key, final ColumnParent columnParent)
       throws InvalidRequestException, UnavailableException, TException, TimedOutException {
-    Operation<Integer> op = new Operation<Integer>(OperationType.READ) {
+    Operation<Integer> op = new Operation<Integer>(OperationType.READ, "get_count", key) {
       @Override
       public Integer execute(Client cassandra) throws InvalidRequestException,
           UnavailableException, TException, TimedOutException {
@@ -143,7 +163,7 @@ import org.slf4j.LoggerFactory;
       final SlicePredicate predicate, final String start, final String finish, final int count)
       throws InvalidRequestException, UnavailableException, TException, TimedOutException {
     Operation<Map<String, List<Column>>> op = new Operation<Map<String, List<Column>>>(
-        OperationType.READ) {
+        OperationType.READ, "get_range_slice") {
       @Override
       public Map<String, List<Column>> execute(Client cassandra) throws InvalidRequestException,
           UnavailableException, TException, TimedOutException {
@@ -168,7 +188,7 @@ import org.slf4j.LoggerFactory;
       final SlicePredicate predicate, final String start, final String finish, final int count)
       throws InvalidRequestException, UnavailableException, TException, TimedOutException {
     Operation<Map<String, List<SuperColumn>>> op = new Operation<Map<String, List<SuperColumn>>>(
-        OperationType.READ) {
+        OperationType.READ, "get_range_slice") {
       @Override
       public Map<String, List<SuperColumn>> execute(Client cassandra)
           throws InvalidRequestException, UnavailableException, TException, TimedOutException {
@@ -189,11 +209,41 @@ import org.slf4j.LoggerFactory;
     return op.getResult();
   }
 
+  @Override
+  public List<KeySlice> getRangeSlices(final ColumnParent columnParent,
+      final SlicePredicate predicate, final String start, final String finish, final int count)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Operation<List<KeySlice>> op = new Operation<List<KeySlice>>(OperationType.READ,
+        "get_range_slice") {
+      @Override
+      public List<KeySlice> execute(Client cassandra) throws InvalidRequestException,
+          UnavailableException, TException, TimedOutException {
+        List<KeySlice> keySlices = cassandra.get_range_slice(keyspaceName, columnParent, predicate,
+            start, finish, count, consistency);
+        if (keySlices == null) {
+          return Collections.emptyList();
+        }
+        return keySlices;
+      }
+    };
+    operateWithFailover(op);
+    return op.getResult();
+  }
+
   @Override
   public List<Column> getSlice(final String key, final ColumnParent columnParent,
       final SlicePredicate predicate) throws InvalidRequestException, NotFoundException,
       UnavailableException, TException, TimedOutException {
-    Operation<List<Column>> op = new Operation<List<Column>>(OperationType.READ) {
+    ColumnFamilyCache cache = getCache(columnParent.getColumn_family());
+    long version = 0;
+    if (cache != null) {
+      List<Column> cached = cache.getSlice(key, columnParent, predicate);
+      if (cached != null) {
+        return cached;
+      }
+      version = cache.getVersion(key);
+    }
+    Operation<List<Column>> op = new Operation<List<Column>>(OperationType.READ, "get_slice", key) {
       @Override
       public List<Column> execute(Client cassandra) throws InvalidRequestException,
           UnavailableException, TException, TimedOutException {
@@ -211,6 +261,9 @@ import org.slf4j.LoggerFactory;
       }
     };
     operateWithFailover(op);
+    if (cache != null && op.getResult() != null) {
+      cache.putSlice(key, columnParent, predicate, op.getResult(), version);
+    }
     return op.getResult();
   }
 
@@ -227,7 +280,7 @@ import org.slf4j.LoggerFactory;
       UnavailableException, TException, TimedOutException {
     valideSuperColumnPath(columnPath);
     final SliceRange sliceRange = new SliceRange(new byte[0], new byte[0], reversed, size);
-    Operation<SuperColumn> op = new Operation<SuperColumn>(OperationType.READ) {
+    Operation<SuperColumn> op = new Operation<SuperColumn>(OperationType.READ, "get_slice", key) {
       @Override
       public SuperColumn execute(Client cassandra) throws InvalidRequestException,
           UnavailableException, TException, TimedOutException {
@@ -247,7 +300,7 @@ import org.slf4j.LoggerFactory;
   public List<SuperColumn> getSuperSlice(final String key, final ColumnParent columnParent,
       final SlicePredicate predicate) throws InvalidRequestException, NotFoundException,
       UnavailableException, TException, TimedOutException {
-    Operation<List<SuperColumn>> op = new Operation<List<SuperColumn>>(OperationType.READ) {
+    Operation<List<SuperColumn>> op = new Operation<List<SuperColumn>>(OperationType.READ, "get_slice", key) {
       @Override
       public List<SuperColumn> execute(Client cassandra) throws InvalidRequestException,
           UnavailableException, TException, TimedOutException {
@@ -267,11 +320,18 @@ import org.slf4j.LoggerFactory;
     return op.getResult();
   }
 
+  @Override
+  public <V> void insert(String key, ColumnPath columnPath, V value,
+      Serializer<V> valueSerializer)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    insert(key, columnPath, valueSerializer.toBytes(value));
+  }
+
   @Override
   public void insert(final String key, final ColumnPath columnPath, final byte[] value)
       throws InvalidRequestException, UnavailableException, TException, TimedOutException {
     valideColumnPath(columnPath);
-    Operation<Void> op = new Operation<Void>(OperationType.WRITE) {
+    Operation<Void> op = new Operation<Void>(OperationType.WRITE, "insert", key) {
       @Override
       public Void execute(Client cassandra) throws InvalidRequestException, UnavailableException,
           TException, TimedOutException {
@@ -279,15 +339,28 @@ import org.slf4j.LoggerFactory;
         return null;
       }
     };
-    operateWithFailover(op);
+    try {
+      operateWithFailover(op);
+    } finally {
+      invalidateCachedRow(columnPath.getColumn_family(), key);
+    }
   }
 
   @Override
   public Map<String, Column> multigetColumn(final List<String> keys, final ColumnPath columnPath)
       throws InvalidRequestException, UnavailableException, TException, TimedOutException {
     valideColumnPath(columnPath);
+    MultigetSplitPolicy splitPolicy = clientPools.getMultigetSplitPolicy();
+    if (splitPolicy != null && keys.size() > splitPolicy.getChunkSize()) {
+      return multigetSplit(keys, splitPolicy, new ChunkGetter<Column>() {
+        @Override
+        public Map<String, Column> get(Keyspace ks, List<String> chunk) throws Exception {
+          return ks.multigetColumn(chunk, columnPath);
+        }
+      });
+    }
 
-    Operation<Map<String, Column>> op = new Operation<Map<String, Column>>(OperationType.READ) {
+    Operation<Map<String, Column>> op = new Operation<Map<String, Column>>(OperationType.READ, "multiget") {
       @Override
       public Map<String, Column> execute(Client cassandra) throws InvalidRequestException,
           UnavailableException, TException, TimedOutException {
@@ -307,12 +380,34 @@ import org.slf4j.LoggerFactory;
     return op.getResult();
   }
 
+  @Override
+  public <N, V> Map<String, Map<N, V>> multigetSlice(List<String> keys,
+      ColumnParent columnParent, SlicePredicate predicate, Serializer<N> nameSerializer,
+      Serializer<V> valueSerializer)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Map<String, List<Column>> slices = multigetSlice(keys, columnParent, predicate);
+    Map<String, Map<N, V>> result = new LinkedHashMap<String, Map<N, V>>(slices.size() * 2);
+    for (Map.Entry<String, List<Column>> entry : slices.entrySet()) {
+      result.put(entry.getKey(), toMap(entry.getValue(), nameSerializer, valueSerializer));
+    }
+    return result;
+  }
+
   @Override
   public Map<String, List<Column>> multigetSlice(final List<String> keys,
       final ColumnParent columnParent, final SlicePredicate predicate)
       throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    MultigetSplitPolicy splitPolicy = clientPools.getMultigetSplitPolicy();
+    if (splitPolicy != null && keys.size() > splitPolicy.getChunkSize()) {
+      return multigetSplit(keys, splitPolicy, new ChunkGetter<List<Column>>() {
+        @Override
+        public Map<String, List<Column>> get(Keyspace ks, List<String> chunk) throws Exception {
+          return ks.multigetSlice(chunk, columnParent, predicate);
+        }
+      });
+    }
     Operation<Map<String, List<Column>>> getCount = new Operation<Map<String, List<Column>>>(
-        OperationType.READ) {
+        OperationType.READ, "multiget_slice") {
       @Override
       public Map<String, List<Column>> execute(Client cassandra) throws InvalidRequestException,
           UnavailableException, TException, TimedOutException {
@@ -367,8 +462,18 @@ import org.slf4j.LoggerFactory;
   public Map<String, List<SuperColumn>> multigetSuperSlice(final List<String> keys,
       final ColumnParent columnParent, final SlicePredicate predicate)
       throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    MultigetSplitPolicy splitPolicy = clientPools.getMultigetSplitPolicy();
+    if (splitPolicy != null && keys.size() > splitPolicy.getChunkSize()) {
+      return multigetSplit(keys, splitPolicy, new ChunkGetter<List<SuperColumn>>() {
+        @Override
+        public Map<String, List<SuperColumn>> get(Keyspace ks, List<String> chunk)
+            throws Exception {
+          return ks.multigetSuperSlice(chunk, columnParent, predicate);
+        }
+      });
+    }
     Operation<Map<String, List<SuperColumn>>> getCount = new Operation<Map<String, List<SuperColumn>>>(
-        OperationType.READ) {
+        OperationType.READ, "multiget_slice") {
       @Override
       public Map<String, List<SuperColumn>> execute(Client cassandra)
           throws InvalidRequestException, UnavailableException, TException, TimedOutException {
@@ -409,7 +514,7 @@ import org.slf4j.LoggerFactory;
   @Override
   public void remove(final String key, final ColumnPath columnPath) throws InvalidRequestException,
       UnavailableException, TException, TimedOutException {
-    Operation<Void> op = new Operation<Void>(OperationType.WRITE) {
+    Operation<Void> op = new Operation<Void>(OperationType.WRITE, "remove", key) {
       @Override
       public Void execute(Client cassandra) throws InvalidRequestException, UnavailableException,
           TException, TimedOutException {
@@ -417,8 +522,11 @@ import org.slf4j.LoggerFactory;
         return null;
       }
     };
-    operateWithFailover(op);
-
+    try {
+      operateWithFailover(op);
+    } finally {
+      invalidateCachedRow(columnPath.getColumn_family(), key);
+    }
   }
 
   @Override
@@ -436,13 +544,65 @@ import org.slf4j.LoggerFactory;
     return client;
   }
 
+  @Override
+  public <V> V getColumn(String key, ColumnPath columnPath, Serializer<V> valueSerializer)
+      throws InvalidRequestException, NotFoundException, UnavailableException, TException,
+      TimedOutException {
+    return valueSerializer.fromBytes(getColumn(key, columnPath).getValue());
+  }
+
+  @Override
+  public <N, V> Map<N, V> getSlice(String key, ColumnParent columnParent,
+      SlicePredicate predicate, Serializer<N> nameSerializer, Serializer<V> valueSerializer)
+      throws InvalidRequestException, NotFoundException, UnavailableException, TException,
+      TimedOutException {
+    return toMap(getSlice(key, columnParent, predicate), nameSerializer, valueSerializer);
+  }
+
+  /**
+   * Converts columns to a map of names to values, in the order of the columns.
+   */
+  private static <N, V> Map<N, V> toMap(List<Column> columns, Serializer<N> nameSerializer,
+      Serializer<V> valueSerializer) {
+    if (columns == null) {
+      return null;
+    }
+    Map<N, V> map = new LinkedHashMap<N, V>(columns.size() * 2);
+    for (Column c : columns) {
+      map.put(nameSerializer.fromBytes(c.getName()), valueSerializer.fromBytes(c.getValue()));
+    }
+    return map;
+  }
+
   @Override
   public Column getColumn(final String key, final ColumnPath columnPath)
       throws InvalidRequestException, NotFoundException, UnavailableException, TException,
       TimedOutException {
+    Column column = getColumnOrNull(key, columnPath);
+    if (column == null) {
+      throw new NotFoundException();
+    }
+    return column;
+  }
+
+  @Override
+  public Column getColumnOrNull(final String key, final ColumnPath columnPath)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
     valideColumnPath(columnPath);
+    ColumnFamilyCache cache = getCache(columnPath.getColumn_family());
+    long version = 0;
+    if (cache != null) {
+      Column cached = cache.getColumn(key, columnPath);
+      if (cached == ColumnFamilyCache.NOT_FOUND) {
+        return null;
+      }
+      if (cached != null) {
+        return cached;
+      }
+      version = cache.getVersion(key);
+    }
 
-    Operation<Column> op = new Operation<Column>(OperationType.READ) {
+    Operation<Column> op = new Operation<Column>(OperationType.READ, "get", key) {
       @Override
       public Column execute(Client cassandra) throws InvalidRequestException, UnavailableException,
           TException, TimedOutException {
@@ -458,11 +618,32 @@ import org.slf4j.LoggerFactory;
 
     };
     operateWithFailover(op);
-    if (op.hasException()) {
-      throw op.getException();
+    if (cache != null) {
+      if (op.hasException()) {
+        cache.putNotFound(key, columnPath, version);
+      } else {
+        cache.putColumn(key, columnPath, op.getResult(), version);
+      }
     }
     return op.getResult();
+  }
+
+  /**
+   * @return The pool's cache of the column family, null if it isn't cached.
+   */
+  private ColumnFamilyCache getCache(String columnFamily) {
+    return clientPools.getColumnFamilyCache(keyspaceName, columnFamily);
+  }
 
+  /**
+   * Drops the cached reads of a row which was written. Called whether or not the write succeeded,
+   * since a write which timed out may still have been applied.
+   */
+  private void invalidateCachedRow(String columnFamily, String key) {
+    ColumnFamilyCache cache = getCache(columnFamily);
+    if (cache != null) {
+      cache.invalidate(key);
+    }
   }
 
   @Override
@@ -565,8 +746,8 @@ import org.slf4j.LoggerFactory;
       knownHosts.add(client.getUrl());
       return;
     }
-    // learn about other cassandra hosts in the ring
-    updateKnownHosts();
+    // learn about other cassandra hosts in the ring, the ring is probably cached already
+    updateKnownHosts(false);
   }
 
   /**
@@ -575,14 +756,22 @@ import org.slf4j.LoggerFactory;
    * @throws TException
    */
   public void updateKnownHosts() throws TException {
+    updateKnownHosts(true);
+  }
+
+  /**
+   * @param fresh Whether to query the current host even if the token map is cached
+   */
+  private void updateKnownHosts(boolean fresh) throws TException {
     // When update starts we only know of this client, nothing else
+    tokenRing = null;
     knownHosts.clear();
     knownHosts.add(getClient().getUrl());
 
     // Now query for more hosts. If the query fails, then even this client is
     // now "known"
     try {
-      Map<String, String> map = getClient().getTokenMap(true);
+      Map<String, String> map = getClient().getTokenMap(fresh);
       knownHosts.clear();
       for (Map.Entry<String, String> entry : map.entrySet()) {
         knownHosts.add(entry.getValue());
@@ -593,6 +782,492 @@ import org.slf4j.LoggerFactory;
     }
   }
 
+  /**
+   * Gets the ring used for token aware routing, building it from the client's token map on first
+   * use.
+   * @return The ring or null if it's unknown.
+   */
+  private TokenRing getTokenRing() {
+    if (tokenRing == null) {
+      try {
+        Map<String, String> tokenMap = client.getTokenMap(false);
+        IPartitioner<?> partitioner = client.getPartitioner();
+        if (tokenMap == null || tokenMap.isEmpty() || partitioner == null) {
+          return null;
+        }
+        tokenRing = new TokenRing(partitioner, tokenMap);
+      } catch (TException e) {
+        log.warn("Unable to obtain the ring from {}; token aware routing is disabled", client);
+      } catch (RuntimeException e) {
+        // e.g. a token which cannot be parsed by the partitioner
+        log.warn("Unable to build the ring from " + client
+            + "; token aware routing is disabled", e);
+      }
+    }
+    return tokenRing;
+  }
+
+  /**
+   * Performs the operation on the host which owns the operation's key, if token aware routing is
+   * enabled and the ring is known.
+   * Communication errors with the owning host are not fatal, in that case the caller should perform
+   * the operation on the current client, with the usual failover.
+   *
+   * @return true if the operation has been performed; false if the caller should perform it.
+   */
+  private boolean operateOnTokenOwner(Operation<?> op) throws InvalidRequestException {
+    if (op.key == null || !clientPools.isTokenAwareRouting()) {
+      return false;
+    }
+    TokenRing ring = getTokenRing();
+    if (ring == null) {
+      return false;
+    }
+    String owner = ring.getHost(op.key);
+    if (owner == null || owner.equals(client.getUrl()) || owner.equals(client.getIp())) {
+      return false;
+    }
+    CassandraClient ownerClient;
+    try {
+      // assume they use the same port
+      ownerClient = clientPools.borrowClient(owner, client.getPort());
+    } catch (Exception e) {
+      log.debug("Unable to borrow a client for token owner {}", owner, e);
+      return false;
+    }
+    boolean healthy = false;
+    try {
+      executeOn(op, ownerClient);
+      healthy = true;
+      return true;
+    } catch (InvalidRequestException e) {
+      // An application error; retrying on another host wouldn't help
+      healthy = true;
+      throw e;
+    } catch (TimedOutException e) {
+      log.debug("Token owner {} timed out, falling back to {}", owner, client.getUrl());
+      healthy = true;
+      return false;
+    } catch (UnavailableException e) {
+      log.debug("Token owner {} unavailable, falling back to {}", owner, client.getUrl());
+      healthy = true;
+      return false;
+    } catch (TException e) {
+      log.warn("Error at token owner " + owner + ", falling back to " + client.getUrl(), e);
+      return false;
+    } finally {
+      if (healthy) {
+        releaseClient(ownerClient);
+      } else {
+        clientPools.invalidateClient(ownerClient);
+      }
+    }
+  }
+
+  /**
+   * Performs a multiget by splitting the keys into chunks, as defined by the policy, fetching the
+   * chunks in parallel and merging the results.
+   *
+   * Each chunk is fetched by a keyspace of a separately borrowed client, with that keyspace's usual
+   * failover. Chunks are no larger than the policy's chunk size, so they aren't split again.
+   * If any chunk fails, the remaining chunks are cancelled and the error is thrown.
+   */
+  private <V> Map<String, V> multigetSplit(List<String> keys, MultigetSplitPolicy policy,
+      final ChunkGetter<V> chunkGetter) throws InvalidRequestException, UnavailableException,
+      TException, TimedOutException {
+    final List<KeyChunk> chunks = splitKeys(keys, policy);
+    log.debug("Splitting a multiget of {} keys into {} chunks", keys.size(), chunks.size());
+    final int port = client.getPort();
+    final String fallbackHost = client.getUrl();
+    CompletionService<Map<String, V>> completionService =
+        new ExecutorCompletionService<Map<String, V>>(policy.getExecutor());
+    List<Future<Map<String, V>>> futures = new ArrayList<Future<Map<String, V>>>(chunks.size());
+    Map<String, V> result = new HashMap<String, V>(keys.size() * 2);
+    int next = 0;
+    try {
+      while (next < chunks.size() || futures.size() > 0) {
+        while (next < chunks.size() && futures.size() < policy.getParallelism()) {
+          final KeyChunk chunk = chunks.get(next++);
+          futures.add(completionService.submit(new Callable<Map<String, V>>() {
+            @Override
+            public Map<String, V> call() throws Exception {
+              CassandraClient c;
+              try {
+                c = clientPools.borrowClient(chunk.host, port);
+              } catch (Exception e) {
+                log.debug("Unable to borrow a client from {}, using {}", chunk.host,
+                    fallbackHost);
+                c = clientPools.borrowClient(fallbackHost, port);
+              }
+              Keyspace ks;
+              try {
+                ks = c.getKeyspace(keyspaceName, consistency, failoverPolicy);
+              } catch (Exception e) {
+                clientPools.releaseClient(c);
+                throw e;
+              }
+              try {
+                return chunkGetter.get(ks, chunk.keys);
+              } finally {
+                // The keyspace may have failed over to a different client
+                clientPools.releaseClient(ks.getClient());
+              }
+            }
+          }));
+        }
+        Future<Map<String, V>> done = completionService.take();
+        futures.remove(done);
+        result.putAll(done.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      cancelAll(futures);
+      Thread.currentThread().interrupt();
+      throw new TException("Interrupted while waiting for multiget chunks", e);
+    } catch (ExecutionException e) {
+      cancelAll(futures);
+      Throwable cause = e.getCause();
+      if (cause instanceof InvalidRequestException) {
+        throw (InvalidRequestException) cause;
+      } else if (cause instanceof UnavailableException) {
+        throw (UnavailableException) cause;
+      } else if (cause instanceof TimedOutException) {
+        throw (TimedOutException) cause;
+      } else if (cause instanceof TException) {
+        throw (TException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new TException("Multiget chunk failed", cause);
+    }
+  }
+
+  /**
+   * Splits the keys into chunks of the policy's chunk size.
+   * @return the chunks, each with the host it should be fetched from.
+   */
+  private List<KeyChunk> splitKeys(List<String> keys, MultigetSplitPolicy policy) {
+    int chunkSize = policy.getChunkSize();
+    List<KeyChunk> chunks = new ArrayList<KeyChunk>(keys.size() / chunkSize + 1);
+    TokenRing ring = policy.isByTokenOwner() ? getTokenRing() : null;
+    if (ring != null) {
+      Map<String, List<String>> byOwner = new LinkedHashMap<String, List<String>>();
+      for (String key : keys) {
+        String owner = ring.getHost(key);
+        List<String> ownerKeys = byOwner.get(owner);
+        if (ownerKeys == null) {
+          ownerKeys = new ArrayList<String>();
+          byOwner.put(owner, ownerKeys);
+        }
+        ownerKeys.add(key);
+      }
+      for (Map.Entry<String, List<String>> entry : byOwner.entrySet()) {
+        List<String> ownerKeys = entry.getValue();
+        for (int i = 0; i < ownerKeys.size(); i += chunkSize) {
+          chunks.add(new KeyChunk(entry.getKey(),
+              ownerKeys.subList(i, Math.min(i + chunkSize, ownerKeys.size()))));
+        }
+      }
+    } else {
+      List<String> hosts = new ArrayList<String>(knownHosts);
+      if (hosts.isEmpty()) {
+        hosts.add(client.getUrl());
+      }
+      for (int i = 0; i < keys.size(); i += chunkSize) {
+        chunks.add(new KeyChunk(hosts.get(chunks.size() % hosts.size()),
+            keys.subList(i, Math.min(i + chunkSize, keys.size()))));
+      }
+    }
+    return chunks;
+  }
+
+  private static void cancelAll(List<? extends Future<?>> futures) {
+    for (Future<?> f : futures) {
+      f.cancel(true);
+    }
+  }
+
+  /**
+   * Gets the values of a chunk of keys of a split multiget.
+   */
+  private interface ChunkGetter<V> {
+    Map<String, V> get(Keyspace ks, List<String> chunk) throws Exception;
+  }
+
+  /**
+   * A chunk of keys of a split multiget and the host to get them from.
+   */
+  private static class KeyChunk {
+    final String host;
+    final List<String> keys;
+
+    KeyChunk(String host, List<String> keys) {
+      this.host = host;
+      this.keys = keys;
+    }
+  }
+
+  /**
+   * @return the pool's speculative read policy if the operation should be hedged, otherwise null.
+   */
+  private SpeculativeReadPolicy getSpeculativeReadPolicy(Operation<?> op) {
+    SpeculativeReadPolicy policy = clientPools.getSpeculativeReadPolicy();
+    if (policy == null || op.operationType != OperationType.READ || knownHosts.size() < 2) {
+      return null;
+    }
+    return policy;
+  }
+
+  /**
+   * Performs a read on the current client and, if no answer arrives within the delay of the
+   * {@link SpeculativeReadPolicy}, sends the same read to the next known host as well. The first
+   * successful answer wins.
+   *
+   * If the hedged read wins, the keyspace moves to its client, just like when skipping to the next
+   * host. The losing read releases (or invalidates, on error) its client when it completes.
+   *
+   * If all attempts fail, the error is thrown and the keyspace is left on the last host which was
+   * tried; the primary client is invalidated if the hedged read ran. The caller fails over from
+   * there, so the hedged read takes the place of the failover's retry on the same host.
+   */
+  private <T> void operateSpeculatively(Operation<T> op, SpeculativeReadPolicy policy)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    long delay = policy.getDelayMillis();
+    long start = System.currentTimeMillis();
+    if (delay == SpeculativeReadPolicy.NO_DELAY_YET) {
+      // Not enough data yet, but we still need the latencies
+      executeOn(op, client);
+      policy.recordLatency(System.currentTimeMillis() - start);
+      return;
+    }
+
+    BlockingQueue<SpeculativeAttempt<T>> completed = new ArrayBlockingQueue<SpeculativeAttempt<T>>(2);
+    SpeculativeAttempt<T> primary = new SpeculativeAttempt<T>(op.copy(), client, completed);
+    try {
+      policy.getExecutor().execute(primary);
+    } catch (RejectedExecutionException e) {
+      log.debug("Speculative read threads are all busy, reading without hedging");
+      executeOn(op, client);
+      return;
+    }
+    SpeculativeAttempt<T> hedge = null;
+    int inFlight = 1;
+
+    SpeculativeAttempt<T> done = pollUninterruptibly(completed, delay);
+    if (done == null) {
+      hedge = startHedge(op, policy, completed);
+      if (hedge != null) {
+        ++inFlight;
+      }
+      done = pollUninterruptibly(completed, -1);
+    }
+    --inFlight;
+    if (!done.succeeded() && inFlight > 0) {
+      // wait for the other one
+      done = pollUninterruptibly(completed, -1);
+      --inFlight;
+    }
+
+    if (done.succeeded()) {
+      op.setResultFrom(done.op);
+      policy.recordLatency(System.currentTimeMillis() - start);
+      if (done == primary) {
+        if (hedge != null) {
+          hedge.abandon();
+        }
+      } else {
+        log.debug("Speculative read on {} won over {}", done.client.getUrl(), client.getUrl());
+        monitor.incCounter(Counter.SPECULATIVE_READ_WINS);
+        client.removeKeyspace(this);
+        primary.abandon();
+        client = done.client;
+      }
+      return;
+    }
+
+    // All attempts failed
+    if (primary.error instanceof InvalidRequestException) {
+      if (hedge != null) {
+        hedge.abandon();
+      }
+      throw (InvalidRequestException) primary.error;
+    }
+    SpeculativeAttempt<T> last = primary;
+    if (hedge != null) {
+      log.debug("Both the read on {} and the speculative read on {} failed", client.getUrl(),
+          hedge.client.getUrl());
+      invalidate();
+      client = hedge.client;
+      last = hedge;
+    }
+    throwError(last.error);
+  }
+
+  /**
+   * Throws the error of a failed attempt, which is one of the errors of a thrift call.
+   */
+  private static void throwError(Exception e) throws InvalidRequestException,
+      UnavailableException, TException, TimedOutException {
+    if (e instanceof InvalidRequestException) {
+      throw (InvalidRequestException) e;
+    } else if (e instanceof UnavailableException) {
+      throw (UnavailableException) e;
+    } else if (e instanceof TException) {
+      throw (TException) e;
+    } else if (e instanceof TimedOutException) {
+      throw (TimedOutException) e;
+    } else if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    throw new TException(e);
+  }
+
+  /**
+   * Sends a copy of the operation to the next known host.
+   * @return the attempt or null if there is no available next host.
+   */
+  private <T> SpeculativeAttempt<T> startHedge(Operation<T> op, SpeculativeReadPolicy policy,
+      BlockingQueue<SpeculativeAttempt<T>> completed) {
+    String nextHost = getNextHost(client.getUrl(), client.getIp());
+    if (nextHost == null || nextHost.equals(client.getUrl())) {
+      return null;
+    }
+    CassandraClient hedgeClient;
+    try {
+      // assume they use the same port
+      hedgeClient = clientPools.borrowClient(nextHost, client.getPort());
+    } catch (Exception e) {
+      log.debug("Unable to borrow a client from {} for a speculative read", nextHost, e);
+      return null;
+    }
+    SpeculativeAttempt<T> hedge = new SpeculativeAttempt<T>(op.copy(), hedgeClient, completed);
+    try {
+      policy.getExecutor().execute(hedge);
+    } catch (RejectedExecutionException e) {
+      log.debug("Speculative read threads are all busy, not hedging the read on {}",
+          client.getUrl());
+      releaseClient(hedgeClient);
+      return null;
+    }
+    log.debug("Read on {} is slow, sent it to {} as well", client.getUrl(), nextHost);
+    monitor.incCounter(Counter.SPECULATIVE_READS);
+    return hedge;
+  }
+
+  /**
+   * Waits for an attempt to complete. Like the thrift calls themselves, the wait isn't
+   * interruptible; the interrupt status is restored when done.
+   * @param timeoutMillis max time to wait, negative to wait indefinitely.
+   */
+  private static <T> T pollUninterruptibly(BlockingQueue<T> queue, long timeoutMillis) {
+    boolean interrupted = false;
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    try {
+      while (true) {
+        try {
+          if (timeoutMillis < 0) {
+            return queue.take();
+          }
+          return queue.poll(Math.max(0, deadline - System.currentTimeMillis()),
+              TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * One of the concurrent attempts of a speculative read, running on its own client.
+   * When an attempt is abandoned (the other attempt won), it returns its client to the pool as soon
+   * as it completes.
+   */
+  private class SpeculativeAttempt<T> implements Runnable {
+
+    final Operation<T> op;
+    final CassandraClient client;
+    private final BlockingQueue<SpeculativeAttempt<T>> completed;
+    volatile Exception error;
+    private boolean finished = false;
+    private boolean abandoned = false;
+
+    SpeculativeAttempt(Operation<T> op, CassandraClient client,
+        BlockingQueue<SpeculativeAttempt<T>> completed) {
+      this.op = op;
+      this.client = client;
+      this.completed = completed;
+    }
+
+    @Override
+    public void run() {
+      try {
+        executeOn(op, client);
+      } catch (Exception e) {
+        error = e;
+      }
+      synchronized (this) {
+        finished = true;
+        if (abandoned) {
+          returnClient();
+        }
+      }
+      completed.offer(this);
+    }
+
+    boolean succeeded() {
+      return error == null;
+    }
+
+    /**
+     * The attempt's result isn't needed anymore, return its client once it's done.
+     */
+    synchronized void abandon() {
+      if (finished) {
+        returnClient();
+      } else {
+        abandoned = true;
+      }
+    }
+
+    private void returnClient() {
+      if (error == null || error instanceof InvalidRequestException ||
+          error instanceof TimedOutException || error instanceof UnavailableException) {
+        releaseClient(client);
+      } else {
+        clientPools.invalidateClient(client);
+      }
+    }
+  }
+
+  /**
+   * Performs the operation on the client, recording the client's host latency if successful.
+   */
+  private void executeOn(Operation<?> op, CassandraClient c) throws InvalidRequestException,
+      UnavailableException, TException, TimedOutException {
+    long start = System.nanoTime();
+    op.executeAndSetResult(c.getCassandra());
+    long micros = (System.nanoTime() - start) / 1000;
+    monitor.recordHostLatency(c.getUrl(), micros);
+    LoadBalancingPolicy policy = clientPools.getLoadBalancingPolicy();
+    if (policy != null) {
+      policy.recordLatency(c.getUrl() + ':' + c.getPort(), micros);
+    }
+  }
+
+  private void releaseClient(CassandraClient c) {
+    try {
+      clientPools.releaseClient(c);
+    } catch (Exception e) {
+      log.error("Unable to release client " + c, e);
+    }
+  }
+
   /**
    * Updates the client member and cassandra member to the next host in the
    * ring.
@@ -615,7 +1290,6 @@ import org.slf4j.LoggerFactory;
     }
     // assume they use the same port
     client = clientPools.borrowClient(nextHost, client.getPort());
-    cassandra = client.getCassandra();
     monitor.incCounter(Counter.SKIP_HOST_SUCCESS);
     log.info("Skipped host. New host is: {}", client.getUrl());
   }
@@ -636,12 +1310,20 @@ import org.slf4j.LoggerFactory;
   }
   /**
    * Finds the next host in the knownHosts. Next is the one after the given url
-   * (modulo the number of elemens in the list)
+   * (modulo the number of elemens in the list), or, if the pool has a load balancing policy, the
+   * one chosen by the policy among the other known hosts.
    *
    * @return URL of the next presumably available host. null if none can be
    *         found.
    */
   private String getNextHost(String url, String ip) {
+    LoadBalancingPolicy policy = clientPools.getLoadBalancingPolicy();
+    if (policy != null) {
+      String next = selectOtherHost(policy, url, ip);
+      if (next != null) {
+        return next;
+      }
+    }
     int size = knownHosts.size();
     if (size < 1) {
       return null;
@@ -656,6 +1338,25 @@ import org.slf4j.LoggerFactory;
     return null;
   }
 
+  /**
+   * Lets the policy choose among the known hosts other than the given one.
+   * @return the chosen host's URL, null if there are no other known hosts.
+   */
+  private String selectOtherHost(LoadBalancingPolicy policy, String url, String ip) {
+    String portSuffix = ":" + client.getPort();
+    List<String> candidates = new ArrayList<String>(knownHosts.size());
+    for (String host : knownHosts) {
+      if (!url.equals(host) && !ip.equals(host)) {
+        candidates.add(host + portSuffix);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    String selected = policy.selectHost(candidates, clientPools);
+    return selected.substring(0, selected.length() - portSuffix.length());
+  }
+
   /**
    * Performs the operation and retries in in case the class is configured for
    * retries, and there are enough hosts to try and the error was
@@ -664,15 +1365,30 @@ import org.slf4j.LoggerFactory;
   private void operateWithFailover(Operation<?> op) throws InvalidRequestException,
       UnavailableException, TException, TimedOutException {
     final StopWatch stopWatch = new Slf4JStopWatch();
+    final long start = System.nanoTime();
     int retries = Math.min(failoverPolicy.getNumRetries() + 1, knownHosts.size());
     boolean isFirst = true;
+    int attempt = 0;
+    RetryPolicy retryPolicy = clientPools.getRetryPolicy();
+    if (retryPolicy != null) {
+      retryPolicy.recordOperation();
+    }
     try {
+      if (operateOnTokenOwner(op)) {
+        stopWatch.stop(op.stopWatchTagName + ".success_");
+        monitor.incCounter(op.successCounter);
+        monitor.recordOperationLatency(op.name, (System.nanoTime() - start) / 1000);
+        return;
+      }
       while (retries > 0) {
         if (!isFirst) {
           --retries;
         }
-        boolean success = operateWithFailoverSingleIteration(op, stopWatch, retries, isFirst);
+        boolean success = operateWithFailoverSingleIteration(op, stopWatch, retries, isFirst,
+            retryPolicy, attempt++);
         if (success) {
+          monitor.incCounter(op.successCounter);
+          monitor.recordOperationLatency(op.name, (System.nanoTime() - start) / 1000);
           return;
         }
         isFirst = false;
@@ -729,49 +1445,84 @@ import org.slf4j.LoggerFactory;
    * @param stopWatch the stop watch measuring performance of this operation.
    * @param retries the number of retries left.
    * @param isFirst is this the first iteraion?
+   * @param retryPolicy the pool's retry policy, may be null.
+   * @param attempt the number of iterations before this one.
    */
   private boolean operateWithFailoverSingleIteration(Operation<?> op, final StopWatch stopWatch,
-      int retries, boolean isFirst) throws InvalidRequestException, TException, TimedOutException,
+      int retries, boolean isFirst, RetryPolicy retryPolicy, int attempt) throws InvalidRequestException, TException, TimedOutException,
       PoolExhaustedException, Exception, UnavailableException, TTransportException {
     log.debug("Performing operation on {}; retries: {}", client.getUrl(), retries);
+    SpeculativeReadPolicy speculativeReadPolicy = isFirst ? getSpeculativeReadPolicy(op) : null;
+    // A failed speculative read already tried its host, and the next one if it hedged, so failover
+    // skips to the next host rather than trying the same one again
+    boolean retrySameHost = isFirst && speculativeReadPolicy == null;
     try {
       // Perform operation and save its result value
-      op.executeAndSetResult(cassandra);
-      // hmmm don't count success, there are too many...
-      // monitor.incCounter(op.successCounter);
+      if (speculativeReadPolicy != null) {
+        operateSpeculatively(op, speculativeReadPolicy);
+      } else {
+        executeOn(op, client);
+      }
       log.debug("Operation succeeded on {}", client.getUrl());
       stopWatch.stop(op.stopWatchTagName + ".success_");
       return true;
     } catch (TimedOutException e) {
       log.warn("Got a TimedOutException from {}. Num of retries: {}", client.getUrl(), retries);
-      if (retries == 0) {
+      if (retries == 0 || !allowRetry(retryPolicy, e, attempt)) {
         throw e;
       } else {
-        skipToNextHost(isFirst);
+        skipToNextHost(retrySameHost);
         monitor.incCounter(Counter.RECOVERABLE_TIMED_OUT_EXCEPTIONS);
       }
     } catch (UnavailableException e) {
       log.warn("Got a UnavailableException from {}. Num of retries: {}", client.getUrl(),
           retries);
-      if (retries == 0) {
+      if (retries == 0 || !allowRetry(retryPolicy, e, attempt)) {
         throw e;
       } else {
-        skipToNextHost(isFirst);
+        skipToNextHost(retrySameHost);
         monitor.incCounter(Counter.RECOVERABLE_UNAVAILABLE_EXCEPTIONS);
       }
     } catch (TTransportException e) {
       log.warn("Got a TTransportException from {}. Num of retries: {}", client.getUrl(),
           retries);
-      if (retries == 0) {
+      if (retries == 0 || !allowRetry(retryPolicy, e, attempt)) {
         throw e;
       } else {
-        skipToNextHost(isFirst);
+        skipToNextHost(retrySameHost);
         monitor.incCounter(Counter.RECOVERABLE_TRANSPORT_EXCEPTIONS);
       }
     }
     return false;
   }
 
+  /**
+   * Asks the retry policy whether the operation may be retried after the error, and if so waits
+   * for the policy's backoff delay.
+   * @return false if the retry is suppressed, or if the thread was interrupted while waiting.
+   */
+  private boolean allowRetry(RetryPolicy retryPolicy, Exception e, int attempt) {
+    if (retryPolicy == null) {
+      return true;
+    }
+    if (!retryPolicy.allowRetry(e)) {
+      log.info("Retry policy suppressed retrying a {} from {}", e.getClass().getSimpleName(),
+          client.getUrl());
+      monitor.incCounter(Counter.RETRIES_SUPPRESSED);
+      return false;
+    }
+    long delay = retryPolicy.getDelayMillis(e, attempt);
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Defines the interface of an operation performed on cassandra
    *
@@ -781,21 +1532,65 @@ import org.slf4j.LoggerFactory;
    *
    *          Oh closures, how I wish you were here...
    */
-  private abstract static class Operation<T> {
+  private abstract static class Operation<T> implements Cloneable {
 
     /** Counts failed attempts */
     protected final Counter failCounter;
 
+    /** Counts successful attempts */
+    protected final Counter successCounter;
+
+    protected final OperationType operationType;
+
     /** The stopwatch used to measure operation performance */
     protected final String stopWatchTagName;
 
+    /** The name of the thrift operation, used for latency monitoring */
+    protected final String name;
+
+    /** The row key of a single-key operation, used for routing. null for multi-key operations */
+    protected final String key;
+
     protected T result;
     private NotFoundException exception;
 
-    public Operation(OperationType operationType) {
+    public Operation(OperationType operationType, String name) {
+      this(operationType, name, null);
+    }
+
+    public Operation(OperationType operationType, String name, String key) {
       this.failCounter = operationType.equals(OperationType.READ) ? Counter.READ_FAIL :
           Counter.WRITE_FAIL;
+      this.successCounter = operationType.equals(OperationType.READ) ? Counter.READ_SUCCESS :
+          Counter.WRITE_SUCCESS;
       this.stopWatchTagName = operationType.name();
+      this.operationType = operationType;
+      this.name = name;
+      this.key = key;
+    }
+
+    /**
+     * Creates a copy of this operation without its result, so the same operation can be performed
+     * concurrently on different hosts.
+     */
+    @SuppressWarnings("unchecked")
+    public Operation<T> copy() {
+      try {
+        Operation<T> copy = (Operation<T>) clone();
+        copy.result = null;
+        copy.exception = null;
+        return copy;
+      } catch (CloneNotSupportedException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    /**
+     * Takes the result of another copy of this operation.
+     */
+    public void setResultFrom(Operation<T> other) {
+      result = other.result;
+      exception = other.exception;
     }
 
     public void setResult(T executionResult) {
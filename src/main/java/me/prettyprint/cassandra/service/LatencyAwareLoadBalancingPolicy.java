@@ -0,0 +1,127 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Picks the host with the lowest exponentially weighted moving average (EWMA) of latencies.
+ *
+ * Each successful call updates its host's average: avg = alpha * latency + (1 - alpha) * avg.
+ * Hosts which weren't called yet are scored 0, so they are tried first. So that a host which was
+ * slow once is tried again eventually, a host's score is halved every decayMillis in which it
+ * wasn't called. Hosts with equal scores are picked in turns.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class LatencyAwareLoadBalancingPolicy implements LoadBalancingPolicy {
+
+  public static final double DEFAULT_ALPHA = 0.1;
+
+  public static final long DEFAULT_DECAY_MILLIS = 10 * 1000;
+
+  private final double alpha;
+  private final long decayMillis;
+  private final ConcurrentMap<String, AtomicReference<Score>> scores =
+      new ConcurrentHashMap<String, AtomicReference<Score>>();
+  private final AtomicInteger counter = new AtomicInteger(0);
+
+  public LatencyAwareLoadBalancingPolicy() {
+    this(DEFAULT_ALPHA, DEFAULT_DECAY_MILLIS);
+  }
+
+  /**
+   * @param alpha The weight of the latest latency, between 0 and 1.
+   * @param decayMillis The time in which the score of a host which isn't called is halved.
+   */
+  public LatencyAwareLoadBalancingPolicy(double alpha, long decayMillis) {
+    if (alpha <= 0 || alpha > 1) {
+      throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+    }
+    if (decayMillis <= 0) {
+      throw new IllegalArgumentException("decayMillis must be positive: " + decayMillis);
+    }
+    this.alpha = alpha;
+    this.decayMillis = decayMillis;
+  }
+
+  @Override
+  public String selectHost(List<String> hosts, CassandraClientPool pool) {
+    int size = hosts.size();
+    int start = (counter.getAndIncrement() & Integer.MAX_VALUE) % size;
+    long now = currentTimeMillis();
+    String best = null;
+    double bestScore = Double.MAX_VALUE;
+    for (int i = 0; i < size; ++i) {
+      String host = hosts.get((start + i) % size);
+      double score = getScore(host, now);
+      if (score < bestScore) {
+        best = host;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public void recordLatency(String host, long micros) {
+    AtomicReference<Score> ref = scores.get(host);
+    if (ref == null) {
+      ref = new AtomicReference<Score>();
+      AtomicReference<Score> tmp = scores.putIfAbsent(host, ref);
+      if (tmp != null) {
+        ref = tmp;
+      }
+    }
+    long now = currentTimeMillis();
+    Score current;
+    Score updated;
+    do {
+      current = ref.get();
+      double ewma = current == null ? micros : alpha * micros + (1 - alpha) * current.ewma;
+      updated = new Score(ewma, now);
+    } while (!ref.compareAndSet(current, updated));
+  }
+
+  /**
+   * @return The host's decayed average latency, 0 if unknown.
+   */
+  double getScore(String host, long now) {
+    AtomicReference<Score> ref = scores.get(host);
+    Score score = ref == null ? null : ref.get();
+    if (score == null) {
+      return 0;
+    }
+    long idle = now - score.time;
+    if (idle <= 0) {
+      return score.ewma;
+    }
+    return score.ewma * Math.pow(0.5, (double) idle / decayMillis);
+  }
+
+  /** Overridden by tests */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyAwareLoadBalancingPolicy<alpha " + alpha + ", decay " + decayMillis + "ms>";
+  }
+
+  /**
+   * The average latency of a host and the time it was last updated.
+   */
+  private static class Score {
+    final double ewma;
+    final long time;
+
+    Score(double ewma, long time) {
+      this.ewma = ewma;
+      this.time = time;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory, lock free histogram of latencies over a rolling time window.
+ *
+ * Latencies are counted in log-linear buckets: each power of two range is split into
+ * {@link #SUB_BUCKETS} equal buckets, so a reported percentile is within 12.5% of the real value.
+ * The window is divided into a number of intervals; recording only increments the counter of the
+ * current interval (an interval is cleared when it's reused) and a {@link Snapshot} sums the
+ * intervals within the window.
+ *
+ * The histogram is unit agnostic, {@link CassandraClientMonitor} records microseconds.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+/*package*/ class LatencyHistogram {
+
+  /** Default length of the rolling window */
+  public static final long DEFAULT_WINDOW_MILLIS = 60 * 1000;
+
+  /** Default number of intervals the window is divided into */
+  public static final int DEFAULT_NUM_INTERVALS = 6;
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** Enough buckets for values up to 2^40 */
+  static final int NUM_BUCKETS = (40 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final long intervalMillis;
+  private final Interval[] intervals;
+
+  public LatencyHistogram() {
+    this(DEFAULT_WINDOW_MILLIS, DEFAULT_NUM_INTERVALS);
+  }
+
+  public LatencyHistogram(long windowMillis, int numIntervals) {
+    if (windowMillis < numIntervals || numIntervals < 1) {
+      throw new IllegalArgumentException("Invalid window: " + windowMillis + "ms in " +
+          numIntervals + " intervals");
+    }
+    intervalMillis = windowMillis / numIntervals;
+    intervals = new Interval[numIntervals];
+    for (int i = 0; i < numIntervals; ++i) {
+      intervals[i] = new Interval();
+    }
+  }
+
+  /**
+   * Records a single latency. Negative values are counted as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    long epoch = currentTimeMillis() / intervalMillis;
+    Interval interval = intervals[(int) (epoch % intervals.length)];
+    interval.rollTo(epoch);
+    interval.counts.incrementAndGet(bucketIndex(value));
+    long max;
+    while (value > (max = interval.max.get())) {
+      if (interval.max.compareAndSet(max, value)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return The latencies recorded within the window.
+   */
+  public Snapshot getSnapshot() {
+    long epoch = currentTimeMillis() / intervalMillis;
+    long[] counts = new long[NUM_BUCKETS];
+    long max = 0;
+    for (Interval interval : intervals) {
+      long intervalEpoch = interval.epoch.get();
+      if (intervalEpoch > epoch - intervals.length && intervalEpoch <= epoch) {
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+          counts[i] += interval.counts.get(i);
+        }
+        max = Math.max(max, interval.max.get());
+      }
+    }
+    return new Snapshot(counts, max);
+  }
+
+  /** Overridden by tests */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    int shift = msb - SUB_BUCKET_BITS;
+    int index = (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    return Math.min(index, NUM_BUCKETS - 1);
+  }
+
+  /**
+   * @return The highest value counted in the bucket.
+   */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * The counts of a single interval of the window.
+   */
+  private static class Interval {
+    final AtomicLong epoch = new AtomicLong(-1);
+    final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Clears the interval if it was last used for an older epoch.
+     * Values recorded concurrently with the clearing may get lost, which is fine for monitoring.
+     */
+    void rollTo(long newEpoch) {
+      long current = epoch.get();
+      if (current != newEpoch && epoch.compareAndSet(current, newEpoch)) {
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+          counts.set(i, 0);
+        }
+        max.set(0);
+      }
+    }
+  }
+
+  /**
+   * An immutable view of the histogram at a point in time.
+   */
+  public static class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long max;
+
+    Snapshot(long[] counts, long max) {
+      this.counts = counts;
+      this.max = max;
+      long sum = 0;
+      for (long c : counts) {
+        sum += c;
+      }
+      count = sum;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return The value at the percentile, 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; ++i) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(bucketUpperBound(i), max);
+        }
+      }
+      return max;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder b = new StringBuilder();
+      b.append("count=").append(count);
+      b.append(" p50=").append(getPercentile(50));
+      b.append(" p95=").append(getPercentile(95));
+      b.append(" p99=").append(getPercentile(99));
+      b.append(" p999=").append(getPercentile(99.9));
+      b.append(" max=").append(max);
+      return b.toString();
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the host with the fewest borrowed clients, as counted by its pool.
+ * Hosts with an equal number of borrowed clients are picked in turns.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class LeastActiveLoadBalancingPolicy implements LoadBalancingPolicy {
+
+  private final AtomicInteger counter = new AtomicInteger(0);
+
+  @Override
+  public String selectHost(List<String> hosts, CassandraClientPool pool) {
+    int size = hosts.size();
+    int start = (counter.getAndIncrement() & Integer.MAX_VALUE) % size;
+    String best = null;
+    int bestActive = Integer.MAX_VALUE;
+    for (int i = 0; i < size; ++i) {
+      String host = hosts.get((start + i) % size);
+      int active = pool.getNumActive(host);
+      if (active < bestActive) {
+        best = host;
+        bestActive = active;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public void recordLatency(String host, long micros) {
+    // nada
+  }
+
+  @Override
+  public String toString() {
+    return "LeastActiveLoadBalancingPolicy";
+  }
+}
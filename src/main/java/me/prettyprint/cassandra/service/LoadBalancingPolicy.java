@@ -0,0 +1,39 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.List;
+
+/**
+ * Decides which host a client is borrowed from.
+ *
+ * A pool's policy is used by {@link CassandraClientPool#borrowClient(String[])} to pick a host
+ * among the given hosts (trying the others, in the policy's order, if the chosen host can't be
+ * reached), and by keyspaces when they fail over, or send a speculative read, to another host.
+ * Without a policy a random host is picked, and keyspaces fail over to the next host in the ring.
+ *
+ * Implementations must be thread safe. The available policies are
+ * {@link RoundRobinLoadBalancingPolicy}, {@link LeastActiveLoadBalancingPolicy} and
+ * {@link LatencyAwareLoadBalancingPolicy}.
+ *
+ * Set a policy on a pool with {@link CassandraClientPool#setLoadBalancingPolicy}.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public interface LoadBalancingPolicy {
+
+  /**
+   * Picks the host to borrow a client from.
+   *
+   * @param hosts The candidate hosts as "url:port", never empty.
+   * @param pool The pool the client is borrowed from, for policies which consider its load.
+   * @return one of the hosts.
+   */
+  String selectHost(List<String> hosts, CassandraClientPool pool);
+
+  /**
+   * Called after each successful call to a host.
+   *
+   * @param host The host as "url:port".
+   */
+  void recordLatency(String host, long micros);
+}
@@ -0,0 +1,501 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A {@link CassandraClientPoolByHost} which does not synchronize on the pool for borrowing and
+ * releasing clients.
+ *
+ * Idle clients are kept in a lock free queue and the number of active clients is maintained by an
+ * atomic counter, so the common borrow/release path is a couple of CAS operations.
+ * The only place where threads synchronize is when the pool is exhausted and the policy is
+ * {@link ExhaustedPolicy#WHEN_EXHAUSTED_BLOCK}, in which case borrowers wait until a client is
+ * released (or invalidated) or until maxWaitTimeWhenExhausted has passed.
+ *
+ * Idle clients are validated, and closed once they're idle for too long, by a background evictor
+ * (see {@link CassandraHost#getIdleEvictionIntervalMillis()}). The evictor takes each idle client
+ * out of the queue while it's validated, so borrowers never wait for it.
+ *
+ * To use this pool for a host call {@link CassandraHost#setLockFreePool(boolean)}.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+/*package*/ class LockFreeCassandraClientPoolByHostImpl implements CassandraClientPoolByHost {
+
+  private static final Logger log =
+      LoggerFactory.getLogger(LockFreeCassandraClientPoolByHostImpl.class);
+
+  private final CassandraClientFactory clientFactory;
+  private final String url;
+  private final String name;
+  private final int port;
+  private final int maxActive;
+  private final int maxIdle;
+  private final ExhaustedPolicy exhaustedPolicy;
+  private final long maxWaitTimeWhenExhausted;
+  private final long maxIdleTimeMillis;
+
+  /** Validates and evicts the idle clients of all the lock free pools */
+  private static final ScheduledExecutorService evictor =
+      Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("hector-idle-evictor"));
+
+  /** This pool's evictor runs, null if eviction is disabled */
+  private final ScheduledFuture<?> evictorTask;
+
+  /** Idle clients, ready to be borrowed */
+  private final ConcurrentLinkedQueue<IdleClient> idleClients;
+
+  /**
+   * Number of idle clients. Maintained separately since {@link ConcurrentLinkedQueue#size()} is
+   * not a constant time operation.
+   */
+  private final AtomicInteger numIdle;
+
+  /** Number of borrowed clients, including clients which are currently being created */
+  private final AtomicInteger numActive;
+
+  /**
+   * Number of currently blocked threads.
+   * This includes the number of threads waiting for an idle connection, as well as threads
+   * wanting for connection initialization after they won a free slot.
+   */
+  private final AtomicInteger blockedThreadsCount;
+
+  /** Number of threads waiting on {@link #exhaustedLock} for a client to be released */
+  private final AtomicInteger numWaiters;
+
+  /** Monitor used only when the pool is exhausted and threads need to wait */
+  private final Object exhaustedLock = new Object();
+
+  private volatile boolean closed = false;
+
+  /**
+   * The set of live clients created by the pool.
+   * This set includes both the active clients currently used by active threads as well as idle
+   * clients waiting in the pool.
+   */
+  private final Set<CassandraClient> liveClientsFromPool;
+
+  /**
+   * The clients which are currently borrowed, each holding an active slot. A client leaves the
+   * set when it's released or invalidated, which frees its slot exactly once, whether or not the
+   * client was closed in the meantime.
+   */
+  private final Set<CassandraClient> borrowedClients;
+
+  public LockFreeCassandraClientPoolByHostImpl(CassandraHost cassandraHost,
+      CassandraClientPool pools,
+      CassandraClientMonitor cassandraClientMonitor) {
+    this(cassandraHost, pools, cassandraClientMonitor,
+        new CassandraClientFactory(pools, cassandraHost, cassandraClientMonitor));
+  }
+
+  public LockFreeCassandraClientPoolByHostImpl(CassandraHost cassandraHost,
+      CassandraClientPool pools,
+      CassandraClientMonitor cassandraClientMonitor,
+      CassandraClientFactory cassandraClientFactory) {
+    log.debug("Creating new lock free connection pool for {}", cassandraHost.getUrlPort());
+    url = cassandraHost.getUrl();
+    port = cassandraHost.getPort();
+    this.name = cassandraHost.getName();
+    this.maxActive = cassandraHost.getMaxActive();
+    this.maxIdle = cassandraHost.getMaxIdle();
+    this.maxWaitTimeWhenExhausted = cassandraHost.getMaxWaitTimeWhenExhausted();
+    this.exhaustedPolicy = cassandraHost.getExhaustedPolicy();
+    this.maxIdleTimeMillis = cassandraHost.getMaxIdleTimeMillis();
+    this.clientFactory = cassandraClientFactory;
+
+    idleClients = new ConcurrentLinkedQueue<IdleClient>();
+    numIdle = new AtomicInteger(0);
+    numActive = new AtomicInteger(0);
+    blockedThreadsCount = new AtomicInteger(0);
+    numWaiters = new AtomicInteger(0);
+    liveClientsFromPool =
+        Collections.newSetFromMap(new ConcurrentHashMap<CassandraClient,Boolean>());
+    borrowedClients =
+        Collections.newSetFromMap(new ConcurrentHashMap<CassandraClient,Boolean>());
+    long evictionInterval = cassandraHost.getIdleEvictionIntervalMillis();
+    evictorTask = evictionInterval <= 0 ? null : evictor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          evictIdleClients();
+        } catch (RuntimeException e) {
+          // Don't let an error cancel the next runs
+          log.error("Unable to evict idle clients of " + name, e);
+        }
+      }
+    }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public CassandraClient borrowClient() throws Exception, PoolExhaustedException,
+      IllegalStateException {
+    assertOpen();
+    CassandraClient client = pollIdleClient();
+    if (client != null) {
+      return client;
+    }
+    blockedThreadsCount.incrementAndGet();
+    try {
+      client = tryCreateClient();
+      if (client != null) {
+        return client;
+      }
+      switch (exhaustedPolicy) {
+      case WHEN_EXHAUSTED_FAIL:
+        throw new PoolExhaustedException("Pool exhausted");
+      default:
+        return waitForClient();
+      }
+    } finally {
+      blockedThreadsCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Takes an idle client from the pool, if an active slot is free for it.
+   * @return the client or null if there are no (valid) idle clients or the pool is exhausted.
+   */
+  private CassandraClient pollIdleClient() {
+    IdleClient idle;
+    while ((idle = idleClients.poll()) != null) {
+      numIdle.decrementAndGet();
+      CassandraClient client = idle.client;
+      if (!clientFactory.validateObject(client)) {
+        destroy(client);
+        continue;
+      }
+      if (!reserveActiveSlot()) {
+        // Idle clients may be added while all the slots are taken, e.g. by the pool maintainer
+        numIdle.incrementAndGet();
+        idleClients.offer(idle);
+        return null;
+      }
+      borrowedClients.add(client);
+      return client;
+    }
+    return null;
+  }
+
+  /**
+   * Creates a new client if the pool isn't exhausted (or if it may grow).
+   * @return the new client or null if the pool is exhausted.
+   */
+  private CassandraClient tryCreateClient() throws Exception {
+    if (!reserveActiveSlot()) {
+      return null;
+    }
+    try {
+      CassandraClient client = (CassandraClient) clientFactory.makeObject();
+      liveClientsFromPool.add(client);
+      borrowedClients.add(client);
+      return client;
+    } catch (Exception e) {
+      releaseActiveSlot();
+      throw e;
+    }
+  }
+
+  /**
+   * Atomically increments the number of active clients, unless the pool is exhausted.
+   * @return true if a slot was reserved.
+   */
+  private boolean reserveActiveSlot() {
+    while (true) {
+      int active = numActive.get();
+      if (maxActive > 0 && active >= maxActive &&
+          exhaustedPolicy != ExhaustedPolicy.WHEN_EXHAUSTED_GROW) {
+        return false;
+      }
+      if (numActive.compareAndSet(active, active + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void releaseActiveSlot() {
+    numActive.decrementAndGet();
+    signalWaiters();
+  }
+
+  /**
+   * Blocks until a client is released to the pool or until a slot for creating a new one frees
+   * up. Waits up to maxWaitTimeWhenExhausted, or indefinitely if it's non positive.
+   */
+  private CassandraClient waitForClient() throws Exception {
+    final long deadline = maxWaitTimeWhenExhausted > 0 ?
+        System.currentTimeMillis() + maxWaitTimeWhenExhausted : Long.MAX_VALUE;
+    numWaiters.incrementAndGet();
+    try {
+      while (true) {
+        assertOpen();
+        // Clients are created outside of the lock so releasers never wait on a connect.
+        CassandraClient client = pollIdleClient();
+        if (client == null) {
+          client = tryCreateClient();
+        }
+        if (client != null) {
+          return client;
+        }
+        synchronized (exhaustedLock) {
+          // Both idle clients and new ones need a free slot
+          if (closed || hasFreeActiveSlot()) {
+            continue;
+          }
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) {
+            throw new PoolExhaustedException("Timeout waiting for idle client");
+          }
+          exhaustedLock.wait(maxWaitTimeWhenExhausted > 0 ? remaining : 0);
+        }
+      }
+    } finally {
+      numWaiters.decrementAndGet();
+    }
+  }
+
+  private boolean hasFreeActiveSlot() {
+    return maxActive <= 0 || numActive.get() < maxActive;
+  }
+
+  /**
+   * Wakes up the threads waiting for a client, if there are any.
+   * Since waiters register in numWaiters before they re-check the pool, a releaser which sees no
+   * waiters is guaranteed that any waiter arriving later will find the released client.
+   */
+  private void signalWaiters() {
+    if (numWaiters.get() > 0) {
+      synchronized (exhaustedLock) {
+        // Waiters may have timed out, so wake them all up rather than one which may be gone
+        exhaustedLock.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public boolean addIdleClient() throws Exception {
+    assertOpen();
+    if (numIdle.get() >= maxIdle || !hasFreeActiveSlot()) {
+      return false;
+    }
+    CassandraClient client = (CassandraClient) clientFactory.makeObject();
+    liveClientsFromPool.add(client);
+    if (closed || numIdle.incrementAndGet() > maxIdle) {
+      // Lost a race with releasers
+      numIdle.decrementAndGet();
+      destroy(client);
+      return false;
+    }
+    idleClients.offer(new IdleClient(client, System.currentTimeMillis()));
+    signalWaiters();
+    return true;
+  }
+
+  /**
+   * Goes once over the idle clients, closing the ones which are idle for longer than
+   * maxIdleTimeMillis and the ones which fail validation.
+   * Each client is taken out of the queue while it's checked, so borrowers don't wait for the
+   * validation, they get the next idle client or create a new one.
+   */
+  void evictIdleClients() {
+    long now = System.currentTimeMillis();
+    for (int n = numIdle.get(); n > 0 && !closed; --n) {
+      IdleClient idle = idleClients.poll();
+      if (idle == null) {
+        return;
+      }
+      numIdle.decrementAndGet();
+      if (maxIdleTimeMillis > 0 && now - idle.idleSince >= maxIdleTimeMillis) {
+        log.debug("Closing client {}, idle for {}ms", idle.client, now - idle.idleSince);
+        destroy(idle.client);
+      } else if (!clientFactory.validateIdleClient(idle.client)) {
+        destroy(idle.client);
+      } else if (closed || numIdle.incrementAndGet() > maxIdle) {
+        // Released clients took its place
+        numIdle.decrementAndGet();
+        destroy(idle.client);
+      } else {
+        // Keeps the time it became idle
+        idleClients.offer(idle);
+        signalWaiters();
+      }
+    }
+  }
+
+  @Override
+  public void releaseClient(CassandraClient client) throws Exception {
+    if (!borrowedClients.remove(client)) {
+      // Already released or invalidated and accounted for.
+      return;
+    }
+    numActive.decrementAndGet();
+    if (closed || client.isClosed() || !clientFactory.validateObject(client)) {
+      destroy(client);
+    } else if (numIdle.incrementAndGet() > maxIdle) {
+      numIdle.decrementAndGet();
+      destroy(client);
+    } else {
+      idleClients.offer(new IdleClient(client, System.currentTimeMillis()));
+    }
+    signalWaiters();
+  }
+
+  @Override
+  public void invalidateClient(CassandraClient client) {
+    liveClientsFromPool.remove(client);
+    client.markAsError();
+    if (!client.isClosed()) {
+      destroy(client);
+    }
+    // The client may have closed while borrowed, e.g. on a transport error, and still holds its
+    // slot
+    if (borrowedClients.remove(client)) {
+      releaseActiveSlot();
+    }
+  }
+
+  private void destroy(CassandraClient client) {
+    try {
+      clientFactory.destroyObject(client);
+    } catch (Exception e) {
+      log.error("Unable to destroy client " + client, e);
+    }
+  }
+
+  private void assertOpen() {
+    if (closed) {
+      throw new IllegalStateException("Pool not open");
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (evictorTask != null) {
+      evictorTask.cancel(false);
+    }
+    IdleClient idle;
+    while ((idle = idleClients.poll()) != null) {
+      numIdle.decrementAndGet();
+      destroy(idle.client);
+    }
+    // Wake up everyone so they can fail
+    synchronized (exhaustedLock) {
+      exhaustedLock.notifyAll();
+    }
+  }
+
+  @Override
+  public int getNumIdle() {
+    return numIdle.get();
+  }
+
+  @Override
+  public int getNumActive() {
+    return numActive.get();
+  }
+
+  @Override
+  public int getNumBeforeExhausted() {
+    return maxActive - numActive.get();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder();
+    b.append("LockFreeCassandraClientPoolImpl<");
+    b.append(url);
+    b.append(":");
+    b.append(port);
+    b.append(">");
+    return b.toString();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public boolean isExhausted() {
+    return getNumBeforeExhausted() <= 0 &&
+        (exhaustedPolicy.equals(ExhaustedPolicy.WHEN_EXHAUSTED_BLOCK) ||
+         exhaustedPolicy.equals(ExhaustedPolicy.WHEN_EXHAUSTED_FAIL));
+  }
+
+  @Override
+  public int getNumBlockedThreads() {
+    return blockedThreadsCount.intValue();
+  }
+
+  @Override
+  public void updateKnownHosts() throws TException {
+    Set<CassandraClient> removed = new HashSet<CassandraClient>();
+    for (CassandraClient c: liveClientsFromPool) {
+      if (c.isClosed()) {
+        removed.add(c);
+      } else {
+        try {
+          c.updateKnownHosts();
+        } catch (TException e) {
+          log.error("Unable to update hosts list at {}", c, e);
+          throw e;
+        }
+      }
+    }
+    // perform cleanup
+    liveClientsFromPool.removeAll(removed);
+  }
+
+  @Override
+  public Set<String> getKnownHosts() {
+    Set<String> hosts = new HashSet<String>();
+    for (CassandraClient c: liveClientsFromPool) {
+      if (!c.isClosed()) {
+        hosts.addAll(c.getKnownHosts());
+      }
+    }
+    return hosts;
+  }
+
+  @Override
+  public Set<CassandraClient> getLiveClients() {
+    return ImmutableSet.copyOf(liveClientsFromPool);
+  }
+
+  @Override
+  public void reportDestroyed(CassandraClient client) {
+    log.debug("Client has been destroyed: {}", client);
+    liveClientsFromPool.remove(client);
+  }
+
+  /**
+   * An idle client and the time it was added to the idle clients.
+   */
+  private static class IdleClient {
+    final CassandraClient client;
+    final long idleSince;
+
+    IdleClient(CassandraClient client, long idleSince) {
+      this.client = client;
+      this.idleSince = idleSince;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Defines how large multigets are split into smaller multigets, which are sent in parallel.
+ *
+ * Without splitting, a multiget of many keys makes a single coordinator fetch all the keys from
+ * the other nodes and return them in one huge message. With a split policy, a keyspace splits the
+ * keys of multigetSlice, multigetColumn and multigetSuperSlice into chunks of at most
+ * {@link #getChunkSize()} keys, fetches up to {@link #getParallelism()} chunks at once, each over
+ * a separately pooled client, and merges the results. Multigets of up to chunkSize keys are sent
+ * as is.
+ *
+ * Keys are split either into fixed size chunks, which are spread over the known hosts, or by
+ * their token owner, so that each chunk goes to the host which owns its keys (falling back to
+ * fixed chunks when the ring is unknown).
+ *
+ * The policy owns the threads which fetch the chunks; they exit when idle, and
+ * {@link #shutdown()}, or closing the pool the policy is set on, stops them.
+ *
+ * Set a policy on a pool with {@link CassandraClientPool#setMultigetSplitPolicy}.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class MultigetSplitPolicy {
+
+  private final boolean byTokenOwner;
+  private final int chunkSize;
+  private final int parallelism;
+  private final ExecutorService executor;
+
+  private MultigetSplitPolicy(boolean byTokenOwner, int chunkSize, int parallelism) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+    this.byTokenOwner = byTokenOwner;
+    this.chunkSize = chunkSize;
+    this.parallelism = parallelism;
+    executor = Executors.newCachedThreadPool(new DaemonThreadFactory("hector-multiget"));
+  }
+
+  /**
+   * Split keys into chunks of chunkSize keys, spread over the known hosts.
+   * @param parallelism max number of chunks fetched at once by a single multiget.
+   */
+  public static MultigetSplitPolicy fixedChunks(int chunkSize, int parallelism) {
+    return new MultigetSplitPolicy(false, chunkSize, parallelism);
+  }
+
+  /**
+   * Group keys by the host owning them, and split each group into chunks of up to chunkSize keys.
+   * @param parallelism max number of chunks fetched at once by a single multiget.
+   */
+  public static MultigetSplitPolicy byTokenOwner(int chunkSize, int parallelism) {
+    return new MultigetSplitPolicy(true, chunkSize, parallelism);
+  }
+
+  public boolean isByTokenOwner() {
+    return byTokenOwner;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Stops the policy's threads once their chunks are fetched. Split multigets using the policy
+   * afterwards fail.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "MultigetSplitPolicy<" + (byTokenOwner ? "by token owner" : "fixed") + ", chunk " +
+        chunkSize + ", parallelism " + parallelism + ">";
+  }
+}
@@ -0,0 +1,252 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base class of iterators which fetch their elements from cassandra page by page, e.g. the rows of
+ * a key range or the columns of a wide row.
+ *
+ * Each page starts at the last element of the previous page, since cassandra ranges are
+ * inclusive; that boundary element is returned only once. A page which is smaller than requested
+ * is the last page.
+ *
+ * Pages may be prefetched in the background while the caller consumes the current page, but no
+ * more than maxPrefetchedPages pages are held beyond the current one, so memory use is bounded
+ * no matter how many elements there are. When prefetching, the keyspace is used by a background
+ * thread, so it must not be used by others until the iteration completes or is closed.
+ * Errors are thrown from hasNext() and next() as a {@link ScanException}.
+ *
+ * @param <T> the element type
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public abstract class PagingIterator<T> implements Iterator<T> {
+
+  /** Default number of pages fetched ahead of the page being consumed */
+  public static final int DEFAULT_MAX_PREFETCHED_PAGES = 1;
+
+  private static final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(
+      new DaemonThreadFactory("hector-paging-iterator"));
+
+  private final int pageSize;
+
+  /** Prefetched pages, null if not prefetching */
+  private final BlockingQueue<Page<T>> pages;
+  private Future<?> prefetcher;
+  /** Set by whichever comes first, the prefetch task starting or close() */
+  private final AtomicBoolean prefetchStarted = new AtomicBoolean(false);
+  private final CountDownLatch prefetchDone = new CountDownLatch(1);
+  private volatile boolean closed = false;
+
+  /** The last element of the previous page, null before the first page; used by the fetcher */
+  private T last;
+
+  private Iterator<T> current = Collections.<T>emptyList().iterator();
+  private boolean lastPageTaken = false;
+
+  /** The error of a prefetched page, thrown again by later calls since prefetching stopped */
+  private ScanException error;
+
+  /**
+   * @param pageSize number of elements fetched at once.
+   * @param maxPrefetchedPages number of pages fetched ahead of the page being consumed. 0 means
+   *    pages are fetched by the calling thread when needed.
+   */
+  protected PagingIterator(int pageSize, int maxPrefetchedPages) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+    }
+    if (maxPrefetchedPages < 0) {
+      throw new IllegalArgumentException("maxPrefetchedPages must not be negative: " +
+          maxPrefetchedPages);
+    }
+    this.pageSize = pageSize;
+    if (maxPrefetchedPages == 0) {
+      pages = null;
+    } else if (maxPrefetchedPages == 1) {
+      // The fetching thread holds the page it waits to hand over
+      pages = new SynchronousQueue<Page<T>>();
+    } else {
+      pages = new ArrayBlockingQueue<Page<T>>(maxPrefetchedPages - 1);
+    }
+  }
+
+  /**
+   * Fetches a page.
+   * @param last the last element of the previous page, which should be the first element of this
+   *    page. null for the first page.
+   * @param count max number of elements to fetch.
+   */
+  protected abstract List<T> fetch(T last, int count) throws Exception;
+
+  /**
+   * @return true if both elements are at the same position, i.e. have the same key or name.
+   */
+  protected abstract boolean isSamePosition(T a, T b);
+
+  @Override
+  public boolean hasNext() {
+    while (!current.hasNext()) {
+      if (error != null) {
+        throw error;
+      }
+      if (lastPageTaken || closed) {
+        return false;
+      }
+      Page<T> page = nextPage();
+      current = page.elements.iterator();
+      lastPageTaken = page.last;
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Stops prefetching, and waits for a fetch in progress, so the keyspace may be used by the
+   * caller once close returns. The iterator should be closed if not consumed to its end.
+   */
+  public void close() {
+    closed = true;
+    if (prefetcher == null || prefetchStarted.compareAndSet(false, true)) {
+      // The prefetch task never ran, and now it won't
+      return;
+    }
+    prefetcher.cancel(true);
+    boolean interrupted = false;
+    while (true) {
+      // Takes the pages a prefetcher may be blocked on handing over
+      while (pages.poll() != null) {
+      }
+      try {
+        if (prefetchDone.await(10, TimeUnit.MILLISECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Page<T> nextPage() {
+    if (pages == null) {
+      try {
+        return fetchPage();
+      } catch (Exception e) {
+        throw new ScanException("Unable to fetch the next page after " + last, e);
+      }
+    }
+    if (prefetcher == null) {
+      prefetcher = prefetchExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          prefetch();
+        }
+      });
+    }
+    Page<T> page;
+    try {
+      page = pages.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new ScanException("Interrupted while waiting for the next page", e);
+    }
+    if (page.error != null) {
+      error = new ScanException("Unable to fetch the next page", page.error);
+      throw error;
+    }
+    return page;
+  }
+
+  /**
+   * Fetches pages into the queue until the last page or until closed.
+   */
+  private void prefetch() {
+    if (!prefetchStarted.compareAndSet(false, true)) {
+      // Closed before it started
+      return;
+    }
+    try {
+      Page<T> page;
+      do {
+        try {
+          page = fetchPage();
+        } catch (Exception e) {
+          page = new Page<T>(e);
+        }
+        pages.put(page);
+      } while (!page.last && !closed);
+    } catch (InterruptedException e) {
+      // closed
+    } finally {
+      prefetchDone.countDown();
+    }
+  }
+
+  private Page<T> fetchPage() throws Exception {
+    // A page after the first starts with the last element of the previous page, so ask for one
+    // more
+    int count = last == null ? pageSize : pageSize + 1;
+    List<T> elements = fetch(last, count);
+    if (elements == null) {
+      elements = Collections.emptyList();
+    }
+    boolean lastPage = elements.size() < count;
+    if (!elements.isEmpty() && last != null && isSamePosition(last, elements.get(0))) {
+      elements = elements.subList(1, elements.size());
+    }
+    if (!elements.isEmpty()) {
+      last = elements.get(elements.size() - 1);
+    }
+    return new Page<T>(elements, lastPage || elements.isEmpty());
+  }
+
+  /**
+   * A page of elements, or the error fetching it.
+   */
+  private static class Page<T> {
+    final List<T> elements;
+    final boolean last;
+    final Exception error;
+
+    Page(List<T> elements, boolean last) {
+      this.elements = elements;
+      this.last = last;
+      this.error = null;
+    }
+
+    Page(Exception error) {
+      this.elements = Collections.emptyList();
+      this.last = true;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,622 @@
+package me.prettyprint.cassandra.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.KeySlice;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans all the rows of a column family, or of a set of key ranges, by scanning several key
+ * ranges (splits) concurrently, each by a {@link RowScanner}.
+ *
+ * By default the key space is split by the ring: one split per node, from the previous node's
+ * token to the node's own token, scanned by a client of the node which owns it. Since tokens are
+ * keys only with an order preserving partitioner (which range slices require anyway), the ring
+ * can't be split with other partitioners. Splits may also be given by the caller, e.g. with
+ * {@link #splitAt(List)}.
+ *
+ * Rows are delivered to a {@link RowCallback}, which is called concurrently by the scanning
+ * threads, or to a bounded queue, see {@link #scan(BlockingQueue)}. Either way a slow consumer
+ * slows the scan down rather than let rows pile up. The scan may also be throttled to
+ * maxRowsPerSecond, so that it doesn't starve the cluster's other clients.
+ *
+ * If a checkpoint file is set, each split is recorded in it once all its rows are delivered, and a
+ * scan started with the checkpoint file of a scan which didn't complete skips those splits. The
+ * file is deleted once the scan completes.
+ *
+ * <pre>
+ * ParallelScanner scanner = new ParallelScanner(pool, null, "Keyspace1", columnParent, predicate);
+ * scanner.setMaxRowsPerSecond(5000);
+ * scanner.scan(new ParallelScanner.RowCallback() {
+ *   public void onRow(KeySlice row) {
+ *     ...
+ *   }
+ * });
+ * </pre>
+ *
+ * Options must be set before scanning. A scanner runs one scan at a time.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class ParallelScanner {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelScanner.class);
+
+  public static final int DEFAULT_PAGE_SIZE = 100;
+  public static final int DEFAULT_MAX_THREADS = 8;
+
+  /**
+   * Put to the queue of {@link #scan(BlockingQueue)} after the last row. Compared by identity.
+   */
+  public static final KeySlice END = new KeySlice();
+
+  private static final AtomicInteger scannerNumber = new AtomicInteger(0);
+
+  private final CassandraClientPool pool;
+  private final String[] hosts;
+  private final String keyspaceName;
+  private final ColumnParent columnParent;
+  private final SlicePredicate predicate;
+
+  private int consistencyLevel = CassandraClient.DEFAULT_CONSISTENCY_LEVEL;
+  private int pageSize = DEFAULT_PAGE_SIZE;
+  private int maxThreads = DEFAULT_MAX_THREADS;
+  private int maxRowsPerSecond = 0;
+  private File checkpointFile;
+
+  /** The port of the client the ring was fetched by, to connect to the ring's hosts */
+  private volatile int port;
+
+  private final AtomicLong rowsScanned = new AtomicLong(0);
+  private final Set<Split> completedSplits =
+      Collections.newSetFromMap(new ConcurrentHashMap<Split, Boolean>());
+
+  /** The first error which failed the scan, null while it didn't fail */
+  private volatile Exception failure;
+
+  /** The time the next row may be scanned at, when throttled; guarded by this */
+  private long nextRowNanos;
+
+  /**
+   * @param hosts An array of "url:port" cassandra hosts to get the ring from, and to scan the
+   *    splits which have no host (or whose host is down) from.
+   *    If null then clients are borrowed from all the hosts the pool is configured with.
+   */
+  public ParallelScanner(CassandraClientPool pool, String[] hosts, String keyspaceName,
+      ColumnParent columnParent, SlicePredicate predicate) {
+    this.pool = pool;
+    this.hosts = hosts == null ? null : hosts.clone();
+    this.keyspaceName = keyspaceName;
+    this.columnParent = columnParent;
+    this.predicate = predicate;
+  }
+
+  /**
+   * Receives the scanned rows. Called concurrently by the scanning threads.
+   */
+  public interface RowCallback {
+    /**
+     * An exception fails the scan.
+     */
+    void onRow(KeySlice row) throws Exception;
+  }
+
+  /**
+   * Scans the splits of the ring, see {@link #getSplits()}.
+   */
+  public void scan(RowCallback callback) throws TException, InterruptedException {
+    scan(getSplits(), callback);
+  }
+
+  /**
+   * Scans the splits of the ring in the background, putting the rows to the queue, followed by
+   * {@link #END}. {@link #END} is put when the scan fails as well, and the future's get() then
+   * throws the error as the cause of an ExecutionException.
+   */
+  public Future<Void> scan(final BlockingQueue<KeySlice> queue) {
+    FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        try {
+          scan(new RowCallback() {
+            @Override
+            public void onRow(KeySlice row) throws InterruptedException {
+              queue.put(row);
+            }
+          });
+        } finally {
+          queue.put(END);
+        }
+        return null;
+      }
+    });
+    new DaemonThreadFactory("hector-parallel-scan-" + scannerNumber.incrementAndGet())
+        .newThread(task).start();
+    return task;
+  }
+
+  /**
+   * Scans the splits, up to maxThreads at once, returning once all the rows are delivered.
+   * Splits recorded in the checkpoint file are skipped.
+   *
+   * @throws TException if the scan failed, its cause is the error which failed it.
+   */
+  public void scan(List<Split> splits, final RowCallback callback)
+      throws TException, InterruptedException {
+    failure = null;
+    rowsScanned.set(0);
+    completedSplits.clear();
+    synchronized (this) {
+      nextRowNanos = 0;
+    }
+    readCheckpoint();
+    List<Split> pending = new ArrayList<Split>();
+    for (Split split : splits) {
+      if (!completedSplits.contains(split)) {
+        pending.add(split);
+      }
+    }
+    if (pending.size() < splits.size()) {
+      log.info("Resuming the scan from {}, skipping {} splits", checkpointFile,
+          splits.size() - pending.size());
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(maxThreads,
+        new DaemonThreadFactory("hector-parallel-scanner-" + scannerNumber.incrementAndGet()));
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (final Split split : interleaveHosts(pending)) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            if (failure != null) {
+              return null;
+            }
+            try {
+              scanSplit(split, callback);
+            } catch (Exception e) {
+              if (failure == null) {
+                failure = e;
+              }
+              log.error("Unable to scan " + split, e);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          // Can't happen, errors are caught by the task
+          throw new TException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (failure != null) {
+      throw new TException("Scan failed after " + completedSplits.size() + " of " +
+          splits.size() + " splits", failure);
+    }
+    if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+      log.warn("Unable to delete the checkpoint file {}", checkpointFile);
+    }
+  }
+
+  /**
+   * Orders the splits so that splits of different hosts follow each other, so the splits scanned
+   * at once are spread over the hosts.
+   */
+  private static List<Split> interleaveHosts(List<Split> splits) {
+    Map<String, LinkedList<Split>> byHost = new LinkedHashMap<String, LinkedList<Split>>();
+    for (Split split : splits) {
+      LinkedList<Split> hostSplits = byHost.get(split.getHost());
+      if (hostSplits == null) {
+        hostSplits = new LinkedList<Split>();
+        byHost.put(split.getHost(), hostSplits);
+      }
+      hostSplits.add(split);
+    }
+    List<Split> ret = new ArrayList<Split>(splits.size());
+    while (ret.size() < splits.size()) {
+      for (LinkedList<Split> hostSplits : byHost.values()) {
+        if (!hostSplits.isEmpty()) {
+          ret.add(hostSplits.removeFirst());
+        }
+      }
+    }
+    return ret;
+  }
+
+  private void scanSplit(Split split, RowCallback callback) throws Exception {
+    Keyspace ks = borrow(split.getHost());
+    RowScanner scanner = new RowScanner(ks, columnParent, predicate, split.getStart(),
+        split.getFinish(), pageSize, 0);
+    try {
+      boolean first = true;
+      while (failure == null && scanner.hasNext()) {
+        KeySlice row = scanner.next();
+        if (first && split.isStartExclusive() && row.getKey().equals(split.getStart())) {
+          // Belongs to the previous split
+          continue;
+        }
+        first = false;
+        throttle();
+        callback.onRow(row);
+        rowsScanned.incrementAndGet();
+      }
+    } catch (ScanException e) {
+      throw (Exception) e.getCause();
+    } finally {
+      scanner.close();
+      release(ks);
+    }
+    if (failure == null) {
+      splitDone(split);
+    }
+  }
+
+  /**
+   * Waits until the next row may be scanned, if the scan is throttled.
+   */
+  private void throttle() throws InterruptedException {
+    if (maxRowsPerSecond <= 0) {
+      return;
+    }
+    long wait;
+    synchronized (this) {
+      long now = System.nanoTime();
+      if (nextRowNanos < now) {
+        nextRowNanos = now;
+      }
+      wait = nextRowNanos - now;
+      nextRowNanos += TimeUnit.SECONDS.toNanos(1) / maxRowsPerSecond;
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /**
+   * Gets the keyspace of a client of the host, or of one of the scanner's hosts if host is null or
+   * down.
+   */
+  private Keyspace borrow(String host) throws Exception {
+    CassandraClient client = null;
+    if (host != null && port > 0) {
+      try {
+        client = pool.borrowClient(host, port);
+      } catch (Exception e) {
+        log.warn("Unable to borrow a client of {}, scanning from another host: {}", host,
+            e.getMessage());
+      }
+    }
+    if (client == null) {
+      client = hosts == null ? pool.borrowClient() : pool.borrowClient(hosts);
+    }
+    try {
+      return client.getKeyspace(keyspaceName, consistencyLevel,
+          CassandraClient.DEFAULT_FAILOVER_POLICY);
+    } catch (Exception e) {
+      pool.releaseClient(client);
+      throw e;
+    }
+  }
+
+  private void release(Keyspace ks) {
+    // The keyspace may have failed over to a different client
+    try {
+      pool.releaseClient(ks.getClient());
+    } catch (Exception e) {
+      log.error("Unable to release client " + ks.getClient(), e);
+    }
+  }
+
+  /**
+   * Splits the key space by the ring, one split per node, scanned from the node which owns it.
+   *
+   * @throws TException if the ring can't be fetched or the cluster's partitioner doesn't preserve
+   *    order.
+   */
+  public List<Split> getSplits() throws TException {
+    CassandraClient client;
+    try {
+      client = hosts == null ? pool.borrowClient() : pool.borrowClient(hosts);
+    } catch (TException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new TException("Unable to borrow a client to get the ring", e);
+    }
+    try {
+      IPartitioner<?> partitioner = client.getPartitioner();
+      if (!partitioner.preservesOrder()) {
+        throw new TException("The ring can't be split by keys with " +
+            partitioner.getClass().getName() + ", it doesn't preserve order");
+      }
+      port = client.getPort();
+      return getSplits(new TokenRing(partitioner, client.getTokenMap(false)));
+    } finally {
+      try {
+        pool.releaseClient(client);
+      } catch (Exception e) {
+        log.error("Unable to release client " + client, e);
+      }
+    }
+  }
+
+  /**
+   * A split per node: from the previous node's token (exclusive) to the node's token, and from the
+   * last node's token to the end of the ring, owned by the first node.
+   */
+  static List<Split> getSplits(TokenRing ring) {
+    List<Split> splits = new ArrayList<Split>();
+    String start = "";
+    String firstHost = null;
+    for (Map.Entry<Token<?>, String> entry : ring.getTokens().entrySet()) {
+      String token = ring.toString(entry.getKey());
+      if (firstHost == null) {
+        firstHost = entry.getValue();
+      }
+      splits.add(new Split(start, token, !start.isEmpty(), entry.getValue()));
+      start = token;
+    }
+    splits.add(new Split(start, "", !start.isEmpty(), firstHost));
+    return splits;
+  }
+
+  /**
+   * Splits the key space at the keys: from the beginning to the first key, from each key
+   * (exclusive) to the next, and from the last key to the end.
+   *
+   * @param keys Sorted keys.
+   */
+  public static List<Split> splitAt(List<String> keys) {
+    List<Split> splits = new ArrayList<Split>(keys.size() + 1);
+    String start = "";
+    for (String key : keys) {
+      splits.add(new Split(start, key, !start.isEmpty(), null));
+      start = key;
+    }
+    splits.add(new Split(start, "", !start.isEmpty(), null));
+    return splits;
+  }
+
+  private void readCheckpoint() throws TException {
+    if (checkpointFile == null || !checkpointFile.exists()) {
+      return;
+    }
+    try {
+      BufferedReader reader = new BufferedReader(new FileReader(checkpointFile));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          Split split = Split.parse(line);
+          // A line cut by a crash is ignored
+          if (split != null) {
+            completedSplits.add(split);
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      throw new TException("Unable to read the checkpoint file " + checkpointFile, e);
+    }
+  }
+
+  private void splitDone(Split split) {
+    completedSplits.add(split);
+    log.debug("Scanned {}", split);
+    if (checkpointFile == null) {
+      return;
+    }
+    synchronized (completedSplits) {
+      try {
+        Writer writer = new FileWriter(checkpointFile, true);
+        try {
+          writer.write(split.format());
+          writer.write('\n');
+        } finally {
+          writer.close();
+        }
+      } catch (IOException e) {
+        log.error("Unable to write the checkpoint file " + checkpointFile, e);
+      }
+    }
+  }
+
+  /**
+   * @return Number of rows delivered by the current or last scan.
+   */
+  public long getRowsScanned() {
+    return rowsScanned.get();
+  }
+
+  /**
+   * @return Number of splits of the current or last scan which are completely delivered,
+   *    including splits skipped since the checkpoint file had them.
+   */
+  public int getNumCompletedSplits() {
+    return completedSplits.size();
+  }
+
+  public int getConsistencyLevel() {
+    return consistencyLevel;
+  }
+
+  public void setConsistencyLevel(int consistencyLevel) {
+    this.consistencyLevel = consistencyLevel;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Number of rows fetched at once by each split's scanner.
+   */
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * Max number of splits scanned at once, which is also the number of clients in use.
+   */
+  public void setMaxThreads(int maxThreads) {
+    this.maxThreads = maxThreads;
+  }
+
+  public int getMaxRowsPerSecond() {
+    return maxRowsPerSecond;
+  }
+
+  /**
+   * Max rate of rows scanned by all the splits together, 0 (the default) for no limit.
+   */
+  public void setMaxRowsPerSecond(int maxRowsPerSecond) {
+    this.maxRowsPerSecond = maxRowsPerSecond;
+  }
+
+  public File getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * The file the completed splits are recorded in, and skipped by, null (the default) for none.
+   */
+  public void setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
+  /**
+   * A key range: from start to finish, either of which may be empty for the beginning or the end
+   * of the ring, and the host to scan it from, null for any host.
+   */
+  public static class Split {
+
+    private final String start;
+    private final String finish;
+    private final boolean startExclusive;
+    private final String host;
+
+    /**
+     * @param startExclusive Whether the start key belongs to the previous split, as when
+     *    splitting at keys.
+     * @param host The url of the host to scan from, null for any of the scanner's hosts.
+     */
+    public Split(String start, String finish, boolean startExclusive, String host) {
+      this.start = start;
+      this.finish = finish;
+      this.startExclusive = startExclusive;
+      this.host = host;
+    }
+
+    public String getStart() {
+      return start;
+    }
+
+    public String getFinish() {
+      return finish;
+    }
+
+    public boolean isStartExclusive() {
+      return startExclusive;
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    /**
+     * The split as a line of the checkpoint file. The host isn't recorded, a split is the same
+     * split whichever host scans it.
+     */
+    String format() {
+      return encode(start) + " " + encode(finish) + " " + startExclusive;
+    }
+
+    static Split parse(String line) {
+      String[] parts = line.split(" ");
+      if (parts.length != 3) {
+        return null;
+      }
+      return new Split(decode(parts[0]), decode(parts[1]), Boolean.parseBoolean(parts[2]), null);
+    }
+
+    private static String encode(String key) {
+      try {
+        return URLEncoder.encode(key, "utf-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private static String decode(String key) {
+      try {
+        return URLDecoder.decode(key, "utf-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Split)) {
+        return false;
+      }
+      Split other = (Split) obj;
+      return start.equals(other.start) && finish.equals(other.finish) &&
+          startExclusive == other.startExclusive;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * start.hashCode() + finish.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "Split<" + (startExclusive ? "(" : "[") + start + ", " + finish + "]" +
+          (host == null ? "" : "@" + host) + ">";
+    }
+  }
+}
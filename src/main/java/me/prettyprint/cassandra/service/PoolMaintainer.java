@@ -0,0 +1,132 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps at least {@link CassandraHost#getMinIdle()} idle clients in the pools of hosts which ask
+ * for it, so that borrows find a connected client.
+ *
+ * Every {@link #MAINTENANCE_INTERVAL_MILLIS} the maintainer checks the pools and opens the
+ * missing clients in parallel, in the background. Pools of hosts with
+ * {@link CassandraHost#isPrewarmOnStart()} are topped up as soon as they are added. Hosts which
+ * are quarantined by their circuit breaker are skipped.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+/*package*/ class PoolMaintainer {
+
+  private static final Logger log = LoggerFactory.getLogger(PoolMaintainer.class);
+
+  static final long MAINTENANCE_INTERVAL_MILLIS = 1000;
+
+  private final CassandraClientPoolImpl pools;
+
+  /** The maintained pools, by host */
+  private final ConcurrentMap<CassandraHost, MaintainedPool> maintained =
+      new ConcurrentHashMap<CassandraHost, MaintainedPool>();
+
+  /** Runs the periodic checks */
+  private final ScheduledExecutorService scheduler;
+
+  /** Opens clients */
+  private final ExecutorService connector;
+
+  public PoolMaintainer(CassandraClientPoolImpl pools) {
+    this.pools = pools;
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("hector-pool-maintainer"));
+    connector = Executors.newCachedThreadPool(new DaemonThreadFactory("hector-pool-connector"));
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        maintain();
+      }
+    }, MAINTENANCE_INTERVAL_MILLIS, MAINTENANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops maintaining the pools.
+   */
+  public void shutdown() {
+    scheduler.shutdownNow();
+    connector.shutdown();
+  }
+
+  /**
+   * Starts maintaining the pool of the host, if the host has a minIdle.
+   */
+  public void add(CassandraHost cassandraHost, CassandraClientPoolByHost pool) {
+    int minIdle = Math.min(cassandraHost.getMinIdle(), cassandraHost.getMaxIdle());
+    if (minIdle <= 0) {
+      return;
+    }
+    MaintainedPool m = new MaintainedPool(cassandraHost, pool, minIdle);
+    maintained.put(cassandraHost, m);
+    if (cassandraHost.isPrewarmOnStart()) {
+      log.debug("Prewarming {} clients to {}", minIdle, cassandraHost);
+      topUp(m);
+    }
+  }
+
+  private void maintain() {
+    for (MaintainedPool m : maintained.values()) {
+      HostCircuitBreaker breaker = pools.getCircuitBreaker(m.cassandraHost);
+      if (breaker == null || breaker.allowRequest()) {
+        topUp(m);
+      }
+    }
+  }
+
+  /**
+   * Opens the missing idle clients of the pool, not counting those which are already being
+   * opened.
+   */
+  private void topUp(final MaintainedPool m) {
+    int missing = m.minIdle - m.pool.getNumIdle() - m.pending.get();
+    for (int i = 0; i < missing; ++i) {
+      m.pending.incrementAndGet();
+      connector.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            m.pool.addIdleClient();
+          } catch (IllegalStateException e) {
+            // The pool is closed
+            maintained.remove(m.cassandraHost);
+          } catch (Exception e) {
+            log.debug("Unable to open an idle client to {}: {}", m.cassandraHost,
+                e.getMessage());
+          } finally {
+            m.pending.decrementAndGet();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * A pool and the number of clients currently being opened for it.
+   */
+  private static class MaintainedPool {
+    final CassandraHost cassandraHost;
+    final CassandraClientPoolByHost pool;
+    final int minIdle;
+    final AtomicInteger pending = new AtomicInteger(0);
+
+    MaintainedPool(CassandraHost cassandraHost, CassandraClientPoolByHost pool, int minIdle) {
+      this.cassandraHost = cassandraHost;
+      this.pool = pool;
+      this.minIdle = minIdle;
+    }
+  }
+}
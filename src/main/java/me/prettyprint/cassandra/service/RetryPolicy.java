@@ -0,0 +1,223 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.service.TimedOutException;
+import org.apache.cassandra.service.UnavailableException;
+
+/**
+ * Defines how keyspaces retry operations which failed on a host, on top of their
+ * {@link CassandraClient.FailoverPolicy}, which bounds the number of retries.
+ *
+ * Without a policy, a failed operation is retried on the next host at once. With one:
+ * <ul>
+ * <li>A retry after a TimedOutException or an UnavailableException waits a random time between 0
+ * and baseDelayMillis * 2^n, capped at maxDelayMillis, where n is the number of retries of the
+ * operation so far (exponential backoff with full jitter). A TTransportException is retried at
+ * once, since the host is more likely down than overloaded.</li>
+ * <li>Retries may be disabled for TimedOutExceptions or for UnavailableExceptions. Timeouts
+ * usually mean the replicas are overloaded, and unavailability that too few replicas are alive,
+ * which another coordinator doesn't fix.</li>
+ * <li>Retries may be limited by a retry budget: a token bucket into which each operation puts
+ * budgetRatio tokens, up to maxBudgetTokens, and from which each retry takes one. E.g. with a
+ * ratio of 0.1 at most about 10% of the operations are retried once the bucket is empty, so
+ * during a cluster wide overload clients don't multiply their load by the number of hosts.</li>
+ * </ul>
+ * Retries which aren't allowed are suppressed: the operation fails with the error at once. They
+ * are counted by {@link #getNumSuppressedRetries()} and by the monitor.
+ *
+ * The budget is the policy's, so a policy set on a single pool (see
+ * {@link CassandraClientPool#setRetryPolicy}) is a budget per pool.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class RetryPolicy {
+
+  public static final long DEFAULT_BASE_DELAY_MILLIS = 10;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+  /** Tokens are kept in thousandths */
+  private static final long TOKEN = 1000;
+
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+
+  /** The policy's own, so policies of different pools don't contend on a shared seed */
+  private final Random random = new Random();
+
+  private volatile boolean retryTimedOut = true;
+  private volatile boolean retryUnavailable = true;
+
+  /** Thousandths of a token put to the bucket by each operation, 0 without a budget */
+  private volatile long budgetDeposit = 0;
+  private volatile long maxBudget = 0;
+  private final AtomicLong budget = new AtomicLong(0);
+
+  private final AtomicLong retries = new AtomicLong(0);
+  private final AtomicLong suppressedRetries = new AtomicLong(0);
+
+  private RetryPolicy(long baseDelayMillis, long maxDelayMillis) {
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Retries after a TimedOutException or an UnavailableException wait up to baseDelayMillis *
+   * 2^n, and no more than maxDelayMillis.
+   */
+  public static RetryPolicy exponentialBackoff(long baseDelayMillis, long maxDelayMillis) {
+    if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+      throw new IllegalArgumentException("Invalid delays: " + baseDelayMillis + ", " +
+          maxDelayMillis);
+    }
+    return new RetryPolicy(baseDelayMillis, maxDelayMillis);
+  }
+
+  /**
+   * Exponential backoff from {@link #DEFAULT_BASE_DELAY_MILLIS} to
+   * {@link #DEFAULT_MAX_DELAY_MILLIS}.
+   */
+  public static RetryPolicy exponentialBackoff() {
+    return exponentialBackoff(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  /**
+   * Retries at once, e.g. for a policy which only limits the retries by a budget or by the error.
+   */
+  public static RetryPolicy noBackoff() {
+    return new RetryPolicy(0, 0);
+  }
+
+  /**
+   * Called once per operation, puts its share of tokens to the budget.
+   */
+  public void recordOperation() {
+    long deposit = budgetDeposit;
+    if (deposit == 0) {
+      return;
+    }
+    long max = maxBudget;
+    while (true) {
+      long current = budget.get();
+      if (current >= max || budget.compareAndSet(current, Math.min(max, current + deposit))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Decides whether an operation which failed with the error may be retried, taking a token from
+   * the budget if it may. Counts the suppressed retries.
+   */
+  public boolean allowRetry(Exception error) {
+    if ((error instanceof TimedOutException && !retryTimedOut) ||
+        (error instanceof UnavailableException && !retryUnavailable) || !takeToken()) {
+      suppressedRetries.incrementAndGet();
+      return false;
+    }
+    retries.incrementAndGet();
+    return true;
+  }
+
+  private boolean takeToken() {
+    if (budgetDeposit == 0) {
+      return true;
+    }
+    while (true) {
+      long current = budget.get();
+      if (current < TOKEN) {
+        return false;
+      }
+      if (budget.compareAndSet(current, current - TOKEN)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param attempt the number of retries of the operation so far, 0 for its first retry.
+   * @return The time to wait before retrying the operation after the error.
+   */
+  public long getDelayMillis(Exception error, int attempt) {
+    if (baseDelayMillis == 0 ||
+        !(error instanceof TimedOutException || error instanceof UnavailableException)) {
+      return 0;
+    }
+    long cap = baseDelayMillis;
+    for (int i = 0; i < attempt && cap < maxDelayMillis; ++i) {
+      cap *= 2;
+    }
+    cap = Math.min(cap, maxDelayMillis);
+    return (long) (random.nextDouble() * (cap + 1));
+  }
+
+  /**
+   * Limits retries to about ratio of the operations, once the budget's initial maxTokens are
+   * spent.
+   *
+   * @param ratio Tokens put to the budget by each operation, e.g. 0.1. 0 removes the budget.
+   * @param maxTokens The max number of tokens, which is also the number of retries allowed in a
+   *    burst. The budget starts full.
+   */
+  public void setRetryBudget(double ratio, int maxTokens) {
+    if (ratio < 0 || maxTokens < 1) {
+      throw new IllegalArgumentException("Invalid budget: " + ratio + ", " + maxTokens);
+    }
+    maxBudget = maxTokens * TOKEN;
+    budget.set(maxBudget);
+    // Rounded up, so a ratio below a thousandth is still a budget rather than none
+    budgetDeposit = ratio == 0 ? 0 : Math.max(1, (long) Math.ceil(ratio * TOKEN));
+  }
+
+  /**
+   * @return The number of tokens in the budget.
+   */
+  public double getRetryBudget() {
+    return (double) budget.get() / TOKEN;
+  }
+
+  public boolean isRetryTimedOut() {
+    return retryTimedOut;
+  }
+
+  /**
+   * Whether to retry operations which failed with a TimedOutException, true by default.
+   */
+  public void setRetryTimedOut(boolean retryTimedOut) {
+    this.retryTimedOut = retryTimedOut;
+  }
+
+  public boolean isRetryUnavailable() {
+    return retryUnavailable;
+  }
+
+  /**
+   * Whether to retry operations which failed with an UnavailableException, true by default.
+   */
+  public void setRetryUnavailable(boolean retryUnavailable) {
+    this.retryUnavailable = retryUnavailable;
+  }
+
+  /**
+   * @return Number of retries allowed by the policy.
+   */
+  public long getNumRetries() {
+    return retries.get();
+  }
+
+  /**
+   * @return Number of retries suppressed by the policy, either by the budget or by the error.
+   */
+  public long getNumSuppressedRetries() {
+    return suppressedRetries.get();
+  }
+
+  @Override
+  public String toString() {
+    return "RetryPolicy<" + baseDelayMillis + "-" + maxDelayMillis + "ms" +
+        (budgetDeposit == 0 ? "" : ", budget " + budgetDeposit / (double) TOKEN + "/" +
+        maxBudget / TOKEN) + ">";
+  }
+}
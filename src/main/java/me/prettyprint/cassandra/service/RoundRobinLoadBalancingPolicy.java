@@ -0,0 +1,31 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the hosts in turns. Selecting a host is a single atomic increment.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class RoundRobinLoadBalancingPolicy implements LoadBalancingPolicy {
+
+  private final AtomicInteger counter = new AtomicInteger(0);
+
+  @Override
+  public String selectHost(List<String> hosts, CassandraClientPool pool) {
+    int index = (counter.getAndIncrement() & Integer.MAX_VALUE) % hosts.size();
+    return hosts.get(index);
+  }
+
+  @Override
+  public void recordLatency(String host, long micros) {
+    // nada
+  }
+
+  @Override
+  public String toString() {
+    return "RoundRobinLoadBalancingPolicy";
+  }
+}
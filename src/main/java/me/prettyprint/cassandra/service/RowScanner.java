@@ -0,0 +1,74 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.List;
+
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.KeySlice;
+import org.apache.cassandra.service.SlicePredicate;
+
+/**
+ * Iterates over the rows of a key range, in ring order, fetching them page by page with
+ * {@link Keyspace#getRangeSlices}. Each page starts at the last key of the previous page.
+ * See {@link PagingIterator} for prefetching and error handling.
+ *
+ * <pre>
+ * RowScanner scanner = new RowScanner(keyspace, columnParent, predicate, "", "", 100);
+ * try {
+ *   while (scanner.hasNext()) {
+ *     KeySlice row = scanner.next();
+ *     ...
+ *   }
+ * } finally {
+ *   scanner.close();
+ * }
+ * </pre>
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class RowScanner extends PagingIterator<KeySlice> {
+
+  private final KeyspaceOperations keyspace;
+  private final ColumnParent columnParent;
+  private final SlicePredicate predicate;
+  private final String start;
+  private final String finish;
+
+  /**
+   * Creates a scanner which prefetches {@link #DEFAULT_MAX_PREFETCHED_PAGES} page.
+   * @param start the first key. Empty for the beginning of the ring.
+   * @param finish the last key. Empty for the end of the ring.
+   * @param pageSize number of rows fetched at once.
+   */
+  public RowScanner(KeyspaceOperations keyspace, ColumnParent columnParent,
+      SlicePredicate predicate, String start, String finish, int pageSize) {
+    this(keyspace, columnParent, predicate, start, finish, pageSize,
+        DEFAULT_MAX_PREFETCHED_PAGES);
+  }
+
+  /**
+   * @param maxPrefetchedPages number of pages fetched ahead of the page being consumed. 0 means
+   *    pages are fetched by the calling thread when needed.
+   */
+  public RowScanner(KeyspaceOperations keyspace, ColumnParent columnParent,
+      SlicePredicate predicate, String start, String finish, int pageSize,
+      int maxPrefetchedPages) {
+    super(pageSize, maxPrefetchedPages);
+    this.keyspace = keyspace;
+    this.columnParent = columnParent;
+    this.predicate = predicate;
+    this.start = start;
+    this.finish = finish;
+  }
+
+  @Override
+  protected List<KeySlice> fetch(KeySlice last, int count) throws Exception {
+    return keyspace.getRangeSlices(columnParent, predicate, last == null ? start : last.getKey(),
+        finish, count);
+  }
+
+  @Override
+  protected boolean isSamePosition(KeySlice a, KeySlice b) {
+    return a.getKey().equals(b.getKey());
+  }
+}
@@ -0,0 +1,18 @@
+package me.prettyprint.cassandra.service;
+
+/**
+ * Indicates that a scan, such as a {@link RowScanner}, failed to fetch its next page.
+ * Thrown from the scan's iterator methods, which cannot throw checked exceptions; the cause is
+ * the original error, e.g. a TimedOutException.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class ScanException extends RuntimeException {
+
+  private static final long serialVersionUID = 3151244381931834436L;
+
+  public ScanException(String msg, Throwable cause) {
+    super(msg, cause);
+  }
+}
@@ -0,0 +1,409 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.List;
+import java.util.Map;
+
+import me.prettyprint.cassandra.service.CassandraClient.FailoverPolicy;
+import me.prettyprint.cassandra.utils.Serializer;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.InvalidRequestException;
+import org.apache.cassandra.service.KeySlice;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SuperColumn;
+import org.apache.cassandra.service.TimedOutException;
+import org.apache.cassandra.service.UnavailableException;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread safe keyspace, which may be created once and shared by the whole application.
+ *
+ * Unlike the keyspace obtained from a borrowed client, a shared keyspace doesn't hold a client.
+ * Each operation borrows a client from the pool, performs the operation on the client's
+ * {@link Keyspace} (with the keyspace's usual failover behavior) and releases the client right
+ * after. So pooled connections are only held during the calls to cassandra and not for the
+ * whole of the caller's work, and there's no need to borrow and release clients around the calls:
+ *
+ * <pre>
+ * KeyspaceOperations ks = new SharedKeyspace(pool, new String[] {"cas1:9160", "cas2:9160"},
+ *     "Keyspace1");
+ * // later, from any thread
+ * ks.insert("key", columnPath, value);
+ * Column c = ks.getColumn("key", columnPath);
+ * </pre>
+ *
+ * Errors borrowing a client are thrown as a TException. Since no client is bound to the
+ * keyspace, it isn't a {@link Keyspace}, and it isn't released to the pool.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class SharedKeyspace implements KeyspaceOperations {
+
+  private static final Logger log = LoggerFactory.getLogger(SharedKeyspace.class);
+
+  private final CassandraClientPool pool;
+  private final String[] hosts;
+  private final String keyspaceName;
+  private final int consistencyLevel;
+  private final FailoverPolicy failoverPolicy;
+
+  /**
+   * Creates a shared keyspace with the default consistency level and failover policy.
+   *
+   * @param hosts An array of "url:port" cassandra hosts to load balance the operations between.
+   *    If null then clients are borrowed from all the hosts the pool is configured with.
+   */
+  public SharedKeyspace(CassandraClientPool pool, String[] hosts, String keyspaceName) {
+    this(pool, hosts, keyspaceName, CassandraClient.DEFAULT_CONSISTENCY_LEVEL,
+        CassandraClient.DEFAULT_FAILOVER_POLICY);
+  }
+
+  /**
+   * @param hosts An array of "url:port" cassandra hosts to load balance the operations between.
+   *    If null then clients are borrowed from all the hosts the pool is configured with.
+   */
+  public SharedKeyspace(CassandraClientPool pool, String[] hosts, String keyspaceName,
+      int consistencyLevel, FailoverPolicy failoverPolicy) {
+    this.pool = pool;
+    this.hosts = hosts == null ? null : hosts.clone();
+    this.keyspaceName = keyspaceName;
+    this.consistencyLevel = consistencyLevel;
+    this.failoverPolicy = failoverPolicy;
+  }
+
+  /**
+   * Borrows a client and gets its keyspace.
+   * The keyspace has to be released by {@link #release(Keyspace)}.
+   */
+  private Keyspace borrow() throws TException {
+    CassandraClient client;
+    try {
+      client = hosts == null ? pool.borrowClient() : pool.borrowClient(hosts);
+    } catch (TException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new TException("Unable to borrow a client for keyspace " + keyspaceName, e);
+    }
+    try {
+      return client.getKeyspace(keyspaceName, consistencyLevel, failoverPolicy);
+    } catch (NotFoundException e) {
+      releaseClient(client);
+      throw new TException("Unable to get keyspace " + keyspaceName, e);
+    } catch (TException e) {
+      releaseClient(client);
+      throw e;
+    } catch (RuntimeException e) {
+      releaseClient(client);
+      throw e;
+    }
+  }
+
+  private void release(Keyspace ks) {
+    // The keyspace may have failed over to a different client
+    releaseClient(ks.getClient());
+  }
+
+  private void releaseClient(CassandraClient client) {
+    try {
+      pool.releaseClient(client);
+    } catch (Exception e) {
+      log.error("Unable to release client " + client, e);
+    }
+  }
+
+  @Override
+  public Column getColumn(String key, ColumnPath columnPath) throws InvalidRequestException,
+      NotFoundException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getColumn(key, columnPath);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Column getColumnOrNull(String key, ColumnPath columnPath)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getColumnOrNull(key, columnPath);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public <V> V getColumn(String key, ColumnPath columnPath, Serializer<V> valueSerializer)
+      throws InvalidRequestException, NotFoundException, UnavailableException, TException,
+      TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getColumn(key, columnPath, valueSerializer);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public SuperColumn getSuperColumn(String key, ColumnPath columnPath)
+      throws InvalidRequestException, NotFoundException, UnavailableException, TException,
+      TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getSuperColumn(key, columnPath);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public SuperColumn getSuperColumn(String key, ColumnPath columnPath, boolean reversed, int size)
+      throws InvalidRequestException, NotFoundException, UnavailableException, TException,
+      TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getSuperColumn(key, columnPath, reversed, size);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public List<Column> getSlice(String key, ColumnParent columnParent, SlicePredicate predicate)
+      throws InvalidRequestException, NotFoundException, UnavailableException, TException,
+      TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getSlice(key, columnParent, predicate);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public <N, V> Map<N, V> getSlice(String key, ColumnParent columnParent,
+      SlicePredicate predicate, Serializer<N> nameSerializer, Serializer<V> valueSerializer)
+      throws InvalidRequestException, NotFoundException, UnavailableException, TException,
+      TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getSlice(key, columnParent, predicate, nameSerializer, valueSerializer);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public List<SuperColumn> getSuperSlice(String key, ColumnParent columnParent,
+      SlicePredicate predicate) throws InvalidRequestException, NotFoundException,
+      UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getSuperSlice(key, columnParent, predicate);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, Column> multigetColumn(List<String> keys, ColumnPath columnPath)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.multigetColumn(keys, columnPath);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, SuperColumn> multigetSuperColumn(List<String> keys, ColumnPath columnPath)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.multigetSuperColumn(keys, columnPath);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, SuperColumn> multigetSuperColumn(List<String> keys, ColumnPath columnPath,
+      boolean reversed, int size) throws InvalidRequestException, UnavailableException, TException,
+      TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.multigetSuperColumn(keys, columnPath, reversed, size);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, List<Column>> multigetSlice(List<String> keys, ColumnParent columnParent,
+      SlicePredicate predicate) throws InvalidRequestException, UnavailableException, TException,
+      TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.multigetSlice(keys, columnParent, predicate);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public <N, V> Map<String, Map<N, V>> multigetSlice(List<String> keys,
+      ColumnParent columnParent, SlicePredicate predicate, Serializer<N> nameSerializer,
+      Serializer<V> valueSerializer)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.multigetSlice(keys, columnParent, predicate, nameSerializer, valueSerializer);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, List<SuperColumn>> multigetSuperSlice(List<String> keys,
+      ColumnParent columnParent, SlicePredicate predicate) throws InvalidRequestException,
+      UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.multigetSuperSlice(keys, columnParent, predicate);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public void insert(String key, ColumnPath columnPath, byte[] value)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      ks.insert(key, columnPath, value);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public <V> void insert(String key, ColumnPath columnPath, V value,
+      Serializer<V> valueSerializer)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      ks.insert(key, columnPath, value, valueSerializer);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public void batchInsert(String key, Map<String, List<Column>> cfmap,
+      Map<String, List<SuperColumn>> superColumnMap) throws InvalidRequestException,
+      UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      ks.batchInsert(key, cfmap, superColumnMap);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public void remove(String key, ColumnPath columnPath) throws InvalidRequestException,
+      UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      ks.remove(key, columnPath);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, Map<String, String>> describeKeyspace() throws NotFoundException,
+      TException {
+    Keyspace ks = borrow();
+    try {
+      return ks.describeKeyspace();
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public int getCount(String key, ColumnParent columnParent) throws InvalidRequestException,
+      UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getCount(key, columnParent);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, List<Column>> getRangeSlice(ColumnParent columnParent,
+      SlicePredicate predicate, String start, String finish, int count)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getRangeSlice(columnParent, predicate, start, finish, count);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public Map<String, List<SuperColumn>> getSuperRangeSlice(ColumnParent columnParent,
+      SlicePredicate predicate, String start, String finish, int count)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getSuperRangeSlice(columnParent, predicate, start, finish, count);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public List<KeySlice> getRangeSlices(ColumnParent columnParent, SlicePredicate predicate,
+      String start, String finish, int count)
+      throws InvalidRequestException, UnavailableException, TException, TimedOutException {
+    Keyspace ks = borrow();
+    try {
+      return ks.getRangeSlices(columnParent, predicate, start, finish, count);
+    } finally {
+      release(ks);
+    }
+  }
+
+  @Override
+  public int getConsistencyLevel() {
+    return consistencyLevel;
+  }
+
+  @Override
+  public String getName() {
+    return keyspaceName;
+  }
+
+  @Override
+  public FailoverPolicy getFailoverPolicy() {
+    return failoverPolicy;
+  }
+
+  @Override
+  public String toString() {
+    return "SharedKeyspace<" + keyspaceName + ">";
+  }
+}
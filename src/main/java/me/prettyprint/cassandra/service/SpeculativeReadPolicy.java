@@ -0,0 +1,152 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Defines when a read should be speculatively sent to another host (hedged).
+ *
+ * When a keyspace performs a read and no answer arrives within {@link #getDelayMillis()}, the
+ * same read is sent to the next known host and the first successful answer is used.
+ * This bounds the latency added by a single slow node at the cost of some extra reads.
+ *
+ * The delay is either fixed or a percentile of recently observed read latencies, e.g. with the
+ * 99th percentile about 1% of the reads are hedged. A percentile based policy does not hedge
+ * until it has observed enough reads to compute the percentile.
+ *
+ * The policy also owns the threads used to run the reads while the calling thread waits. They are
+ * bounded by {@link #setMaxThreads(int)} and exit when idle; when they are all busy, reads are
+ * performed by the calling thread without hedging. {@link #shutdown()}, or closing the pool the
+ * policy is set on, stops them for good.
+ * Set a policy on a pool with {@link CassandraClientPool#setSpeculativeReadPolicy}.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class SpeculativeReadPolicy {
+
+  /** Number of latency samples kept for percentile computation */
+  private static final int NUM_SAMPLES = 1024;
+
+  /** The percentile is recomputed every so many samples */
+  private static final int RECOMPUTE_INTERVAL = 128;
+
+  /** Delay value indicating that reads shouldn't be hedged (yet) */
+  static final long NO_DELAY_YET = Long.MAX_VALUE;
+
+  public static final int DEFAULT_MAX_THREADS = 64;
+
+  private final long fixedDelayMillis;
+  private final double percentile;
+  private final long minDelayMillis;
+
+  private final AtomicLongArray samples;
+  private final AtomicLong numSamples;
+  private volatile long percentileDelayMillis = NO_DELAY_YET;
+
+  private final ThreadPoolExecutor executor;
+
+  private SpeculativeReadPolicy(long fixedDelayMillis, double percentile, long minDelayMillis) {
+    this.fixedDelayMillis = fixedDelayMillis;
+    this.percentile = percentile;
+    this.minDelayMillis = minDelayMillis;
+    samples = new AtomicLongArray(NUM_SAMPLES);
+    numSamples = new AtomicLong(0);
+    executor = new ThreadPoolExecutor(0, DEFAULT_MAX_THREADS, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), new DaemonThreadFactory("hector-speculative-read"));
+  }
+
+  /**
+   * Hedge a read if it takes longer than delayMillis.
+   */
+  public static SpeculativeReadPolicy fixedDelay(long delayMillis) {
+    if (delayMillis < 0) {
+      throw new IllegalArgumentException("delayMillis must not be negative: " + delayMillis);
+    }
+    return new SpeculativeReadPolicy(delayMillis, 0, 0);
+  }
+
+  /**
+   * Hedge a read if it takes longer than the given percentile of recent read latencies, but not
+   * sooner than minDelayMillis.
+   *
+   * @param percentile between 0 and 100, exclusive, e.g. 99.0
+   */
+  public static SpeculativeReadPolicy percentileDelay(double percentile, long minDelayMillis) {
+    if (percentile <= 0 || percentile >= 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+    }
+    return new SpeculativeReadPolicy(-1, percentile, minDelayMillis);
+  }
+
+  /**
+   * @return the time to wait for a read before hedging it, {@link #NO_DELAY_YET} if reads
+   *    shouldn't be hedged yet.
+   */
+  public long getDelayMillis() {
+    return fixedDelayMillis >= 0 ? fixedDelayMillis : percentileDelayMillis;
+  }
+
+  /**
+   * Records the latency of a completed read.
+   */
+  public void recordLatency(long millis) {
+    if (fixedDelayMillis >= 0) {
+      return;
+    }
+    // A long, so the count doesn't wrap in a long running process
+    long n = numSamples.getAndIncrement();
+    samples.set((int) (n % NUM_SAMPLES), millis);
+    if ((n + 1) % RECOMPUTE_INTERVAL == 0) {
+      recomputeDelay((int) Math.min(n + 1, NUM_SAMPLES));
+    }
+  }
+
+  private void recomputeDelay(int count) {
+    long[] sorted = new long[count];
+    for (int i = 0; i < count; ++i) {
+      sorted[i] = samples.get(i);
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    percentileDelayMillis = Math.max(minDelayMillis, sorted[Math.max(0, index)]);
+  }
+
+  ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Max number of concurrent reads, of both the primary and the hedged reads.
+   * {@link #DEFAULT_MAX_THREADS} by default.
+   */
+  public void setMaxThreads(int maxThreads) {
+    if (maxThreads < 1) {
+      throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+    }
+    executor.setMaximumPoolSize(maxThreads);
+  }
+
+  public int getMaxThreads() {
+    return executor.getMaximumPoolSize();
+  }
+
+  /**
+   * Stops the policy's threads once their reads complete. Reads using the policy afterwards are
+   * not hedged.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return fixedDelayMillis >= 0 ? "SpeculativeReadPolicy<fixed " + fixedDelayMillis + "ms>" :
+        "SpeculativeReadPolicy<p" + percentile + ", min " + minDelayMillis + "ms>";
+  }
+}
@@ -0,0 +1,68 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.apache.cassandra.service.SuperColumn;
+
+/**
+ * Iterates over the super columns of a single, possibly very wide, row, fetching them page by
+ * page with {@link Keyspace#getSuperSlice}. Each page starts at the name of the last super column
+ * of the previous page, so memory use doesn't depend on the width of the row.
+ * See {@link PagingIterator} for prefetching and error handling.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class SuperColumnScanner extends PagingIterator<SuperColumn> {
+
+  private final KeyspaceOperations keyspace;
+  private final String key;
+  private final ColumnParent columnParent;
+  private final byte[] start;
+  private final byte[] finish;
+  private final boolean reversed;
+
+  /**
+   * Creates a scanner over all the super columns of the row, in the column family's order,
+   * which doesn't prefetch.
+   */
+  public SuperColumnScanner(KeyspaceOperations keyspace, String key, ColumnParent columnParent,
+      int pageSize) {
+    this(keyspace, key, columnParent, new byte[0], new byte[0], false, pageSize, 0);
+  }
+
+  /**
+   * @param start the first super column name. Empty for the first super column of the row.
+   * @param finish the last super column name. Empty for the last super column of the row.
+   * @param reversed iterate in reversed order, from start down to finish.
+   * @param pageSize number of super columns fetched at once.
+   * @param maxPrefetchedPages number of pages fetched ahead of the page being consumed. 0 means
+   *    pages are fetched by the calling thread when needed.
+   */
+  public SuperColumnScanner(KeyspaceOperations keyspace, String key, ColumnParent columnParent,
+      byte[] start, byte[] finish, boolean reversed, int pageSize, int maxPrefetchedPages) {
+    super(pageSize, maxPrefetchedPages);
+    this.keyspace = keyspace;
+    this.key = key;
+    this.columnParent = columnParent;
+    this.start = start;
+    this.finish = finish;
+    this.reversed = reversed;
+  }
+
+  @Override
+  protected List<SuperColumn> fetch(SuperColumn last, int count) throws Exception {
+    SliceRange range = new SliceRange(last == null ? start : last.getName(), finish, reversed,
+        count);
+    return keyspace.getSuperSlice(key, columnParent, new SlicePredicate(null, range));
+  }
+
+  @Override
+  protected boolean isSamePosition(SuperColumn a, SuperColumn b) {
+    return Arrays.equals(a.getName(), b.getName());
+  }
+}
@@ -0,0 +1,87 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+
+/**
+ * A client side view of the cassandra ring, used to find the host which owns a key.
+ *
+ * The ring is built from the token map returned by {@link CassandraClient#getTokenMap(boolean)}
+ * and the cluster's partitioner. A key is owned by the first node whose token is equal to or
+ * greater than the key's token, wrapping around to the first node in the ring.
+ *
+ * Instances are immutable and may be shared between threads.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+/*package*/ class TokenRing {
+
+  private final IPartitioner<?> partitioner;
+
+  private final TreeMap<Token<?>, String> ring;
+
+  /**
+   * @param partitioner the partitioner used by the cluster
+   * @param tokenMap a map from tokens (in their string form) to hosts
+   */
+  public TokenRing(IPartitioner<?> partitioner, Map<String, String> tokenMap) {
+    this.partitioner = partitioner;
+    ring = new TreeMap<Token<?>, String>();
+    Token.TokenFactory<?> tokenFactory = partitioner.getTokenFactory();
+    for (Map.Entry<String, String> entry : tokenMap.entrySet()) {
+      ring.put(tokenFactory.fromString(entry.getKey()), entry.getValue());
+    }
+  }
+
+  /**
+   * Finds the host owning the key.
+   * @return the host or null if the ring is empty.
+   */
+  public String getHost(String key) {
+    if (ring.isEmpty()) {
+      return null;
+    }
+    Map.Entry<Token<?>, String> owner = ring.ceilingEntry(getToken(key));
+    return owner == null ? ring.firstEntry().getValue() : owner.getValue();
+  }
+
+  public Token<?> getToken(String key) {
+    return partitioner.getToken(key);
+  }
+
+  /**
+   * @return The ring's tokens, in ring order, and the hosts which own them.
+   */
+  public SortedMap<Token<?>, String> getTokens() {
+    return Collections.unmodifiableSortedMap(ring);
+  }
+
+  /**
+   * @return The string form of the token, as in the token map.
+   */
+  // getTokenFactory() returns a raw factory; the token is from the same partitioner, so its type
+  // is the factory's
+  @SuppressWarnings("unchecked")
+  public String toString(Token<?> token) {
+    return partitioner.getTokenFactory().toString(token);
+  }
+
+  public boolean isEmpty() {
+    return ring.isEmpty();
+  }
+
+  public IPartitioner<?> getPartitioner() {
+    return partitioner;
+  }
+
+  @Override
+  public String toString() {
+    return "TokenRing<" + ring + ">";
+  }
+}
@@ -0,0 +1,345 @@
+package me.prettyprint.cassandra.service;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.SuperColumn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces single column inserts into batch inserts.
+ *
+ * Inserts are collected per row key and column family and are sent by a background thread as one
+ * {@link Keyspace#batchInsert} per row when the buffer holds maxWrites writes or maxBytes bytes,
+ * when the oldest buffered write is maxDelayMillis old, or on {@link #flush()}.
+ * Each insert returns a future which completes when its batch has been written (or failed).
+ *
+ * While a batch is written, new inserts are buffered; once maxBufferedWrites writes are buffered,
+ * inserting threads block until there is room again, which keeps fast producers from exhausting
+ * the memory.
+ *
+ * The keyspace is used by the buffer's thread only, so it must not be used by others while the
+ * buffer is open. A column written twice before a flush is sent once, with the last value.
+ *
+ * <pre>
+ * WriteBuffer buffer = new WriteBuffer(keyspace);
+ * for (...) {
+ *   buffer.insert(key, columnPath, value);
+ * }
+ * buffer.close();
+ * </pre>
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class WriteBuffer {
+
+  private static final Logger log = LoggerFactory.getLogger(WriteBuffer.class);
+
+  public static final int DEFAULT_MAX_WRITES = 100;
+  public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 10;
+  public static final int DEFAULT_MAX_BUFFERED_WRITES = 1000;
+
+  private static final AtomicInteger bufferNumber = new AtomicInteger(0);
+
+  private final KeyspaceOperations keyspace;
+  private final int maxWrites;
+  private final long maxBytes;
+  private final long maxDelayMillis;
+  private final int maxBufferedWrites;
+
+  private final Object lock = new Object();
+
+  /** Buffered rows, keyed by row key; guarded by lock */
+  private Map<String, Row> rows = new LinkedHashMap<String, Row>();
+  private int numWrites = 0;
+  private long numBytes = 0;
+  private long oldestWriteTime = 0;
+
+  /** Number of batches taken from the buffer, and number of batches written */
+  private long batchesTaken = 0;
+  private long batchesWritten = 0;
+
+  private boolean flushRequested = false;
+  private boolean closed = false;
+
+  private final Thread writer;
+
+  /**
+   * Creates a buffer with the default thresholds.
+   */
+  public WriteBuffer(KeyspaceOperations keyspace) {
+    this(keyspace, DEFAULT_MAX_WRITES, DEFAULT_MAX_BYTES, DEFAULT_MAX_DELAY_MILLIS,
+        DEFAULT_MAX_BUFFERED_WRITES);
+  }
+
+  /**
+   * @param maxWrites a batch is sent once this many writes are buffered.
+   * @param maxBytes a batch is sent once the keys, names and values of the buffered writes are
+   *    this large.
+   * @param maxDelayMillis a batch is sent once its oldest write has been buffered this long.
+   * @param maxBufferedWrites inserts block while this many writes are buffered.
+   */
+  public WriteBuffer(KeyspaceOperations keyspace, int maxWrites, long maxBytes, long maxDelayMillis,
+      int maxBufferedWrites) {
+    if (maxWrites < 1 || maxBytes < 1 || maxDelayMillis < 0 || maxBufferedWrites < maxWrites) {
+      throw new IllegalArgumentException("Invalid thresholds");
+    }
+    this.keyspace = keyspace;
+    this.maxWrites = maxWrites;
+    this.maxBytes = maxBytes;
+    this.maxDelayMillis = maxDelayMillis;
+    this.maxBufferedWrites = maxBufferedWrites;
+    writer = new DaemonThreadFactory("hector-write-buffer-" + bufferNumber.incrementAndGet())
+        .newThread(new Runnable() {
+          @Override
+          public void run() {
+            writeBatches();
+          }
+        });
+    writer.start();
+  }
+
+  /**
+   * Buffers an insert of a column, or a super column's sub column.
+   * Blocks while the buffer is full.
+   *
+   * @return a future which completes when the column is written. Its get() throws the batch's
+   *    error, e.g. a TimedOutException, as the cause of an ExecutionException.
+   * @throws IllegalStateException if the buffer is closed.
+   */
+  public Future<Void> insert(String key, ColumnPath columnPath, byte[] value)
+      throws InterruptedException {
+    if (columnPath.getColumn() == null) {
+      throw new IllegalArgumentException("Column name is required: " + columnPath);
+    }
+    Column column = new Column(columnPath.getColumn(), value, System.currentTimeMillis());
+    WriteFuture future = new WriteFuture();
+    synchronized (lock) {
+      while (numWrites >= maxBufferedWrites && !closed) {
+        lock.wait();
+      }
+      if (closed) {
+        throw new IllegalStateException("The write buffer is closed");
+      }
+      Row row = rows.get(key);
+      if (row == null) {
+        row = new Row();
+        rows.put(key, row);
+      }
+      row.add(columnPath.getColumn_family(), columnPath.getSuper_column(), column, future);
+      if (numWrites == 0) {
+        oldestWriteTime = System.currentTimeMillis();
+      }
+      ++numWrites;
+      numBytes += bytes(key).length + column.getName().length + (value == null ? 0 : value.length);
+      // The first write starts the writer's delay; the writer waits without a timeout until then
+      if (numWrites == 1 || numWrites >= maxWrites || numBytes >= maxBytes) {
+        lock.notifyAll();
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Sends the buffered writes and waits until they (and the writes buffered before them) are
+   * written.
+   */
+  public void flush() throws InterruptedException {
+    synchronized (lock) {
+      long target = numWrites > 0 ? batchesTaken + 1 : batchesTaken;
+      flushRequested = true;
+      lock.notifyAll();
+      while (batchesWritten < target) {
+        lock.wait();
+      }
+    }
+  }
+
+  /**
+   * Writes all buffered writes and stops the buffer's thread.
+   */
+  public void close() throws InterruptedException {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    writer.join();
+  }
+
+  public int getNumBufferedWrites() {
+    synchronized (lock) {
+      return numWrites;
+    }
+  }
+
+  /**
+   * The buffer's thread: takes batches from the buffer and writes them until closed.
+   */
+  private void writeBatches() {
+    while (true) {
+      Map<String, Row> batch;
+      synchronized (lock) {
+        try {
+          while (!isBatchReady()) {
+            if (numWrites == 0) {
+              lock.wait();
+            } else {
+              lock.wait(Math.max(1, oldestWriteTime + maxDelayMillis - System.currentTimeMillis()));
+            }
+          }
+        } catch (InterruptedException e) {
+          log.warn("Write buffer interrupted, closing it", e);
+          closed = true;
+        }
+        if (numWrites == 0) {
+          flushRequested = false;
+          if (closed) {
+            lock.notifyAll();
+            return;
+          }
+          continue;
+        }
+        batch = rows;
+        rows = new LinkedHashMap<String, Row>();
+        numWrites = 0;
+        numBytes = 0;
+        flushRequested = false;
+        ++batchesTaken;
+        // There's room for more writes
+        lock.notifyAll();
+      }
+      write(batch);
+      synchronized (lock) {
+        ++batchesWritten;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private boolean isBatchReady() {
+    return closed || flushRequested || numWrites >= maxWrites || numBytes >= maxBytes ||
+        (numWrites > 0 && System.currentTimeMillis() - oldestWriteTime >= maxDelayMillis);
+  }
+
+  private void write(Map<String, Row> batch) {
+    for (Map.Entry<String, Row> entry : batch.entrySet()) {
+      Row row = entry.getValue();
+      try {
+        keyspace.batchInsert(entry.getKey(), row.getColumnMap(), row.getSuperColumnMap());
+        for (WriteFuture f : row.futures) {
+          f.complete();
+        }
+      } catch (Exception e) {
+        log.warn("Unable to write buffered row " + entry.getKey(), e);
+        for (WriteFuture f : row.futures) {
+          f.fail(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * The buffered writes of a single row.
+   */
+  private static class Row {
+    /** column family -> column name -> column */
+    final Map<String, Map<ByteBuffer, Column>> columns =
+        new LinkedHashMap<String, Map<ByteBuffer, Column>>();
+    /** column family -> super column name -> column name -> column */
+    final Map<String, Map<ByteBuffer, Map<ByteBuffer, Column>>> superColumns =
+        new LinkedHashMap<String, Map<ByteBuffer, Map<ByteBuffer, Column>>>();
+    final List<WriteFuture> futures = new ArrayList<WriteFuture>();
+
+    void add(String columnFamily, byte[] superColumn, Column column, WriteFuture future) {
+      Map<ByteBuffer, Column> cfColumns;
+      if (superColumn == null) {
+        cfColumns = columns.get(columnFamily);
+        if (cfColumns == null) {
+          cfColumns = new LinkedHashMap<ByteBuffer, Column>();
+          columns.put(columnFamily, cfColumns);
+        }
+      } else {
+        Map<ByteBuffer, Map<ByteBuffer, Column>> cfSuperColumns = superColumns.get(columnFamily);
+        if (cfSuperColumns == null) {
+          cfSuperColumns = new LinkedHashMap<ByteBuffer, Map<ByteBuffer, Column>>();
+          superColumns.put(columnFamily, cfSuperColumns);
+        }
+        cfColumns = cfSuperColumns.get(ByteBuffer.wrap(superColumn));
+        if (cfColumns == null) {
+          cfColumns = new LinkedHashMap<ByteBuffer, Column>();
+          cfSuperColumns.put(ByteBuffer.wrap(superColumn), cfColumns);
+        }
+      }
+      cfColumns.put(ByteBuffer.wrap(column.getName()), column);
+      futures.add(future);
+    }
+
+    Map<String, List<Column>> getColumnMap() {
+      if (columns.isEmpty()) {
+        return null;
+      }
+      Map<String, List<Column>> ret = new LinkedHashMap<String, List<Column>>(columns.size() * 2);
+      for (Map.Entry<String, Map<ByteBuffer, Column>> entry : columns.entrySet()) {
+        ret.put(entry.getKey(), new ArrayList<Column>(entry.getValue().values()));
+      }
+      return ret;
+    }
+
+    Map<String, List<SuperColumn>> getSuperColumnMap() {
+      if (superColumns.isEmpty()) {
+        return null;
+      }
+      Map<String, List<SuperColumn>> ret = new LinkedHashMap<String, List<SuperColumn>>(
+          superColumns.size() * 2);
+      for (Map.Entry<String, Map<ByteBuffer, Map<ByteBuffer, Column>>> entry :
+          superColumns.entrySet()) {
+        List<SuperColumn> cfSuperColumns = new ArrayList<SuperColumn>(entry.getValue().size());
+        for (Map.Entry<ByteBuffer, Map<ByteBuffer, Column>> sc : entry.getValue().entrySet()) {
+          cfSuperColumns.add(new SuperColumn(sc.getKey().array(),
+              new ArrayList<Column>(sc.getValue().values())));
+        }
+        ret.put(entry.getKey(), cfSuperColumns);
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * The future of a single buffered write, completed by the buffer's thread.
+   */
+  private static class WriteFuture extends FutureTask<Void> {
+
+    private static final Callable<Void> NOTHING = new Callable<Void>() {
+      @Override
+      public Void call() {
+        return null;
+      }
+    };
+
+    WriteFuture() {
+      super(NOTHING);
+    }
+
+    void complete() {
+      set(null);
+    }
+
+    void fail(Exception e) {
+      setException(e);
+    }
+  }
+}
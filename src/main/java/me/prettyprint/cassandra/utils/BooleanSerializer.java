@@ -0,0 +1,42 @@
+package me.prettyprint.cassandra.utils;
+
+/**
+ * Booleans as a single byte, 1 for true and 0 for false.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public final class BooleanSerializer implements Serializer<Boolean> {
+
+  private static final BooleanSerializer instance = new BooleanSerializer();
+
+  private static final byte[] TRUE = {1};
+  private static final byte[] FALSE = {0};
+
+  public static BooleanSerializer get() {
+    return instance;
+  }
+
+  private BooleanSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(Boolean obj) {
+    if (obj == null) {
+      return null;
+    }
+    // Copies, since the caller may modify the array
+    return obj.booleanValue() ? TRUE.clone() : FALSE.clone();
+  }
+
+  @Override
+  public Boolean fromBytes(byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    if (bytes.length != 1) {
+      throw new IllegalArgumentException("A boolean is 1 byte, got " + bytes.length);
+    }
+    return Boolean.valueOf(bytes[0] != 0);
+  }
+}
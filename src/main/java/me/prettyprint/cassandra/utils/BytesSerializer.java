@@ -0,0 +1,29 @@
+package me.prettyprint.cassandra.utils;
+
+/**
+ * Raw bytes, as is.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public final class BytesSerializer implements Serializer<byte[]> {
+
+  private static final BytesSerializer instance = new BytesSerializer();
+
+  public static BytesSerializer get() {
+    return instance;
+  }
+
+  private BytesSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(byte[] obj) {
+    return obj;
+  }
+
+  @Override
+  public byte[] fromBytes(byte[] bytes) {
+    return bytes;
+  }
+}
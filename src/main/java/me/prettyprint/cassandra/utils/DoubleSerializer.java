@@ -0,0 +1,30 @@
+package me.prettyprint.cassandra.utils;
+
+/**
+ * Doubles as the 8 big endian bytes of their IEEE 754 representation.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public final class DoubleSerializer implements Serializer<Double> {
+
+  private static final DoubleSerializer instance = new DoubleSerializer();
+
+  public static DoubleSerializer get() {
+    return instance;
+  }
+
+  private DoubleSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(Double obj) {
+    return obj == null ? null : LongSerializer.toBytes(Double.doubleToRawLongBits(obj));
+  }
+
+  @Override
+  public Double fromBytes(byte[] bytes) {
+    return bytes == null ? null : Double.valueOf(
+        Double.longBitsToDouble(LongSerializer.toLong(bytes)));
+  }
+}
@@ -0,0 +1,40 @@
+package me.prettyprint.cassandra.utils;
+
+/**
+ * Integers as 4 big endian bytes.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public final class IntegerSerializer implements Serializer<Integer> {
+
+  private static final IntegerSerializer instance = new IntegerSerializer();
+
+  public static IntegerSerializer get() {
+    return instance;
+  }
+
+  private IntegerSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(Integer obj) {
+    if (obj == null) {
+      return null;
+    }
+    int i = obj.intValue();
+    return new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+  }
+
+  @Override
+  public Integer fromBytes(byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    if (bytes.length != 4) {
+      throw new IllegalArgumentException("An integer is 4 bytes, got " + bytes.length);
+    }
+    return Integer.valueOf(((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) |
+        ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff));
+  }
+}
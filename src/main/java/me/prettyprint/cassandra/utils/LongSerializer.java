@@ -0,0 +1,50 @@
+package me.prettyprint.cassandra.utils;
+
+/**
+ * Longs as 8 big endian bytes, the encoding of cassandra's LongType, so long column names sort
+ * numerically (for non negative values).
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public final class LongSerializer implements Serializer<Long> {
+
+  private static final LongSerializer instance = new LongSerializer();
+
+  public static LongSerializer get() {
+    return instance;
+  }
+
+  private LongSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(Long obj) {
+    return obj == null ? null : toBytes(obj.longValue());
+  }
+
+  @Override
+  public Long fromBytes(byte[] bytes) {
+    return bytes == null ? null : Long.valueOf(toLong(bytes));
+  }
+
+  /*package*/ static byte[] toBytes(long l) {
+    byte[] bytes = new byte[8];
+    for (int i = 7; i >= 0; --i) {
+      bytes[i] = (byte) l;
+      l >>>= 8;
+    }
+    return bytes;
+  }
+
+  /*package*/ static long toLong(byte[] bytes) {
+    if (bytes.length != 8) {
+      throw new IllegalArgumentException("A long is 8 bytes, got " + bytes.length);
+    }
+    long l = 0;
+    for (int i = 0; i < 8; ++i) {
+      l = (l << 8) | (bytes[i] & 0xff);
+    }
+    return l;
+  }
+}
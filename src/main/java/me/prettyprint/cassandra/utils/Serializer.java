@@ -0,0 +1,30 @@
+package me.prettyprint.cassandra.utils;
+
+/**
+ * Converts objects of type T to and from the bytes of cassandra column names and values.
+ *
+ * Implementations are stateless and thread safe, use their shared instances, e.g.
+ * {@link LongSerializer#get()}.
+ *
+ * <pre>
+ * ColumnPath cp = new ColumnPath("Standard1", null, StringSerializer.get().toBytes("age"));
+ * keyspace.insert("key", cp, 42L, LongSerializer.get());
+ * long age = keyspace.getColumn("key", cp, LongSerializer.get());
+ * </pre>
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public interface Serializer<T> {
+
+  /**
+   * @return The bytes of the object, null if the object is null.
+   */
+  byte[] toBytes(T obj);
+
+  /**
+   * @return The object, null if the bytes are null.
+   * @throws IllegalArgumentException if the bytes are not a valid encoding of T.
+   */
+  T fromBytes(byte[] bytes);
+}
@@ -0,0 +1,29 @@
+package me.prettyprint.cassandra.utils;
+
+/**
+ * UTF-8 strings, as converted by {@link StringUtils}.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public final class StringSerializer implements Serializer<String> {
+
+  private static final StringSerializer instance = new StringSerializer();
+
+  public static StringSerializer get() {
+    return instance;
+  }
+
+  private StringSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(String obj) {
+    return obj == null ? null : StringUtils.bytes(obj);
+  }
+
+  @Override
+  public String fromBytes(byte[] bytes) {
+    return StringUtils.string(bytes);
+  }
+}
@@ -1,6 +1,12 @@
 package me.prettyprint.cassandra.utils;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,6 +14,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Encoding and decoding utilities.
  *
+ * Strings are converted by a cached UTF-8 {@link Charset}, rather than looking the charset up by
+ * name on each call. Plain ascii strings, which most keys and column names are, take a fast path
+ * which copies the chars directly.
+ *
  * @author Ran Tavory (rantav@gmail.com)
  *
  */
@@ -17,6 +27,19 @@ public class StringUtils {
 
   public static final String ENCODING = "utf-8";
 
+  public static final Charset UTF_8 = Charset.forName(ENCODING);
+
+  /** The initial size of the per thread encoding buffers */
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  /** Per thread encoder and buffer, used by {@link #encode(String)} */
+  private static final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+    @Override
+    protected Encoder initialValue() {
+      return new Encoder();
+    }
+  };
+
   /**
    * Gets UTF-8 bytes from the string.
    *
@@ -24,12 +47,15 @@ public class StringUtils {
    * @return
    */
   public static byte[] bytes(String s) {
-    try {
-      return s.getBytes(ENCODING);
-    } catch (UnsupportedEncodingException e) {
-      log.error("UnsupportedEncodingException ", e);
-      throw new RuntimeException(e);
+    int length = s.length();
+    if (!isAscii(s, length)) {
+      return s.getBytes(UTF_8);
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      bytes[i] = (byte) s.charAt(i);
     }
+    return bytes;
   }
 
   /**
@@ -37,16 +63,81 @@ public class StringUtils {
    * @param bytes
    * @return
    */
+  @SuppressWarnings("deprecation")
   public static String string(byte[] bytes) {
     if (bytes == null) {
       return null;
     }
-    try {
-      return new String(bytes, ENCODING);
-    } catch (UnsupportedEncodingException e) {
-      log.error("UnsupportedEncodingException ", e);
-      throw new RuntimeException(e);
+    for (int i = 0; i < bytes.length; ++i) {
+      if (bytes[i] < 0) {
+        return new String(bytes, UTF_8);
+      }
     }
+    // Ascii: each byte is a char, so the chars are copied straight from the bytes
+    return new String(bytes, 0, 0, bytes.length);
   }
 
+  /**
+   * Encodes the string as UTF-8 into a buffer owned by the calling thread, without allocating.
+   *
+   * The returned buffer is only valid until the next call to this method by the same thread, so
+   * it's for callers which consume the bytes right away, e.g. write them to a stream or copy them
+   * into a larger array. The bytes are between the buffer's position (0) and its limit.
+   */
+  public static ByteBuffer encode(String s) {
+    return encoders.get().encode(s);
+  }
+
+  private static boolean isAscii(String s, int length) {
+    for (int i = 0; i < length; ++i) {
+      if (s.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A UTF-8 encoder and the buffer it encodes into, which grows as needed.
+   */
+  private static class Encoder {
+
+    private final CharsetEncoder encoder = UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    ByteBuffer encode(String s) {
+      int length = s.length();
+      buffer.clear();
+      if (isAscii(s, length)) {
+        ensureCapacity(length);
+        byte[] array = buffer.array();
+        for (int i = 0; i < length; ++i) {
+          array[i] = (byte) s.charAt(i);
+        }
+        buffer.limit(length);
+        return buffer;
+      }
+      ensureCapacity((int) (length * encoder.maxBytesPerChar()));
+      CharBuffer in = CharBuffer.wrap(s);
+      encoder.reset();
+      CoderResult result = encoder.encode(in, buffer, true);
+      if (!result.isUnderflow()) {
+        // Can't happen, the buffer fits the longest encoding and errors are replaced
+        throw new RuntimeException(new CharacterCodingException());
+      }
+      encoder.flush(buffer);
+      buffer.flip();
+      return buffer;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (buffer.capacity() < capacity) {
+        log.debug("Growing the encoding buffer to {}", capacity);
+        buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+      }
+    }
+  }
 }
@@ -0,0 +1,106 @@
+package me.prettyprint.cassandra.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which is cheap to increment from many threads at once, in the spirit of java 8's
+ * LongAdder.
+ *
+ * As long as there is no contention, increments CAS a single base value. Once a CAS fails, the
+ * count is spread over a number of cells, each on its own cache line. A thread increments one
+ * cell, picked by a per thread probe; when the CAS on that cell fails as well the thread moves to
+ * another cell. Reading the count sums the base and the cells, so it is only a moment's estimate
+ * while there are concurrent increments.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class StripedCounter {
+
+  /** Longs per cell; 8 longs == 64 bytes keep cells on different cache lines */
+  private static final int PADDING = 8;
+
+  /** Number of cells, a power of two that's at least the number of processors */
+  private static final int NUM_CELLS = nextPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+  /** Per thread cell selector, shared by all counters */
+  private static final ThreadLocal<int[]> probe = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+      return new int[] { h == 0 ? 1 : h };
+    }
+  };
+
+  /** Index of the base value in the cells array */
+  private static final int BASE = 0;
+
+  /** The base value followed by the cells */
+  private final AtomicLongArray cells;
+
+  /** Set once increments were contended, from then on the cells are used */
+  private volatile boolean contended = false;
+
+  public StripedCounter() {
+    cells = new AtomicLongArray((NUM_CELLS + 1) * PADDING);
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  public void add(long x) {
+    if (!contended) {
+      long b = cells.get(BASE);
+      if (cells.compareAndSet(BASE, b, b + x)) {
+        return;
+      }
+      if (NUM_CELLS == 1) {
+        // A single processor; the CAS failed since a thread was preempted, striping won't help
+        cells.addAndGet(BASE, x);
+        return;
+      }
+      contended = true;
+    }
+    int[] p = probe.get();
+    int index = cellIndex(p[0]);
+    long v = cells.get(index);
+    if (!cells.compareAndSet(index, v, v + x)) {
+      // Contended, move this thread to another cell for next time
+      int h = p[0];
+      h ^= h << 13;
+      h ^= h >>> 17;
+      h ^= h << 5;
+      p[0] = h;
+      cells.addAndGet(index, x);
+    }
+  }
+
+  /**
+   * @return the sum of the base and all cells
+   */
+  public long sum() {
+    long sum = cells.get(BASE);
+    for (int i = 1; i <= NUM_CELLS; ++i) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  private static int cellIndex(int probe) {
+    return ((probe & (NUM_CELLS - 1)) + 1) * PADDING;
+  }
+
+  private static int nextPowerOfTwo(int n) {
+    int ret = 1;
+    while (ret < n) {
+      ret <<= 1;
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+}
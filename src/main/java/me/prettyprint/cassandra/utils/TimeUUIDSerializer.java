@@ -0,0 +1,32 @@
+package me.prettyprint.cassandra.utils;
+
+import java.util.UUID;
+
+/**
+ * Time based (version 1) UUIDs, for column families compared with TimeUUIDType.
+ *
+ * The encoding is that of {@link UUIDSerializer}, but other UUID versions are rejected, since
+ * TimeUUIDType would order them by a timestamp they don't have.
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public final class TimeUUIDSerializer extends UUIDSerializer {
+
+  private static final TimeUUIDSerializer instance = new TimeUUIDSerializer();
+
+  public static TimeUUIDSerializer get() {
+    return instance;
+  }
+
+  private TimeUUIDSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(UUID obj) {
+    if (obj != null && obj.version() != 1) {
+      throw new IllegalArgumentException("Not a time based UUID: " + obj);
+    }
+    return super.toBytes(obj);
+  }
+}
@@ -0,0 +1,57 @@
+package me.prettyprint.cassandra.utils;
+
+import java.util.UUID;
+
+/**
+ * UUIDs as their 16 bytes, most significant first, the encoding of cassandra's LexicalUUIDType
+ * and TimeUUIDType.
+ *
+ * @see TimeUUIDSerializer
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class UUIDSerializer implements Serializer<UUID> {
+
+  private static final UUIDSerializer instance = new UUIDSerializer();
+
+  public static UUIDSerializer get() {
+    return instance;
+  }
+
+  protected UUIDSerializer() {
+  }
+
+  @Override
+  public byte[] toBytes(UUID obj) {
+    if (obj == null) {
+      return null;
+    }
+    byte[] bytes = new byte[16];
+    long msb = obj.getMostSignificantBits();
+    long lsb = obj.getLeastSignificantBits();
+    for (int i = 7; i >= 0; --i) {
+      bytes[i] = (byte) msb;
+      bytes[i + 8] = (byte) lsb;
+      msb >>>= 8;
+      lsb >>>= 8;
+    }
+    return bytes;
+  }
+
+  @Override
+  public UUID fromBytes(byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    if (bytes.length != 16) {
+      throw new IllegalArgumentException("A UUID is 16 bytes, got " + bytes.length);
+    }
+    long msb = 0;
+    long lsb = 0;
+    for (int i = 0; i < 8; ++i) {
+      msb = (msb << 8) | (bytes[i] & 0xff);
+      lsb = (lsb << 8) | (bytes[i + 8] & 0xff);
+    }
+    return new UUID(msb, lsb);
+  }
+}
@@ -0,0 +1,113 @@
+package me.prettyprint.cassandra.service;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+import static me.prettyprint.cassandra.utils.StringUtils.string;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import me.prettyprint.cassandra.testutils.EmbeddedServerHelper;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class AsyncKeyspaceTest {
+
+  private static EmbeddedServerHelper embedded;
+
+  private CassandraClientPool pool;
+  private AsyncKeyspace keyspace;
+
+  @BeforeClass
+  public static void setup() throws TTransportException, IOException, InterruptedException {
+    embedded = new EmbeddedServerHelper();
+    embedded.setup();
+  }
+
+  @AfterClass
+  public static void teardown() throws IOException {
+    embedded.teardown();
+  }
+
+  @Before
+  public void setupCase() {
+    pool = CassandraClientPoolFactory.INSTANCE.createNew();
+    keyspace = new AsyncKeyspace(pool, new String[] {"localhost:9170"}, "Keyspace1", 1,
+        CassandraClient.DEFAULT_FAILOVER_POLICY, AsyncKeyspace.createExecutor(4, 100));
+  }
+
+  @After
+  public void teardownCase() {
+    keyspace.shutdown();
+  }
+
+  @Test
+  public void testInsertAndGetAndRemove() throws Exception {
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testAsyncInsertAndGetAndRemove"));
+    List<Future<Void>> writes = new ArrayList<Future<Void>>();
+    for (int i = 0; i < 100; i++) {
+      writes.add(keyspace.insert("testAsyncInsertAndGetAndRemove_" + i, cp,
+          bytes("testAsyncInsertAndGetAndRemove_value_" + i)));
+    }
+    for (Future<Void> f : writes) {
+      f.get();
+    }
+
+    List<Future<Column>> reads = new ArrayList<Future<Column>>();
+    for (int i = 0; i < 100; i++) {
+      reads.add(keyspace.getColumn("testAsyncInsertAndGetAndRemove_" + i, cp));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals("testAsyncInsertAndGetAndRemove_value_" + i,
+          string(reads.get(i).get().getValue()));
+    }
+
+    for (int i = 0; i < 100; i++) {
+      keyspace.remove("testAsyncInsertAndGetAndRemove_" + i, cp).get();
+    }
+    try {
+      keyspace.getColumn("testAsyncInsertAndGetAndRemove_0", cp).get();
+      fail("the value should already being deleted");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof NotFoundException);
+    }
+
+    // All clients were released
+    assertEquals(0, pool.getNumActive());
+  }
+
+  @Test
+  public void testUnknownKeyspace() throws Exception {
+    AsyncKeyspace unknown = new AsyncKeyspace(pool, new String[] {"localhost:9170"},
+        "testUnknownKeyspace", 1, CassandraClient.DEFAULT_FAILOVER_POLICY,
+        AsyncKeyspace.createExecutor(1, 10));
+    try {
+      unknown.getColumn("key", new ColumnPath("Standard1", null, bytes("c"))).get();
+      fail("The keyspace doesn't exist");
+    } catch (ExecutionException e) {
+      // ok
+    } finally {
+      unknown.shutdown();
+    }
+    // The client was released
+    assertEquals(0, pool.getNumActive());
+  }
+}
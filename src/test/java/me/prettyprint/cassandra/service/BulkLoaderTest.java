@@ -0,0 +1,168 @@
+package me.prettyprint.cassandra.service;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.InvalidRequestException;
+import org.apache.cassandra.service.SuperColumn;
+import org.apache.cassandra.service.TimedOutException;
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class BulkLoaderTest {
+
+  private Keyspace keyspace;
+  private BulkLoader loader;
+  private File checkpoint;
+
+  @Before
+  public void setupTest() throws Exception {
+    keyspace = mock(Keyspace.class);
+    loader = new BulkLoader(keyspace);
+    loader.setMaxInFlight(4);
+    loader.setRetryDelayMillis(1);
+    checkpoint = File.createTempFile("BulkLoaderTest", ".checkpoint");
+    checkpoint.delete();
+  }
+
+  @After
+  public void teardownTest() {
+    checkpoint.delete();
+  }
+
+  private static List<BulkLoader.Row> rows(int n) {
+    List<BulkLoader.Row> rows = new ArrayList<BulkLoader.Row>();
+    for (int i = 0; i < n; ++i) {
+      rows.add(new BulkLoader.Row("key" + i).addColumn("Standard1", column("c")));
+    }
+    return rows;
+  }
+
+  private static Column column(String name) {
+    return new Column(bytes(name), bytes("value"), 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testLoad() throws Exception {
+    loader.load(rows(100).iterator());
+    for (int i = 0; i < 100; ++i) {
+      verify(keyspace).batchInsert(eq("key" + i), anyMap(), (Map<String, List<SuperColumn>>) any());
+    }
+    assertEquals(100, loader.getRowsLoaded());
+    assertEquals(100, loader.getColumnsLoaded());
+    assertEquals(100, loader.getBatchesWritten());
+  }
+
+  @Test
+  public void testSplit() {
+    loader.setMaxBatchColumns(2);
+    BulkLoader.Row row = new BulkLoader.Row("key")
+        .addColumn("Standard1", column("a"))
+        .addColumn("Standard1", column("b"))
+        .addColumn("Standard2", column("c"))
+        .addSubColumn("Super1", bytes("s"), column("d"))
+        .addSubColumn("Super1", bytes("s"), column("e"));
+    assertEquals(5, row.getNumColumns());
+    List<BulkLoader.Row> batches = loader.split(row);
+    assertEquals(3, batches.size());
+    assertEquals(Arrays.asList("Standard1"),
+        new ArrayList<String>(batches.get(0).getColumnMap().keySet()));
+    assertEquals(2, batches.get(0).getNumColumns());
+    // The second batch has a column and a sub column
+    assertEquals(1, batches.get(1).getColumnMap().get("Standard2").size());
+    assertEquals(1, batches.get(1).getSuperColumnMap().get("Super1").get(0).getColumns().size());
+    assertEquals(1, batches.get(2).getSuperColumnMap().get("Super1").size());
+
+    // Small rows aren't split
+    assertEquals(1, loader.split(new BulkLoader.Row("key").addColumn("Standard1", column("a")))
+        .size());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testRetry() throws Exception {
+    doThrow(new TimedOutException()).doThrow(new TException()).doNothing().when(keyspace)
+        .batchInsert(eq("key0"), anyMap(), (Map<String, List<SuperColumn>>) any());
+    loader.load(rows(1).iterator());
+    verify(keyspace, times(3)).batchInsert(eq("key0"), anyMap(),
+        (Map<String, List<SuperColumn>>) any());
+    assertEquals(2, loader.getRetries());
+    assertEquals(1, loader.getRowsLoaded());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFailure() throws Exception {
+    loader.setMaxInFlight(1);
+    loader.setCheckpointFile(checkpoint);
+    doThrow(new InvalidRequestException("bad row")).when(keyspace)
+        .batchInsert(eq("key5"), anyMap(), (Map<String, List<SuperColumn>>) any());
+    try {
+      loader.load(rows(10).iterator());
+      fail("key5 can't be loaded");
+    } catch (TException e) {
+      assertTrue(e.getCause() instanceof InvalidRequestException);
+    }
+    // No retries and no more rows
+    verify(keyspace).batchInsert(eq("key5"), anyMap(), (Map<String, List<SuperColumn>>) any());
+    verify(keyspace, never()).batchInsert(eq("key6"), anyMap(),
+        (Map<String, List<SuperColumn>>) any());
+    assertEquals(5, readCheckpoint());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testResume() throws Exception {
+    loader.setCheckpointFile(checkpoint);
+    FileWriter writer = new FileWriter(checkpoint);
+    writer.write("7\n");
+    writer.close();
+    loader.load(rows(10).iterator());
+    verify(keyspace, never()).batchInsert(eq("key6"), anyMap(),
+        (Map<String, List<SuperColumn>>) any());
+    verify(keyspace, times(3)).batchInsert(anyString(), anyMap(),
+        (Map<String, List<SuperColumn>>) any());
+    assertEquals(3, loader.getRowsLoaded());
+    // The load completed
+    assertFalse(checkpoint.exists());
+  }
+
+  private long readCheckpoint() throws Exception {
+    BufferedReader reader = new BufferedReader(new FileReader(checkpoint));
+    try {
+      return Long.parseLong(reader.readLine());
+    } finally {
+      reader.close();
+    }
+  }
+}
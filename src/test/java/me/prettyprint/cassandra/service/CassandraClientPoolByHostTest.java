@@ -1,7 +1,10 @@
 package me.prettyprint.cassandra.service;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -34,6 +37,38 @@ public class CassandraClientPoolByHostTest {
     pool = new CassandraClientPoolByHostImpl(cassandraHost, poolStore, new CassandraClientMonitor(), factory);
   }
 
+  @Test
+  public void testAddIdleClient() throws Exception {
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(pool.addIdleClient());
+    }
+    // maxIdle reached
+    assertFalse(pool.addIdleClient());
+    assertEquals(5, pool.getNumIdle());
+    assertEquals(0, pool.getNumActive());
+  }
+
+  @Test
+  public void testIdleEviction() throws Exception {
+    CassandraHost cassandraHost = new CassandraHost("url", 1111);
+    cassandraHost.setMaxIdle(5);
+    cassandraHost.setIdleEvictionIntervalMillis(20);
+    when(factory.validateIdleClient((CassandraClient) anyObject())).thenReturn(false);
+    CassandraClientPoolByHost pool = new CassandraClientPoolByHostImpl(cassandraHost, poolStore,
+        new CassandraClientMonitor(), factory);
+    try {
+      pool.addIdleClient();
+      assertEquals(1, pool.getNumIdle());
+      for (int i = 0; i < 100 && pool.getNumIdle() > 0; ++i) {
+        Thread.sleep(20);
+      }
+      // The client failed validation
+      assertEquals(0, pool.getNumIdle());
+    } finally {
+      pool.close();
+    }
+  }
+
   @Test
   public void testCounters() throws IllegalStateException, PoolExhaustedException, Exception {
 
@@ -1,5 +1,7 @@
 package me.prettyprint.cassandra.service;
 
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
@@ -9,9 +11,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import me.prettyprint.cassandra.testutils.EmbeddedServerHelper;
 
+import org.apache.cassandra.service.ColumnPath;
 import org.apache.thrift.transport.TTransportException;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -51,6 +55,146 @@ public class CassandraClientPoolTest {
     store = (CassandraClientPoolImpl) CassandraClientPoolFactory.INSTANCE.get();
   }
 
+  @Test
+  public void testCircuitBreaker() throws Exception {
+    CassandraClientPoolImpl pool =
+        (CassandraClientPoolImpl) CassandraClientPoolFactory.INSTANCE.createNew();
+    // Nothing listens on this port
+    CassandraHost down = new CassandraHost("localhost", 9171);
+    down.setCircuitBreaker(true);
+    down.setCircuitBreakerConsecutiveFailures(2);
+    down.setCircuitBreakerProbeIntervalMillis(60000);
+    pool.getPool(down);
+    for (int i = 0; i < 2; ++i) {
+      try {
+        pool.borrowClient("localhost:9171");
+        fail("Expected the connection to fail");
+      } catch (TTransportException e) {
+        assertTrue(e.getMessage().startsWith("Unable to open transport"));
+      }
+    }
+    assertEquals(HostCircuitBreaker.State.OPEN, pool.getCircuitBreaker(down).getState());
+    assertTrue(pool.getQuarantinedHosts().contains("localhost:9171"));
+    try {
+      pool.borrowClient("localhost:9171");
+      fail("Expected the host to be quarantined");
+    } catch (TTransportException e) {
+      assertTrue(e.getMessage().endsWith("is quarantined"));
+    }
+
+    // Load balanced borrows skip the quarantined host
+    for (int i = 0; i < 10; ++i) {
+      CassandraClient client = pool.borrowClient(new String[] {"localhost:9171", "localhost:9170"});
+      assertEquals(9170, client.getPort());
+      pool.releaseClient(client);
+    }
+  }
+
+  @Test
+  public void testLoadBalancingPolicy() throws Exception {
+    CassandraClientPool pool = CassandraClientPoolFactory.INSTANCE.createNew();
+    pool.setLoadBalancingPolicy(new RoundRobinLoadBalancingPolicy());
+    String[] hosts = new String[] {"localhost:9170", "127.0.0.1:9170"};
+    for (int i = 0; i < 4; ++i) {
+      CassandraClient client = pool.borrowClient(hosts);
+      assertEquals(CassandraHost.parseHostFromUrl(hosts[i % 2]), client.getUrl());
+      pool.releaseClient(client);
+    }
+  }
+
+  @Test
+  public void testMinIdle() throws Exception {
+    CassandraHost cassandraHost = new CassandraHost("localhost", 9170);
+    cassandraHost.setMinIdle(3);
+    cassandraHost.setPrewarmOnStart(true);
+    cassandraHost.setPrewarmKeyspaces(new String[] {"Keyspace1"});
+    CassandraClientPool pool = CassandraClientPoolFactory.INSTANCE.createNew(
+        new CassandraHost[] {cassandraHost});
+    waitForIdle(pool, 3);
+
+    // Borrowed clients are replaced by the maintainer
+    CassandraClient client = pool.borrowClient("localhost:9170");
+    assertEquals("Keyspace1", client.getKeyspace("Keyspace1").getName());
+    waitForIdle(pool, 3);
+    pool.releaseClient(client);
+    assertEquals(4, pool.getNumIdle());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    CassandraHost cassandraHost = new CassandraHost("localhost", 9170);
+    cassandraHost.setMinIdle(2);
+    cassandraHost.setPrewarmOnStart(true);
+    CassandraClientPool pool = CassandraClientPoolFactory.INSTANCE.createNew(
+        new CassandraHost[] {cassandraHost});
+    SpeculativeReadPolicy speculativeReadPolicy = SpeculativeReadPolicy.fixedDelay(10);
+    MultigetSplitPolicy multigetSplitPolicy = MultigetSplitPolicy.fixedChunks(10, 2);
+    pool.setSpeculativeReadPolicy(speculativeReadPolicy);
+    pool.setMultigetSplitPolicy(multigetSplitPolicy);
+    waitForIdle(pool, 2);
+
+    pool.close();
+    assertEquals(0, pool.getNumIdle());
+    assertTrue(speculativeReadPolicy.getExecutor().isShutdown());
+    assertTrue(multigetSplitPolicy.getExecutor().isShutdown());
+    try {
+      pool.borrowClient("localhost:9170");
+      fail("The pool is closed");
+    } catch (IllegalStateException e) {
+      // ok
+    }
+    try {
+      pool.borrowClient("localhost:9171");
+      fail("The pool is closed");
+    } catch (IllegalStateException e) {
+      // ok
+    }
+  }
+
+  @Test
+  public void testTransportOptions() throws Exception {
+    CassandraHost cassandraHost = new CassandraHost("localhost", 9170);
+    cassandraHost.setTransportBufferSize(64 * 1024);
+    cassandraHost.setSocketSendBufferSize(128 * 1024);
+    cassandraHost.setSocketReceiveBufferSize(128 * 1024);
+    cassandraHost.setTcpNoDelay(false);
+    CassandraClientPool pool = CassandraClientPoolFactory.INSTANCE.createNew(
+        new CassandraHost[] {cassandraHost});
+    CassandraClient client = pool.borrowClient("localhost:9170");
+    Keyspace ks = client.getKeyspace("Keyspace1");
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testTransportOptions"));
+    // Larger than the buffers
+    byte[] value = new byte[200 * 1024];
+    Arrays.fill(value, (byte) 'x');
+    ks.insert("testTransportOptions", cp, value);
+    assertArrayEquals(value, ks.getColumn("testTransportOptions", cp).getValue());
+    ks.remove("testTransportOptions", cp);
+    pool.releaseClient(ks.getClient());
+  }
+
+  @Test
+  public void testSharedMetadata() throws Exception {
+    CassandraClientPool pool = CassandraClientPoolFactory.INSTANCE.createNew();
+    CassandraClient client1 = pool.borrowClient("localhost", 9170);
+    CassandraClient client2 = pool.borrowClient("localhost", 9170);
+    assertNotSame(client1, client2);
+    // Fetched by the first client, cached for the second
+    assertSame(client1.getKeyspaces(), client2.getKeyspaces());
+    assertSame(client1.getTokenMap(false), client2.getTokenMap(false));
+    assertSame(client1.getKeyspace("Keyspace1").describeKeyspace(),
+        client2.getKeyspace("Keyspace1").describeKeyspace());
+    pool.releaseClient(client1);
+    pool.releaseClient(client2);
+  }
+
+  private static void waitForIdle(CassandraClientPool pool, int numIdle)
+      throws InterruptedException {
+    for (int i = 0; i < 100 && pool.getNumIdle() < numIdle; ++i) {
+      Thread.sleep(50);
+    }
+    assertEquals(numIdle, pool.getNumIdle());
+  }
+
   @Test
   public void testGetPool() {
     CassandraClientPoolByHost pool = store.getPool(new CassandraHost("x", 1));
@@ -2,6 +2,7 @@ package me.prettyprint.cassandra.service;
 
 import static org.mockito.Mockito.mock;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -14,6 +15,7 @@ import java.util.Map;
 import me.prettyprint.cassandra.service.CassandraClient.FailoverPolicy;
 import me.prettyprint.cassandra.testutils.EmbeddedServerHelper;
 
+import org.apache.cassandra.dht.OrderPreservingPartitioner;
 import org.apache.cassandra.service.ConsistencyLevel;
 import org.apache.cassandra.service.NotFoundException;
 import org.apache.thrift.TException;
@@ -102,6 +104,16 @@ public class CassandraClientTest {
     assertEquals(FailoverPolicy.FAIL_FAST, k.getFailoverPolicy());
   }
 
+  @Test
+  public void testValidateIdleClient() throws Exception {
+    CassandraClientFactory factory =
+        new CassandraClientFactory(pools, new CassandraHost("localhost", 9170), monitor);
+    assertTrue(factory.validateIdleClient(client));
+    // A broken connection
+    client.getCassandra().getInputProtocol().getTransport().close();
+    assertFalse(factory.validateIdleClient(client));
+  }
+
   @Test
   public void testGetStringProperty() throws TException {
     String prop = client.getStringProperty("cluster name");
@@ -123,6 +135,12 @@ public class CassandraClientTest {
     assertEquals("Test Cluster", name);
   }
 
+  @Test
+  public void testGetPartitioner() throws TException {
+    // The test storage-conf.xml uses the OrderPreservingPartitioner
+    assertTrue(client.getPartitioner() instanceof OrderPreservingPartitioner);
+  }
+
   @Test
   public void testGetTokenMap() throws TException {
     Map<String, String> map = client.getTokenMap(false);
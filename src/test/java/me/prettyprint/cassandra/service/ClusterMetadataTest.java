@@ -0,0 +1,132 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cassandra.service.Cassandra;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class ClusterMetadataTest {
+
+  private CassandraClientPool pool;
+  private Cassandra.Client cassandra1;
+  private Cassandra.Client cassandra2;
+  private CassandraClient client1;
+  private CassandraClient client2;
+  private Map<String, Map<String, String>> desc;
+
+  @Before
+  public void setupTest() throws Exception {
+    pool = mock(CassandraClientPool.class);
+    cassandra1 = mock(Cassandra.Client.class);
+    cassandra2 = mock(Cassandra.Client.class);
+    client1 = mockClient(cassandra1, "h1");
+    client2 = mockClient(cassandra2, "h2");
+    desc = new HashMap<String, Map<String, String>>();
+    for (Cassandra.Client c : new Cassandra.Client[] {cassandra1, cassandra2}) {
+      when(c.get_string_list_property("keyspaces")).thenReturn(Arrays.asList("Keyspace1"));
+      when(c.describe_keyspace("Keyspace1")).thenReturn(desc);
+      when(c.get_string_property("token map")).thenReturn("{\"t1\":\"h1\",\"t2\":\"h2\"}");
+    }
+  }
+
+  private static CassandraClient mockClient(Cassandra.Client cassandra, String url) {
+    CassandraClient client = mock(CassandraClient.class);
+    when(client.getCassandra()).thenReturn(cassandra);
+    when(client.getUrl()).thenReturn(url);
+    when(client.getPort()).thenReturn(9160);
+    return client;
+  }
+
+  @Test
+  public void testSharedByClients() throws Exception {
+    ClusterMetadata metadata = new ClusterMetadata(pool, 0);
+    assertTrue(metadata.hasKeyspace(client1, "Keyspace1"));
+    assertSame(desc, metadata.getKeyspaceDescription(client1, "Keyspace1"));
+    assertEquals("h2", metadata.getTokenMap(client1, false).get("t2"));
+
+    // A second client finds it all cached
+    assertTrue(metadata.hasKeyspace(client2, "Keyspace1"));
+    assertSame(desc, metadata.getKeyspaceDescription(client2, "Keyspace1"));
+    assertEquals(2, metadata.getTokenMap(client2, false).size());
+    verify(cassandra2, never()).get_string_list_property("keyspaces");
+    verify(cassandra2, never()).describe_keyspace("Keyspace1");
+    verify(cassandra2, never()).get_string_property("token map");
+
+    // Unless asked for fresh
+    metadata.getTokenMap(client2, true);
+    verify(cassandra2).get_string_property("token map");
+  }
+
+  @Test
+  public void testUnknownKeyspace() throws Exception {
+    ClusterMetadata metadata = new ClusterMetadata();
+    assertTrue(metadata.hasKeyspace(client1, "Keyspace1"));
+    // The list is fetched again, the keyspace may be new
+    assertFalse(metadata.hasKeyspace(client1, "KeyspaceDoesntExist"));
+    verify(cassandra1, times(2)).get_string_list_property("keyspaces");
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    ClusterMetadata metadata = new ClusterMetadata(pool, 0);
+    // Nothing to refresh yet
+    metadata.refresh();
+    verify(pool, never()).borrowClient((String[]) any());
+
+    metadata.getKeyspaces(client1);
+    metadata.getKeyspaceDescription(client1, "Keyspace1");
+    when(pool.borrowClient(new String[] {"h1:9160"})).thenReturn(client2);
+    Map<String, Map<String, String>> newDesc = new HashMap<String, Map<String, String>>();
+    when(cassandra2.describe_keyspace("Keyspace1")).thenReturn(newDesc);
+    metadata.refresh();
+
+    verify(cassandra2).get_string_list_property("keyspaces");
+    // The token map wasn't cached so it's not refreshed
+    verify(cassandra2, never()).get_string_property("token map");
+    verify(pool).releaseClient(client2);
+    assertSame(newDesc, metadata.getKeyspaceDescription(client1, "Keyspace1"));
+  }
+
+  @Test
+  public void testRefreshFailure() throws Exception {
+    ClusterMetadata metadata = new ClusterMetadata(pool, 0);
+    metadata.getKeyspaces(client1);
+    when(pool.borrowClient(new String[] {"h1:9160"})).thenReturn(client2);
+    when(cassandra2.get_string_list_property("keyspaces")).thenThrow(
+        new TTransportException("down"));
+    when(client2.hasErrors()).thenReturn(true);
+    metadata.refresh();
+    verify(client2).markAsError();
+    verify(pool).invalidateClient(client2);
+    // The cached value is kept
+    assertEquals(Arrays.asList("Keyspace1"), metadata.getKeyspaces(client1));
+  }
+
+  @Test
+  public void testParseTokenMap() {
+    Map<String, String> map = ClusterMetadata.parseTokenMap("{\"t1\":\"h1\",\"t2\":\"h2\"}");
+    assertEquals(2, map.size());
+    assertEquals("h1", map.get("t1"));
+    assertEquals("h2", map.get("t2"));
+  }
+}
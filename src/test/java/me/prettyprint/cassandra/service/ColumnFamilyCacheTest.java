@@ -0,0 +1,209 @@
+package me.prettyprint.cassandra.service;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class ColumnFamilyCacheTest {
+
+  private CassandraClientMonitor monitor;
+  private long now;
+  private ColumnFamilyCache cache;
+
+  @Before
+  public void setupTest() {
+    monitor = new CassandraClientMonitor();
+    now = 1000;
+    cache = newCache(10);
+  }
+
+  private ColumnFamilyCache newCache(int maxRows) {
+    return new ColumnFamilyCache("Keyspace1", "Standard1", maxRows, 100, monitor) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+  }
+
+  private static ColumnPath path(String column) {
+    return new ColumnPath("Standard1", null, bytes(column));
+  }
+
+  private static Column column(String name) {
+    return new Column(bytes(name), bytes("value"), 1);
+  }
+
+  @Test
+  public void testGetColumn() {
+    assertNull(cache.getColumn("k", path("c")));
+    Column c = column("c");
+    cache.putColumn("k", path("c"), c, cache.getVersion("k"));
+    // Found by an equal path
+    assertEquals(c, cache.getColumn("k", path("c")));
+    assertNull(cache.getColumn("k", path("d")));
+    assertNull(cache.getColumn("k2", path("c")));
+    assertNull(cache.getColumn("k", new ColumnPath("Standard1", bytes("s"), bytes("c"))));
+    assertEquals(1, cache.getHits());
+    assertEquals(4, cache.getMisses());
+    assertEquals(1, monitor.getCacheHitCount());
+    assertEquals(4, monitor.getCacheMissCount());
+  }
+
+  @Test
+  public void testGetSlice() {
+    ColumnParent parent = new ColumnParent("Standard1", null);
+    SlicePredicate range = new SlicePredicate(null,
+        new SliceRange(bytes("a"), bytes("z"), false, 10));
+    SlicePredicate names = new SlicePredicate(Arrays.asList(bytes("a"), bytes("b")), null);
+    List<Column> slice = Arrays.asList(column("a"), column("b"));
+    cache.putSlice("k", parent, range, slice, cache.getVersion("k"));
+
+    List<Column> cached = cache.getSlice("k", parent,
+        new SlicePredicate(null, new SliceRange(bytes("a"), bytes("z"), false, 10)));
+    assertEquals(slice, cached);
+    // Each reader gets its own copy
+    assertNotSame(cached, cache.getSlice("k", parent, range));
+
+    assertNull(cache.getSlice("k", parent,
+        new SlicePredicate(null, new SliceRange(bytes("a"), bytes("z"), true, 10))));
+    assertNull(cache.getSlice("k", parent,
+        new SlicePredicate(null, new SliceRange(bytes("a"), bytes("z"), false, 5))));
+    assertNull(cache.getSlice("k", parent, names));
+    cache.putSlice("k", parent, names, slice, cache.getVersion("k"));
+    assertEquals(slice, cache.getSlice("k", parent,
+        new SlicePredicate(Arrays.asList(bytes("a"), bytes("b")), null)));
+  }
+
+  @Test
+  public void testExpire() {
+    cache.putColumn("k", path("c"), column("c"), cache.getVersion("k"));
+    now += 99;
+    assertEquals("c", new String(cache.getColumn("k", path("c")).getName()));
+    now += 1;
+    assertNull(cache.getColumn("k", path("c")));
+    assertEquals(1, cache.getEvictions());
+    assertEquals(1, monitor.getCacheEvictionCount());
+  }
+
+  @Test
+  public void testSweepExpired() {
+    cache.putColumn("k", path("c"), column("c"), cache.getVersion("k"));
+    now += 100;
+    // The put drops the expired result, which isn't read again
+    cache.putColumn("k", path("d"), column("d"), cache.getVersion("k"));
+    assertEquals(1, cache.getEvictions());
+    assertEquals("d", new String(cache.getColumn("k", path("d")).getName()));
+  }
+
+  @Test
+  public void testEvictResults() {
+    for (int i = 0; i <= ColumnFamilyCache.MAX_RESULTS_PER_ROW; ++i) {
+      cache.putColumn("k", path("c" + i), column("c" + i), cache.getVersion("k"));
+    }
+    assertEquals(1, cache.getEvictions());
+    assertNull(cache.getColumn("k", path("c0")));
+    assertEquals("c1", new String(cache.getColumn("k", path("c1")).getName()));
+  }
+
+  @Test
+  public void testCopies() {
+    Column c = column("c");
+    cache.putColumn("k", path("c"), c, cache.getVersion("k"));
+    c.setValue(bytes("changed"));
+    cache.getColumn("k", path("c")).setValue(bytes("changed"));
+    assertEquals("value", new String(cache.getColumn("k", path("c")).getValue()));
+
+    ColumnParent parent = new ColumnParent("Standard1", null);
+    SlicePredicate names = new SlicePredicate(Arrays.asList(bytes("a")), null);
+    List<Column> slice = new ArrayList<Column>(Arrays.asList(column("a")));
+    cache.putSlice("k", parent, names, slice, cache.getVersion("k"));
+    slice.get(0).setValue(bytes("changed"));
+    cache.getSlice("k", parent, names).get(0).setValue(bytes("changed"));
+    assertEquals("value", new String(cache.getSlice("k", parent, names).get(0).getValue()));
+  }
+
+  @Test
+  public void testInvalidate() {
+    cache.putColumn("k", path("c"), column("c"), cache.getVersion("k"));
+    cache.putColumn("k2", path("c"), column("c"), cache.getVersion("k2"));
+    cache.invalidate("k");
+    assertNull(cache.getColumn("k", path("c")));
+    assertEquals("c", new String(cache.getColumn("k2", path("c")).getName()));
+  }
+
+  @Test
+  public void testStaleRead() {
+    // The row is written while it's being read, so the value read may be from before the write
+    long version = cache.getVersion("k");
+    cache.invalidate("k");
+    cache.putColumn("k", path("c"), column("c"), version);
+    assertNull(cache.getColumn("k", path("c")));
+
+    // The next read is cached
+    cache.putColumn("k", path("c"), column("c"), cache.getVersion("k"));
+    assertEquals("c", new String(cache.getColumn("k", path("c")).getName()));
+  }
+
+  @Test
+  public void testNotFound() {
+    // Not cached unless a not found ttl is given
+    cache.putNotFound("k", path("c"), cache.getVersion("k"));
+    assertNull(cache.getColumn("k", path("c")));
+
+    cache = new ColumnFamilyCache("Keyspace1", "Standard1", 10, 0, 50, monitor) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+    cache.putNotFound("k", path("c"), cache.getVersion("k"));
+    assertSame(ColumnFamilyCache.NOT_FOUND, cache.getColumn("k", path("c")));
+    assertEquals(1, cache.getNotFoundHits());
+    assertEquals(1, monitor.getCacheNotFoundHitCount());
+    // ttl 0, found columns aren't cached
+    cache.putColumn("k", path("d"), column("d"), cache.getVersion("k"));
+    assertNull(cache.getColumn("k", path("d")));
+
+    now += 50;
+    assertNull(cache.getColumn("k", path("c")));
+
+    cache.putNotFound("k", path("c"), cache.getVersion("k"));
+    cache.invalidate("k");
+    assertNull(cache.getColumn("k", path("c")));
+  }
+
+  @Test
+  public void testEvictRows() {
+    cache = newCache(2);
+    cache.putColumn("k1", path("c"), column("c"), cache.getVersion("k1"));
+    cache.putColumn("k1", path("d"), column("d"), cache.getVersion("k1"));
+    cache.putColumn("k2", path("c"), column("c"), cache.getVersion("k2"));
+    // k1 is the most recently used
+    cache.getColumn("k1", path("c"));
+    cache.putColumn("k3", path("c"), column("c"), cache.getVersion("k3"));
+    assertEquals(2, cache.size());
+    assertNull(cache.getColumn("k2", path("c")));
+    assertEquals("c", new String(cache.getColumn("k1", path("c")).getName()));
+    assertEquals(1, cache.getEvictions());
+  }
+}
@@ -0,0 +1,122 @@
+package me.prettyprint.cassandra.service;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+import static me.prettyprint.cassandra.utils.StringUtils.string;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.apache.cassandra.service.SuperColumn;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class ColumnScannerTest {
+
+  private static final int NUM_COLUMNS = 25;
+
+  private Keyspace keyspace;
+  private final ColumnParent columnParent = new ColumnParent("Standard1", null);
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Before
+  public void setup() throws Exception {
+    keyspace = mock(Keyspace.class);
+    when(keyspace.getSlice(anyString(), (ColumnParent) anyObject(),
+        (SlicePredicate) anyObject())).thenAnswer(new Answer<List<Column>>() {
+          @Override
+          public List<Column> answer(InvocationOnMock invocation) throws Throwable {
+            calls.incrementAndGet();
+            SliceRange range = ((SlicePredicate) invocation.getArguments()[2]).getSlice_range();
+            List<Column> ret = new ArrayList<Column>();
+            for (String name : getNames(range)) {
+              ret.add(new Column(bytes(name), bytes("value"), 0));
+            }
+            return ret;
+          }
+        });
+    when(keyspace.getSuperSlice(anyString(), (ColumnParent) anyObject(),
+        (SlicePredicate) anyObject())).thenAnswer(new Answer<List<SuperColumn>>() {
+          @Override
+          public List<SuperColumn> answer(InvocationOnMock invocation) throws Throwable {
+            calls.incrementAndGet();
+            SliceRange range = ((SlicePredicate) invocation.getArguments()[2]).getSlice_range();
+            List<SuperColumn> ret = new ArrayList<SuperColumn>();
+            for (String name : getNames(range)) {
+              ret.add(new SuperColumn(bytes(name), new ArrayList<Column>()));
+            }
+            return ret;
+          }
+        });
+  }
+
+  /**
+   * The names c00 to c24 within the range, like cassandra's get_slice.
+   */
+  private static List<String> getNames(SliceRange range) {
+    String start = string(range.getStart());
+    String finish = string(range.getFinish());
+    List<String> ret = new ArrayList<String>();
+    for (int i = 0; i < NUM_COLUMNS && ret.size() < range.getCount(); ++i) {
+      String name = String.format("c%02d", range.isReversed() ? NUM_COLUMNS - 1 - i : i);
+      int fromStart = name.compareTo(start) * (range.isReversed() ? -1 : 1);
+      int toFinish = name.compareTo(finish) * (range.isReversed() ? -1 : 1);
+      if ((start.length() == 0 || fromStart >= 0) && (finish.length() == 0 || toFinish <= 0)) {
+        ret.add(name);
+      }
+    }
+    return ret;
+  }
+
+  @Test
+  public void testAllColumns() {
+    ColumnScanner scanner = new ColumnScanner(keyspace, "key", columnParent, 10);
+    for (int i = 0; i < NUM_COLUMNS; ++i) {
+      assertTrue(scanner.hasNext());
+      assertEquals(String.format("c%02d", i), string(scanner.next().getName()));
+    }
+    assertFalse(scanner.hasNext());
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testReversedRange() {
+    ColumnScanner scanner = new ColumnScanner(keyspace, "key", columnParent, bytes("c20"),
+        bytes("c05"), true, 4, 2);
+    for (int i = 20; i >= 5; --i) {
+      assertTrue(scanner.hasNext());
+      assertEquals(String.format("c%02d", i), string(scanner.next().getName()));
+    }
+    assertFalse(scanner.hasNext());
+    scanner.close();
+  }
+
+  @Test
+  public void testSuperColumns() {
+    SuperColumnScanner scanner = new SuperColumnScanner(keyspace, "key",
+        new ColumnParent("Super1", null), 7);
+    for (int i = 0; i < NUM_COLUMNS; ++i) {
+      assertTrue(scanner.hasNext());
+      assertEquals(String.format("c%02d", i), string(scanner.next().getName()));
+    }
+    assertFalse(scanner.hasNext());
+  }
+}
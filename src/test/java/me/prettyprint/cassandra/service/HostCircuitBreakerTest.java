@@ -0,0 +1,105 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class HostCircuitBreakerTest {
+
+  private CassandraHost cassandraHost;
+  private CassandraClientFactory clientFactory;
+  private long now = 1000000;
+
+  @Before
+  public void setup() {
+    cassandraHost = new CassandraHost("localhost", 9170);
+    cassandraHost.setCircuitBreakerConsecutiveFailures(3);
+    cassandraHost.setCircuitBreakerErrorRate(0.5);
+    cassandraHost.setCircuitBreakerProbeIntervalMillis(60000);
+    clientFactory = mock(CassandraClientFactory.class);
+  }
+
+  private HostCircuitBreaker createBreaker() {
+    return new HostCircuitBreaker(cassandraHost, clientFactory, new CassandraClientMonitor()) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+  }
+
+  @Test
+  public void testConsecutiveFailures() {
+    HostCircuitBreaker breaker = createBreaker();
+    breaker.recordFailure();
+    breaker.recordFailure();
+    breaker.recordSuccess();
+    breaker.recordFailure();
+    breaker.recordFailure();
+    assertTrue(breaker.allowRequest());
+    breaker.recordFailure();
+    assertFalse(breaker.allowRequest());
+    assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void testErrorRate() {
+    HostCircuitBreaker breaker = createBreaker();
+    for (int i = 0; i < HostCircuitBreaker.MIN_REQUESTS_IN_WINDOW / 2 - 1; ++i) {
+      breaker.recordSuccess();
+      breaker.recordFailure();
+    }
+    assertTrue(breaker.allowRequest());
+
+    // Old calls don't count
+    now += HostCircuitBreaker.WINDOW_MILLIS;
+    breaker.recordSuccess();
+    breaker.recordFailure();
+    assertTrue(breaker.allowRequest());
+
+    now += HostCircuitBreaker.WINDOW_MILLIS;
+    for (int i = 0; i < HostCircuitBreaker.MIN_REQUESTS_IN_WINDOW / 2; ++i) {
+      breaker.recordSuccess();
+      breaker.recordFailure();
+    }
+    assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void testProbe() throws Exception {
+    HostCircuitBreaker breaker = createBreaker();
+    for (int i = 0; i < 3; ++i) {
+      breaker.recordFailure();
+    }
+    doThrow(new TTransportException("down")).when(clientFactory).probe();
+    breaker.probe();
+    assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState());
+
+    doNothing().when(clientFactory).probe();
+    breaker.probe();
+    assertEquals(HostCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertTrue(breaker.allowRequest());
+
+    // A failure while half open opens the breaker right away
+    breaker.recordFailure();
+    assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState());
+
+    breaker.probe();
+    breaker.recordSuccess();
+    assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState());
+    breaker.recordFailure();
+    assertEquals(HostCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+}
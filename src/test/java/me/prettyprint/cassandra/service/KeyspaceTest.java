@@ -3,7 +3,10 @@ package me.prettyprint.cassandra.service;
 import static me.prettyprint.cassandra.utils.StringUtils.bytes;
 import static me.prettyprint.cassandra.utils.StringUtils.string;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyBoolean;
@@ -11,8 +14,10 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.times;
@@ -20,20 +25,28 @@ import static org.mockito.Mockito.times;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import me.prettyprint.cassandra.service.CassandraClient.FailoverPolicy;
 import me.prettyprint.cassandra.testutils.EmbeddedServerHelper;
+import me.prettyprint.cassandra.utils.DoubleSerializer;
+import me.prettyprint.cassandra.utils.LongSerializer;
 
+import org.apache.cassandra.dht.OrderPreservingPartitioner;
 import org.apache.cassandra.service.Cassandra;
 import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnOrSuperColumn;
 import org.apache.cassandra.service.ColumnParent;
 import org.apache.cassandra.service.ColumnPath;
 import org.apache.cassandra.service.InvalidRequestException;
+import org.apache.cassandra.service.KeySlice;
 import org.apache.cassandra.service.NotFoundException;
 import org.apache.cassandra.service.SlicePredicate;
 import org.apache.cassandra.service.SliceRange;
@@ -46,6 +59,8 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * For the tests we assume the following structure:
@@ -96,6 +111,92 @@ public class KeyspaceTest {
     keyspace = client.getKeyspace("Keyspace1", 1, CassandraClient.DEFAULT_FAILOVER_POLICY);
   }
 
+  @Test
+  public void testTypedInsertAndGet() throws Exception {
+    ColumnParent cp = new ColumnParent("Standard1", null);
+    for (long i = 0; i < 5; ++i) {
+      keyspace.insert("testTypedInsertAndGet", new ColumnPath("Standard1", null,
+          LongSerializer.get().toBytes(i)), i * 1.5, DoubleSerializer.get());
+    }
+    ColumnPath path = new ColumnPath("Standard1", null, LongSerializer.get().toBytes(3L));
+    assertEquals(Double.valueOf(4.5),
+        keyspace.getColumn("testTypedInsertAndGet", path, DoubleSerializer.get()));
+
+    SlicePredicate sp = new SlicePredicate(null,
+        new SliceRange(new byte[0], new byte[0], false, 100));
+    Map<Long, Double> slice = keyspace.getSlice("testTypedInsertAndGet", cp, sp,
+        LongSerializer.get(), DoubleSerializer.get());
+    assertEquals(5, slice.size());
+    assertEquals(Double.valueOf(6.0), slice.get(4L));
+
+    Map<String, Map<Long, Double>> slices = keyspace.multigetSlice(
+        Arrays.asList("testTypedInsertAndGet"), cp, sp, LongSerializer.get(),
+        DoubleSerializer.get());
+    assertEquals(slice, slices.get("testTypedInsertAndGet"));
+
+    keyspace.remove("testTypedInsertAndGet", new ColumnPath("Standard1", null, null));
+  }
+
+  @Test
+  public void testColumnFamilyCache() throws Exception {
+    ColumnFamilyCache cache = new ColumnFamilyCache("Keyspace1", "Standard1", 100, 60000,
+        new CassandraClientMonitor());
+    when(pools.getColumnFamilyCache("Keyspace1", "Standard1")).thenReturn(cache);
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testColumnFamilyCache"));
+    keyspace.insert("testColumnFamilyCache", cp, bytes("v1"));
+
+    assertEquals("v1", string(keyspace.getColumn("testColumnFamilyCache", cp).getValue()));
+    assertEquals("v1", string(keyspace.getColumn("testColumnFamilyCache", cp).getValue()));
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+
+    SlicePredicate sp = new SlicePredicate(null,
+        new SliceRange(new byte[0], new byte[0], false, 100));
+    ColumnParent parent = new ColumnParent("Standard1", null);
+    assertEquals(1, keyspace.getSlice("testColumnFamilyCache", parent, sp).size());
+    assertEquals(1, keyspace.getSlice("testColumnFamilyCache", parent, sp).size());
+    assertEquals(2, cache.getHits());
+
+    // A write invalidates the row
+    keyspace.insert("testColumnFamilyCache", cp, bytes("v2"));
+    assertEquals(0, cache.size());
+    assertEquals("v2", string(keyspace.getColumn("testColumnFamilyCache", cp).getValue()));
+    assertEquals(3, cache.getMisses());
+
+    keyspace.remove("testColumnFamilyCache", cp);
+    try {
+      keyspace.getColumn("testColumnFamilyCache", cp);
+      fail("the column was removed");
+    } catch (NotFoundException e) {
+      // ok
+    }
+  }
+
+  @Test
+  public void testNotFoundCache() throws Exception {
+    ColumnFamilyCache cache = new ColumnFamilyCache("Keyspace1", "Standard1", 100, 0, 60000,
+        new CassandraClientMonitor());
+    when(pools.getColumnFamilyCache("Keyspace1", "Standard1")).thenReturn(cache);
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testNotFoundCache"));
+
+    assertNull(keyspace.getColumnOrNull("testNotFoundCache", cp));
+    assertNull(keyspace.getColumnOrNull("testNotFoundCache", cp));
+    try {
+      keyspace.getColumn("testNotFoundCache", cp);
+      fail("the column doesn't exist");
+    } catch (NotFoundException e) {
+      // ok
+    }
+    assertEquals(1, cache.getMisses());
+    assertEquals(2, cache.getNotFoundHits());
+
+    // A write invalidates the miss
+    keyspace.insert("testNotFoundCache", cp, bytes("v"));
+    assertEquals("v", string(keyspace.getColumnOrNull("testNotFoundCache", cp).getValue()));
+    keyspace.remove("testNotFoundCache", cp);
+    assertNull(keyspace.getColumnOrNull("testNotFoundCache", cp));
+  }
+
   @Test
   public void testInsertAndGetAndRemove() throws IllegalArgumentException, NoSuchElementException,
       IllegalStateException, NotFoundException, Exception {
@@ -562,6 +663,34 @@ public class KeyspaceTest {
     keyspace.remove("testGetRanageSlice2", cp);
   }
 
+  @Test
+  public void testRowScanner() throws InvalidRequestException, UnavailableException, TException,
+      TimedOutException {
+    ColumnPath cp = new ColumnPath("Standard2", null, bytes("testRowScanner"));
+    for (int i = 0; i < 10; i++) {
+      keyspace.insert("testRowScanner" + i, cp, bytes("testRowScanner_Value_" + i));
+    }
+
+    ColumnParent clp = new ColumnParent("Standard2", null);
+    SliceRange sr = new SliceRange(new byte[0], new byte[0], false, 150);
+    SlicePredicate sp = new SlicePredicate(null, sr);
+    RowScanner scanner = new RowScanner(keyspace, clp, sp, "testRowScanner0", "testRowScanner9",
+        3);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(scanner.hasNext());
+      KeySlice row = scanner.next();
+      assertEquals("testRowScanner" + i, row.getKey());
+      assertEquals("testRowScanner_Value_" + i,
+          string(row.getColumns().get(0).getColumn().getValue()));
+    }
+    assertFalse(scanner.hasNext());
+    scanner.close();
+
+    for (int i = 0; i < 10; i++) {
+      keyspace.remove("testRowScanner" + i, cp);
+    }
+  }
+
   @Test
   public void testGetSuperRangeSlice() throws InvalidRequestException, UnavailableException, TException,
       TimedOutException, NotFoundException {
@@ -764,4 +893,417 @@ public class KeyspaceTest {
     // Now run another insert on the same keyspace to make sure it can handle next writes.
     ks.insert("key2", cp, bytes("value2"));
   }
+
+  @Test
+  public void testTokenAwareRouting() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient h1client = mock(CassandraClient.class);
+    CassandraClient h2client = mock(CassandraClient.class);
+    Cassandra.Client h1cassandra = mock(Cassandra.Client.class);
+    Cassandra.Client h2cassandra = mock(Cassandra.Client.class);
+    Map<String, Map<String, String>> keyspaceDesc = new HashMap<String, Map<String, String>>();
+    Map<String, String> keyspace1Desc = new HashMap<String, String>();
+    keyspace1Desc.put(Keyspace.CF_TYPE, Keyspace.CF_TYPE_STANDARD);
+    keyspaceDesc.put("Standard1", keyspace1Desc);
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testTokenAwareRouting"));
+    CassandraClientPool clientPools = mock(CassandraClientPool.class);
+    CassandraClientMonitor monitor = mock(CassandraClientMonitor.class);
+
+    // h1 owns keys up to "m", h2 owns the rest
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put("m", "h1");
+    tokenMap.put("z", "h2");
+
+    when(h1client.getCassandra()).thenReturn(h1cassandra);
+    when(h2client.getCassandra()).thenReturn(h2cassandra);
+    when(h1client.getTokenMap(anyBoolean())).thenReturn(tokenMap);
+    doReturn(new OrderPreservingPartitioner()).when(h1client).getPartitioner();
+    when(h1client.getPort()).thenReturn(111);
+    when(h1client.getUrl()).thenReturn("h1");
+    when(h1client.getIp()).thenReturn("ip1");
+    when(clientPools.borrowClient("h2", 111)).thenReturn(h2client);
+    when(clientPools.isTokenAwareRouting()).thenReturn(true);
+
+    Keyspace ks = new KeyspaceImpl(h1client, "Keyspace1", keyspaceDesc, 1,
+        FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE, clientPools, monitor);
+
+    // "a" is owned by h1, the keyspace's own host
+    ks.insert("a", cp, bytes("value"));
+    verify(h1cassandra).insert(anyString(), anyString(), (ColumnPath) anyObject(),
+        (byte[]) anyObject(), anyLong(), anyInt());
+
+    // "x" is owned by h2
+    ks.insert("x", cp, bytes("value"));
+    verify(h2cassandra).insert(anyString(), anyString(), (ColumnPath) anyObject(),
+        (byte[]) anyObject(), anyLong(), anyInt());
+    verify(clientPools).releaseClient(h2client);
+
+    // when h2 fails, fall back to h1
+    doThrow(new TTransportException()).when(h2cassandra).insert(anyString(), anyString(),
+        (ColumnPath) anyObject(), (byte[]) anyObject(), anyLong(), anyInt());
+    ks.insert("y", cp, bytes("value"));
+    verify(clientPools).invalidateClient(h2client);
+    verify(h1cassandra, times(2)).insert(anyString(), anyString(), (ColumnPath) anyObject(),
+        (byte[]) anyObject(), anyLong(), anyInt());
+  }
+
+  @Test
+  public void testSpeculativeRead() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient h1client = mock(CassandraClient.class);
+    CassandraClient h2client = mock(CassandraClient.class);
+    Cassandra.Client h1cassandra = mock(Cassandra.Client.class);
+    Cassandra.Client h2cassandra = mock(Cassandra.Client.class);
+    Map<String, Map<String, String>> keyspaceDesc = new HashMap<String, Map<String, String>>();
+    Map<String, String> keyspace1Desc = new HashMap<String, String>();
+    keyspace1Desc.put(Keyspace.CF_TYPE, Keyspace.CF_TYPE_STANDARD);
+    keyspaceDesc.put("Standard1", keyspace1Desc);
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testSpeculativeRead"));
+    CassandraClientPool clientPools = mock(CassandraClientPool.class);
+    CassandraClientMonitor monitor = new CassandraClientMonitor();
+
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put("t1", "h1");
+    tokenMap.put("t2", "h2");
+
+    when(h1client.getCassandra()).thenReturn(h1cassandra);
+    when(h2client.getCassandra()).thenReturn(h2cassandra);
+    when(h1client.getTokenMap(anyBoolean())).thenReturn(tokenMap);
+    when(h1client.getPort()).thenReturn(111);
+    when(h1client.getUrl()).thenReturn("h1");
+    when(h1client.getIp()).thenReturn("ip1");
+    when(h2client.getUrl()).thenReturn("h2");
+    when(clientPools.borrowClient("h2", 111)).thenReturn(h2client);
+    when(clientPools.getSpeculativeReadPolicy()).thenReturn(
+        SpeculativeReadPolicy.fixedDelay(10));
+
+    // h1 is slow to answer, h2 is fast
+    final ColumnOrSuperColumn slowAnswer = new ColumnOrSuperColumn(
+        new Column(bytes("testSpeculativeRead"), bytes("h1"), 0), null);
+    when(h1cassandra.get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt())).thenAnswer(
+        new Answer<ColumnOrSuperColumn>() {
+          @Override
+          public ColumnOrSuperColumn answer(InvocationOnMock invocation) throws Throwable {
+            Thread.sleep(200);
+            return slowAnswer;
+          }
+        });
+    when(h2cassandra.get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt())).thenReturn(
+        new ColumnOrSuperColumn(new Column(bytes("testSpeculativeRead"), bytes("h2"), 0), null));
+
+    Keyspace ks = new KeyspaceImpl(h1client, "Keyspace1", keyspaceDesc, 1,
+        FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE, clientPools, monitor);
+
+    Column column = ks.getColumn("key", cp);
+    assertEquals("h2", string(column.getValue()));
+    assertSame(h2client, ks.getClient());
+    assertEquals(1, monitor.getSpeculativeReadCount());
+    assertEquals(1, monitor.getSpeculativeReadWinCount());
+    assertTrue(monitor.getOperationLatencies().containsKey("get"));
+    assertTrue(monitor.getHostLatencies().containsKey("h2"));
+    assertTrue(monitor.getOperationLatencyMax("get") >= 10000);
+    assertEquals(1, monitor.getReadSuccess());
+
+    // The slow h1 client is returned to the pool once its read completes
+    Thread.sleep(400);
+    verify(clientPools).releaseClient(h1client);
+
+    // Writes are never hedged
+    ks.insert("key", cp, bytes("value"));
+    verify(h2cassandra).insert(anyString(), anyString(), (ColumnPath) anyObject(),
+        (byte[]) anyObject(), anyLong(), anyInt());
+    assertEquals(1, monitor.getSpeculativeReadCount());
+    assertEquals(1, monitor.getWriteSuccess());
+  }
+
+  @Test
+  public void testSpeculativeReadFailover() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient h1client = mock(CassandraClient.class);
+    CassandraClient h2client = mock(CassandraClient.class);
+    CassandraClient h3client = mock(CassandraClient.class);
+    Cassandra.Client h1cassandra = mock(Cassandra.Client.class);
+    Cassandra.Client h2cassandra = mock(Cassandra.Client.class);
+    Cassandra.Client h3cassandra = mock(Cassandra.Client.class);
+    Map<String, Map<String, String>> keyspaceDesc = new HashMap<String, Map<String, String>>();
+    Map<String, String> keyspace1Desc = new HashMap<String, String>();
+    keyspace1Desc.put(Keyspace.CF_TYPE, Keyspace.CF_TYPE_STANDARD);
+    keyspaceDesc.put("Standard1", keyspace1Desc);
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testSpeculativeReadFailover"));
+    CassandraClientPool clientPools = mock(CassandraClientPool.class);
+    CassandraClientMonitor monitor = new CassandraClientMonitor();
+
+    Map<String, String> tokenMap = new LinkedHashMap<String, String>();
+    tokenMap.put("t1", "h1");
+    tokenMap.put("t2", "h2");
+    tokenMap.put("t3", "h3");
+
+    when(h1client.getCassandra()).thenReturn(h1cassandra);
+    when(h2client.getCassandra()).thenReturn(h2cassandra);
+    when(h3client.getCassandra()).thenReturn(h3cassandra);
+    when(h1client.getTokenMap(anyBoolean())).thenReturn(tokenMap);
+    when(h1client.getPort()).thenReturn(111);
+    when(h1client.getUrl()).thenReturn("h1");
+    when(h1client.getIp()).thenReturn("ip1");
+    when(h2client.getPort()).thenReturn(111);
+    when(h2client.getUrl()).thenReturn("h2");
+    when(h2client.getIp()).thenReturn("ip2");
+    when(h3client.getUrl()).thenReturn("h3");
+    when(clientPools.borrowClient("h2", 111)).thenReturn(h2client);
+    when(clientPools.borrowClient("h3", 111)).thenReturn(h3client);
+    when(clientPools.getSpeculativeReadPolicy()).thenReturn(
+        SpeculativeReadPolicy.fixedDelay(10));
+
+    // h1 is slow and times out, the hedged read on h2 times out as well, h3 answers
+    when(h1cassandra.get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt())).thenAnswer(
+        new Answer<ColumnOrSuperColumn>() {
+          @Override
+          public ColumnOrSuperColumn answer(InvocationOnMock invocation) throws Throwable {
+            Thread.sleep(100);
+            throw new TimedOutException();
+          }
+        });
+    when(h2cassandra.get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt()))
+        .thenThrow(new TimedOutException());
+    when(h3cassandra.get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt())).thenReturn(
+        new ColumnOrSuperColumn(new Column(bytes("testSpeculativeReadFailover"), bytes("h3"), 0),
+        null));
+
+    Keyspace ks = new KeyspaceImpl(h1client, "Keyspace1", keyspaceDesc, 1,
+        FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE, clientPools, monitor);
+
+    assertEquals("h3", string(ks.getColumn("key", cp).getValue()));
+    assertSame(h3client, ks.getClient());
+    // Each host was tried once, the failed clients were invalidated
+    verify(h1cassandra).get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt());
+    verify(h2cassandra).get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt());
+    verify(clientPools, never()).borrowClient("h1", 111);
+    verify(clientPools).invalidateClient(h1client);
+    verify(clientPools).invalidateClient(h2client);
+    assertEquals(1, monitor.getSpeculativeReadCount());
+    assertEquals(1, monitor.getRecoverableTimedOutCount());
+  }
+
+  @Test
+  public void testRetryPolicy() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient h1client = mock(CassandraClient.class);
+    Cassandra.Client h1cassandra = mock(Cassandra.Client.class);
+    Map<String, Map<String, String>> keyspaceDesc = new HashMap<String, Map<String, String>>();
+    Map<String, String> keyspace1Desc = new HashMap<String, String>();
+    keyspace1Desc.put(Keyspace.CF_TYPE, Keyspace.CF_TYPE_STANDARD);
+    keyspaceDesc.put("Standard1", keyspace1Desc);
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("testRetryPolicy"));
+    CassandraClientPool clientPools = mock(CassandraClientPool.class);
+    CassandraClientMonitor monitor = new CassandraClientMonitor();
+
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put("t1", "h1");
+    tokenMap.put("t2", "h2");
+
+    when(h1client.getCassandra()).thenReturn(h1cassandra);
+    when(h1client.getTokenMap(anyBoolean())).thenReturn(tokenMap);
+    when(h1client.getPort()).thenReturn(111);
+    when(h1client.getUrl()).thenReturn("h1");
+    when(h1client.getIp()).thenReturn("ip1");
+    // The first retry is on the same host
+    when(clientPools.borrowClient("h1", 111)).thenReturn(h1client);
+    // One retry in a burst, then a retry every other operation
+    RetryPolicy retryPolicy = RetryPolicy.noBackoff();
+    retryPolicy.setRetryBudget(0.5, 1);
+    when(clientPools.getRetryPolicy()).thenReturn(retryPolicy);
+
+    ColumnOrSuperColumn answer = new ColumnOrSuperColumn(
+        new Column(bytes("testRetryPolicy"), bytes("value"), 0), null);
+    when(h1cassandra.get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt()))
+        .thenThrow(new TimedOutException()).thenReturn(answer)
+        .thenThrow(new TimedOutException())
+        .thenThrow(new TimedOutException()).thenReturn(answer);
+
+    Keyspace ks = new KeyspaceImpl(h1client, "Keyspace1", keyspaceDesc, 1,
+        FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE, clientPools, monitor);
+
+    // Retried with the burst token
+    assertEquals("value", string(ks.getColumn("key", cp).getValue()));
+    // The budget has half a token, so the retry is suppressed
+    try {
+      ks.getColumn("key", cp);
+      fail("The retry should be suppressed");
+    } catch (TimedOutException e) {
+      // ok
+    }
+    assertEquals(1, monitor.getNumSuppressedRetries());
+    // A whole token again
+    assertEquals("value", string(ks.getColumn("key", cp).getValue()));
+    assertEquals(2, retryPolicy.getNumRetries());
+    assertEquals(1, retryPolicy.getNumSuppressedRetries());
+    assertEquals(2, monitor.getRecoverableTimedOutCount());
+
+    // Timeouts aren't retried at all
+    retryPolicy.setRetryTimedOut(false);
+    when(h1cassandra.get(anyString(), anyString(), (ColumnPath) anyObject(), anyInt()))
+        .thenThrow(new TimedOutException());
+    try {
+      ks.getColumn("key", cp);
+      fail("Timeouts shouldn't be retried");
+    } catch (TimedOutException e) {
+      // ok
+    }
+    assertEquals(2, monitor.getNumSuppressedRetries());
+    verify(h1cassandra, times(6)).get(anyString(), anyString(), (ColumnPath) anyObject(),
+        anyInt());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testMultigetSplit() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient h1client = mock(CassandraClient.class);
+    CassandraClient h2client = mock(CassandraClient.class);
+    Keyspace h1ks = mock(Keyspace.class);
+    Keyspace h2ks = mock(Keyspace.class);
+    Map<String, Map<String, String>> keyspaceDesc = new HashMap<String, Map<String, String>>();
+    ColumnParent clp = new ColumnParent("Standard1", null);
+    SlicePredicate sp = new SlicePredicate();
+    CassandraClientPool clientPools = mock(CassandraClientPool.class);
+    CassandraClientMonitor monitor = mock(CassandraClientMonitor.class);
+
+    // h1 owns keys up to "m", h2 owns the rest
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put("m", "h1");
+    tokenMap.put("z", "h2");
+
+    when(h1client.getTokenMap(anyBoolean())).thenReturn(tokenMap);
+    doReturn(new OrderPreservingPartitioner()).when(h1client).getPartitioner();
+    when(h1client.getPort()).thenReturn(111);
+    when(h1client.getUrl()).thenReturn("h1");
+    when(clientPools.borrowClient("h1", 111)).thenReturn(h1client);
+    when(clientPools.borrowClient("h2", 111)).thenReturn(h2client);
+    when(h1client.getKeyspace("Keyspace1", 1, FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE))
+        .thenReturn(h1ks);
+    when(h2client.getKeyspace("Keyspace1", 1, FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE))
+        .thenReturn(h2ks);
+    when(h1ks.getClient()).thenReturn(h1client);
+    when(h2ks.getClient()).thenReturn(h2client);
+    MultigetAnswer h1answer = new MultigetAnswer("h1");
+    MultigetAnswer h2answer = new MultigetAnswer("h2");
+    when(h1ks.multigetSlice((List<String>) anyObject(), (ColumnParent) anyObject(),
+        (SlicePredicate) anyObject())).thenAnswer(h1answer);
+    when(h2ks.multigetSlice((List<String>) anyObject(), (ColumnParent) anyObject(),
+        (SlicePredicate) anyObject())).thenAnswer(h2answer);
+
+    Keyspace ks = new KeyspaceImpl(h1client, "Keyspace1", keyspaceDesc, 1,
+        FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE, clientPools, monitor);
+    List<String> keys = Arrays.asList("a", "b", "c", "x", "y");
+
+    // Split by owner: [a, b] and [c] go to h1, [x, y] goes to h2
+    when(clientPools.getMultigetSplitPolicy()).thenReturn(MultigetSplitPolicy.byTokenOwner(2, 2));
+    Map<String, List<Column>> result = ks.multigetSlice(keys, clp, sp);
+    assertEquals(5, result.size());
+    for (String key : keys) {
+      String expectedHost = key.compareTo("m") < 0 ? "h1" : "h2";
+      assertEquals(expectedHost, string(result.get(key).get(0).getValue()));
+    }
+    assertEquals(2, h1answer.calls.get());
+    assertEquals(1, h2answer.calls.get());
+    verify(clientPools, times(2)).releaseClient(h1client);
+    verify(clientPools).releaseClient(h2client);
+
+    // Fixed chunks: [a, b], [c, x] and [y] spread over both hosts
+    when(clientPools.getMultigetSplitPolicy()).thenReturn(MultigetSplitPolicy.fixedChunks(2, 1));
+    result = ks.multigetSlice(keys, clp, sp);
+    assertEquals(5, result.size());
+    assertEquals(6, h1answer.calls.get() + h2answer.calls.get());
+
+    // Small multigets aren't split
+    when(clientPools.getMultigetSplitPolicy()).thenReturn(MultigetSplitPolicy.fixedChunks(10, 1));
+    Cassandra.Client h1cassandra = mock(Cassandra.Client.class);
+    when(h1client.getCassandra()).thenReturn(h1cassandra);
+    when(h1cassandra.multiget_slice(anyString(), (List<String>) anyObject(),
+        (ColumnParent) anyObject(), (SlicePredicate) anyObject(), anyInt())).thenReturn(
+        new HashMap<String, List<ColumnOrSuperColumn>>());
+    ks.multigetSlice(keys, clp, sp);
+    verify(h1cassandra).multiget_slice(anyString(), (List<String>) anyObject(),
+        (ColumnParent) anyObject(), (SlicePredicate) anyObject(), anyInt());
+    assertEquals(6, h1answer.calls.get() + h2answer.calls.get());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testMultigetSplitErrors() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient h1client = mock(CassandraClient.class);
+    CassandraClient h2client = mock(CassandraClient.class);
+    Keyspace h1ks = mock(Keyspace.class);
+    Map<String, Map<String, String>> keyspaceDesc = new HashMap<String, Map<String, String>>();
+    ColumnParent clp = new ColumnParent("Standard1", null);
+    SlicePredicate sp = new SlicePredicate();
+    CassandraClientPool clientPools = mock(CassandraClientPool.class);
+    CassandraClientMonitor monitor = mock(CassandraClientMonitor.class);
+
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put("m", "h1");
+    tokenMap.put("z", "h2");
+
+    when(h1client.getTokenMap(anyBoolean())).thenReturn(tokenMap);
+    doReturn(new OrderPreservingPartitioner()).when(h1client).getPartitioner();
+    when(h1client.getPort()).thenReturn(111);
+    when(h1client.getUrl()).thenReturn("h1");
+    when(clientPools.borrowClient("h1", 111)).thenReturn(h1client);
+    when(clientPools.borrowClient("h2", 111)).thenReturn(h2client);
+    when(clientPools.getMultigetSplitPolicy()).thenReturn(MultigetSplitPolicy.byTokenOwner(1, 1));
+    when(h1client.getKeyspace("Keyspace1", 1, FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE))
+        .thenReturn(h1ks);
+    when(h1ks.getClient()).thenReturn(h1client);
+    when(h1ks.multigetSlice((List<String>) anyObject(), (ColumnParent) anyObject(),
+        (SlicePredicate) anyObject())).thenAnswer(new MultigetAnswer("h1"));
+    TException describeError = new TException("Unable to describe keyspace");
+    when(h2client.getKeyspace("Keyspace1", 1, FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE))
+        .thenThrow(describeError);
+
+    Keyspace ks = new KeyspaceImpl(h1client, "Keyspace1", keyspaceDesc, 1,
+        FailoverPolicy.ON_FAIL_TRY_ALL_AVAILABLE, clientPools, monitor);
+
+    // The client of a chunk whose keyspace can't be obtained is released
+    try {
+      ks.multigetSlice(Arrays.asList("a", "x"), clp, sp);
+      fail("The chunk of x should fail");
+    } catch (TException e) {
+      assertSame(describeError, e);
+    }
+    verify(clientPools).releaseClient(h2client);
+
+    // Bugs aren't reported as an unavailable cluster
+    doThrow(new IllegalArgumentException("bug")).when(h1ks).multigetSlice(
+        (List<String>) anyObject(), (ColumnParent) anyObject(), (SlicePredicate) anyObject());
+    try {
+      ks.multigetSlice(Arrays.asList("a", "b"), clp, sp);
+      fail("The chunks should fail");
+    } catch (IllegalArgumentException e) {
+      assertEquals("bug", e.getMessage());
+    }
+  }
+
+  /**
+   * Answers a multigetSlice with a column per key, whose value is the name of the host.
+   */
+  private static class MultigetAnswer implements Answer<Map<String, List<Column>>> {
+    final String host;
+    final AtomicInteger calls = new AtomicInteger();
+
+    MultigetAnswer(String host) {
+      this.host = host;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<String, List<Column>> answer(InvocationOnMock invocation) throws Throwable {
+      calls.incrementAndGet();
+      Map<String, List<Column>> ret = new HashMap<String, List<Column>>();
+      for (String key : (List<String>) invocation.getArguments()[0]) {
+        ret.put(key, Arrays.asList(new Column(bytes("c"), bytes(host), 0)));
+      }
+      return ret;
+    }
+  }
 }
@@ -0,0 +1,82 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class LatencyHistogramTest {
+
+  private long now = 1000000;
+
+  private LatencyHistogram createHistogram() {
+    return new LatencyHistogram(60000, 6) {
+      @Override
+      protected long currentTimeMillis() {
+        return now;
+      }
+    };
+  }
+
+  @Test
+  public void testBuckets() {
+    for (long v = 0; v < 100000; ++v) {
+      int index = LatencyHistogram.bucketIndex(v);
+      assertTrue(v <= LatencyHistogram.bucketUpperBound(index));
+      if (index > 0) {
+        assertTrue(v > LatencyHistogram.bucketUpperBound(index - 1));
+      }
+    }
+    assertEquals(LatencyHistogram.NUM_BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = createHistogram();
+    assertEquals(0, histogram.getSnapshot().getPercentile(99));
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.record(i);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(1000, snapshot.getMax());
+    assertWithin(500, snapshot.getPercentile(50));
+    assertWithin(950, snapshot.getPercentile(95));
+    assertWithin(990, snapshot.getPercentile(99));
+    assertEquals(1000, snapshot.getPercentile(99.9));
+    assertEquals(1000, snapshot.getPercentile(100));
+  }
+
+  @Test
+  public void testRollingWindow() {
+    LatencyHistogram histogram = createHistogram();
+    histogram.record(5000);
+    now += 30000;
+    histogram.record(10);
+    assertEquals(2, histogram.getSnapshot().getCount());
+    assertEquals(5000, histogram.getSnapshot().getMax());
+
+    // The first value is out of the window
+    now += 35000;
+    assertEquals(1, histogram.getSnapshot().getCount());
+    assertEquals(10, histogram.getSnapshot().getMax());
+
+    // The interval of the first value is reused
+    histogram.record(20);
+    assertEquals(2, histogram.getSnapshot().getCount());
+    assertEquals(20, histogram.getSnapshot().getMax());
+
+    now += 60000;
+    assertEquals(0, histogram.getSnapshot().getCount());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("Expected about " + expected + " but was " + actual,
+        actual >= expected && actual <= expected * 1.125);
+  }
+}
@@ -0,0 +1,82 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class LoadBalancingPolicyTest {
+
+  private final List<String> hosts = Arrays.asList("h1:9160", "h2:9160", "h3:9160");
+
+  @Test
+  public void testRoundRobin() {
+    LoadBalancingPolicy policy = new RoundRobinLoadBalancingPolicy();
+    for (int i = 0; i < 9; ++i) {
+      assertEquals(hosts.get(i % 3), policy.selectHost(hosts, null));
+    }
+  }
+
+  @Test
+  public void testLeastActive() {
+    CassandraClientPool pool = mock(CassandraClientPool.class);
+    when(pool.getNumActive("h1:9160")).thenReturn(5);
+    when(pool.getNumActive("h2:9160")).thenReturn(1);
+    when(pool.getNumActive("h3:9160")).thenReturn(3);
+    LoadBalancingPolicy policy = new LeastActiveLoadBalancingPolicy();
+    for (int i = 0; i < 5; ++i) {
+      assertEquals("h2:9160", policy.selectHost(hosts, pool));
+    }
+
+    // Ties are broken in turns
+    when(pool.getNumActive("h3:9160")).thenReturn(1);
+    Set<String> selected = new HashSet<String>();
+    for (int i = 0; i < 5; ++i) {
+      selected.add(policy.selectHost(hosts, pool));
+    }
+    assertEquals(new HashSet<String>(Arrays.asList("h2:9160", "h3:9160")), selected);
+  }
+
+  @Test
+  public void testLatencyAware() {
+    final long[] now = new long[] { 1000000 };
+    LatencyAwareLoadBalancingPolicy policy = new LatencyAwareLoadBalancingPolicy(0.5, 1000) {
+      @Override
+      protected long currentTimeMillis() {
+        return now[0];
+      }
+    };
+    policy.recordLatency("h1:9160", 1000);
+    policy.recordLatency("h2:9160", 200);
+    // h3 is unknown, so it's tried first
+    assertEquals("h3:9160", policy.selectHost(hosts, null));
+    policy.recordLatency("h3:9160", 5000);
+    assertEquals("h2:9160", policy.selectHost(hosts, null));
+
+    // A few slow calls make h2 worse than h1
+    policy.recordLatency("h2:9160", 3000);
+    policy.recordLatency("h2:9160", 3000);
+    assertEquals(2300, policy.getScore("h2:9160", now[0]), 0.001);
+    assertEquals("h1:9160", policy.selectHost(hosts, null));
+
+    // Scores decay while a host isn't called
+    now[0] += 1000;
+    assertEquals(500, policy.getScore("h1:9160", now[0]), 0.001);
+    now[0] += 2000;
+    assertEquals(625, policy.getScore("h3:9160", now[0]), 0.001);
+    policy.recordLatency("h1:9160", 1000);
+    policy.recordLatency("h2:9160", 1000);
+    assertEquals("h3:9160", policy.selectHost(hosts, null));
+  }
+}
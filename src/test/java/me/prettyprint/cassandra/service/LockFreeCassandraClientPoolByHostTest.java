@@ -0,0 +1,283 @@
+package me.prettyprint.cassandra.service;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class LockFreeCassandraClientPoolByHostTest {
+
+  private CassandraClientPoolByHost pool;
+  private CassandraClientFactory factory;
+  private CassandraClientPool poolStore;
+  private CassandraHost cassandraHost;
+
+  @Before
+  public void setupTest() throws Exception {
+    factory = mock(CassandraClientFactory.class);
+    poolStore = mock(CassandraClientPool.class);
+    when(factory.makeObject()).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return mock(CassandraClient.class);
+      }
+    });
+    when(factory.validateObject(anyObject())).thenReturn(true);
+    cassandraHost = new CassandraHost("url", 1111);
+    cassandraHost.setMaxActive(50);
+    cassandraHost.setMaxWaitTimeWhenExhausted(10000);
+    cassandraHost.setMaxIdle(5);
+    cassandraHost.setExhaustedPolicy(ExhaustedPolicy.WHEN_EXHAUSTED_FAIL);
+    cassandraHost.setLockFreePool(true);
+    pool = createPool();
+  }
+
+  private CassandraClientPoolByHost createPool() {
+    return new LockFreeCassandraClientPoolByHostImpl(cassandraHost, poolStore,
+        new CassandraClientMonitor(), factory);
+  }
+
+  @Test
+  public void testAddIdleClient() throws Exception {
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(pool.addIdleClient());
+    }
+    // maxIdle reached
+    assertFalse(pool.addIdleClient());
+    assertEquals(5, pool.getNumIdle());
+    assertEquals(0, pool.getNumActive());
+    assertEquals(5, pool.getLiveClients().size());
+
+    CassandraClient c = pool.borrowClient();
+    assertTrue(pool.getLiveClients().contains(c));
+    assertEquals(4, pool.getNumIdle());
+  }
+
+  @Test
+  public void testEvictIdleClients() throws Exception {
+    cassandraHost.setIdleEvictionIntervalMillis(0);
+    LockFreeCassandraClientPoolByHostImpl pool =
+        (LockFreeCassandraClientPoolByHostImpl) createPool();
+    CassandraClient broken = pool.borrowClient();
+    CassandraClient valid = pool.borrowClient();
+    when(factory.validateIdleClient(broken)).thenReturn(false);
+    when(factory.validateIdleClient(valid)).thenReturn(true);
+    pool.releaseClient(broken);
+    pool.releaseClient(valid);
+    assertEquals(2, pool.getNumIdle());
+
+    pool.evictIdleClients();
+    assertEquals(1, pool.getNumIdle());
+    verify(factory).destroyObject(broken);
+    verify(factory, never()).destroyObject(valid);
+    assertSame(valid, pool.borrowClient());
+  }
+
+  @Test
+  public void testEvictClientsIdleTooLong() throws Exception {
+    cassandraHost.setIdleEvictionIntervalMillis(0);
+    cassandraHost.setMaxIdleTimeMillis(10);
+    LockFreeCassandraClientPoolByHostImpl pool =
+        (LockFreeCassandraClientPoolByHostImpl) createPool();
+    when(factory.validateIdleClient((CassandraClient) anyObject())).thenReturn(true);
+    CassandraClient client = pool.borrowClient();
+    pool.releaseClient(client);
+    pool.evictIdleClients();
+    assertEquals(1, pool.getNumIdle());
+
+    Thread.sleep(20);
+    pool.evictIdleClients();
+    assertEquals(0, pool.getNumIdle());
+    verify(factory).destroyObject(client);
+  }
+
+  @Test
+  public void testCounters() throws IllegalStateException, PoolExhaustedException, Exception {
+    assertEquals(0, pool.getNumIdle());
+    assertEquals(50, pool.getNumBeforeExhausted());
+    assertEquals(0, pool.getNumActive());
+
+    // now borrow one client
+    CassandraClient c = pool.borrowClient();
+    assertEquals(0, pool.getNumIdle());
+    assertEquals(49, pool.getNumBeforeExhausted());
+    assertEquals(1, pool.getNumActive());
+
+    // And release it
+    pool.releaseClient(c);
+    assertEquals(1, pool.getNumIdle());
+    assertEquals(50, pool.getNumBeforeExhausted());
+    assertEquals(0, pool.getNumActive());
+
+    // The idle client is reused
+    assertSame(c, pool.borrowClient());
+  }
+
+  @Test
+  public void testIdleClientsDontExceedMaxActive() throws Exception {
+    cassandraHost.setMaxActive(2);
+    pool = createPool();
+    pool.borrowClient();
+    // Idle clients added while there's a free slot
+    assertTrue(pool.addIdleClient());
+    assertTrue(pool.addIdleClient());
+    pool.borrowClient();
+    try {
+      pool.borrowClient();
+      fail("The pool should be exhausted");
+    } catch (PoolExhaustedException e) {
+      // expected
+    }
+    assertEquals(2, pool.getNumActive());
+    assertEquals(1, pool.getNumIdle());
+  }
+
+  @Test
+  public void testExhaustedFail() throws IllegalStateException, PoolExhaustedException, Exception {
+    for (int i = 0; i < 51; ++i) {
+      try {
+        CassandraClient client = pool.borrowClient();
+        assertNotNull("After iteration " + i + " the returned client is null", client);
+        if (i > 49) {
+          fail("Pool should have been exhausted at 49. Now i=" + i);
+        }
+      } catch (PoolExhaustedException e) {
+        assertEquals("Shoudld be exhausted at 50", 50, i);
+      }
+    }
+    assertTrue(pool.isExhausted());
+  }
+
+  @Test
+  public void testExhaustedGrow() throws IllegalStateException, PoolExhaustedException, Exception {
+    cassandraHost.setExhaustedPolicy(ExhaustedPolicy.WHEN_EXHAUSTED_GROW);
+    pool = createPool();
+    for (int i = 0; i < 60; ++i) {
+      assertNotNull(pool.borrowClient());
+    }
+    assertEquals(60, pool.getNumActive());
+  }
+
+  @Test
+  public void testExhaustedBlockTimesOut() throws Exception {
+    cassandraHost.setExhaustedPolicy(ExhaustedPolicy.WHEN_EXHAUSTED_BLOCK);
+    cassandraHost.setMaxActive(1);
+    cassandraHost.setMaxWaitTimeWhenExhausted(50);
+    pool = createPool();
+    pool.borrowClient();
+    try {
+      pool.borrowClient();
+      fail("Should have timed out waiting for a client");
+    } catch (PoolExhaustedException e) {
+      // ok
+    }
+    assertEquals(0, pool.getNumBlockedThreads());
+  }
+
+  @Test
+  public void testExhaustedBlockWakesUpOnRelease() throws Exception {
+    cassandraHost.setExhaustedPolicy(ExhaustedPolicy.WHEN_EXHAUSTED_BLOCK);
+    cassandraHost.setMaxActive(1);
+    cassandraHost.setMaxWaitTimeWhenExhausted(-1);
+    pool = createPool();
+    final CassandraClient first = pool.borrowClient();
+    final AtomicReference<CassandraClient> second = new AtomicReference<CassandraClient>();
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          second.set(pool.borrowClient());
+        } catch (Exception e) {
+          // second stays null
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+    t.start();
+    while (pool.getNumBlockedThreads() == 0) {
+      Thread.sleep(5);
+    }
+    pool.releaseClient(first);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertSame(first, second.get());
+  }
+
+  @Test
+  public void testMaxIdle() throws IllegalStateException, PoolExhaustedException, Exception {
+    CassandraClient[] clients = new CassandraClient[10];
+    for (int i = 0; i < clients.length; ++i) {
+      clients[i] = pool.borrowClient();
+    }
+    for (CassandraClient c: clients) {
+      pool.releaseClient(c);
+    }
+    assertEquals(5, pool.getNumIdle());
+    assertEquals(0, pool.getNumActive());
+  }
+
+  @Test
+  public void testInvalidateClient() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient c = pool.borrowClient();
+    assertEquals(1, pool.getNumActive());
+    pool.invalidateClient(c);
+    assertEquals(0, pool.getNumActive());
+    assertEquals(0, pool.getNumIdle());
+    assertNotSame(c, pool.borrowClient());
+  }
+
+  @Test
+  public void testInvalidateClosedClient() throws IllegalStateException, PoolExhaustedException,
+      Exception {
+    CassandraClient c = pool.borrowClient();
+    // Closed while borrowed, e.g. by a transport error
+    when(c.isClosed()).thenReturn(true);
+    pool.invalidateClient(c);
+    assertEquals(0, pool.getNumActive());
+    verify(factory, never()).destroyObject(c);
+
+    // Accounted for only once
+    pool.invalidateClient(c);
+    pool.releaseClient(c);
+    assertEquals(0, pool.getNumActive());
+    assertEquals(0, pool.getNumIdle());
+  }
+
+  @Test
+  public void testClose() throws PoolExhaustedException, Exception {
+    pool.close();
+    // This should not throw an exception
+    pool.close();
+
+    // This should throw an exception
+    try {
+      pool.borrowClient();
+      fail("The borrowClient should have failed with IllegalStateException");
+    } catch (IllegalStateException e) {
+      // OK
+    }
+  }
+}
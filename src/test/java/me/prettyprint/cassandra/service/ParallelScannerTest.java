@@ -0,0 +1,224 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+
+import org.apache.cassandra.dht.OrderPreservingPartitioner;
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.apache.cassandra.service.ColumnOrSuperColumn;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.KeySlice;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class ParallelScannerTest {
+
+  private CassandraClientPool pool;
+  private CassandraClient client;
+  private Keyspace keyspace;
+  private ColumnParent columnParent;
+  private SlicePredicate predicate;
+  private ParallelScanner scanner;
+  private File checkpoint;
+
+  @Before
+  public void setupTest() throws Exception {
+    pool = mock(CassandraClientPool.class);
+    client = mock(CassandraClient.class);
+    keyspace = mock(Keyspace.class);
+    when(pool.borrowClient()).thenReturn(client);
+    when(pool.borrowClient(anyString(), anyInt())).thenReturn(client);
+    when(client.getKeyspace("Keyspace1", CassandraClient.DEFAULT_CONSISTENCY_LEVEL,
+        CassandraClient.DEFAULT_FAILOVER_POLICY)).thenReturn(keyspace);
+    when(client.getPort()).thenReturn(9160);
+    when(keyspace.getClient()).thenReturn(client);
+    columnParent = new ColumnParent("Standard1", null);
+    predicate = new SlicePredicate();
+    // Rows a to z
+    when(keyspace.getRangeSlices((ColumnParent) any(), (SlicePredicate) any(), anyString(),
+        anyString(), anyInt())).thenAnswer(new Answer<List<KeySlice>>() {
+          @Override
+          public List<KeySlice> answer(InvocationOnMock invocation) {
+            Object[] args = invocation.getArguments();
+            String start = (String) args[2];
+            String finish = (String) args[3];
+            int count = (Integer) args[4];
+            List<KeySlice> rows = new ArrayList<KeySlice>();
+            for (char c = 'a'; c <= 'z' && rows.size() < count; ++c) {
+              String key = String.valueOf(c);
+              if (key.compareTo(start) >= 0 && (finish.isEmpty() || key.compareTo(finish) <= 0)) {
+                rows.add(new KeySlice(key, new ArrayList<ColumnOrSuperColumn>()));
+              }
+            }
+            return rows;
+          }
+        });
+    scanner = new ParallelScanner(pool, null, "Keyspace1", columnParent, predicate);
+    scanner.setPageSize(3);
+    checkpoint = File.createTempFile("ParallelScannerTest", ".checkpoint");
+    checkpoint.delete();
+  }
+
+  @After
+  public void teardownTest() {
+    checkpoint.delete();
+  }
+
+  private static Map<String, String> tokenMap() {
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put("h", "h1");
+    tokenMap.put("p", "h2");
+    return tokenMap;
+  }
+
+  private static List<String> keys(char from, char to) {
+    List<String> keys = new ArrayList<String>();
+    for (char c = from; c <= to; ++c) {
+      keys.add(String.valueOf(c));
+    }
+    return keys;
+  }
+
+  /**
+   * Collects the keys of the rows.
+   */
+  private static class Collector implements ParallelScanner.RowCallback {
+    final List<String> keys = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void onRow(KeySlice row) throws Exception {
+      keys.add(row.getKey());
+    }
+
+    List<String> sorted() {
+      List<String> ret = new ArrayList<String>(keys);
+      Collections.sort(ret);
+      return ret;
+    }
+  }
+
+  @Test
+  public void testSplitAt() throws Exception {
+    List<ParallelScanner.Split> splits = ParallelScanner.splitAt(Arrays.asList("h", "p"));
+    assertEquals(3, splits.size());
+    Collector collector = new Collector();
+    scanner.scan(splits, collector);
+    // Each row once, the split keys too
+    assertEquals(keys('a', 'z'), collector.sorted());
+    assertEquals(26, scanner.getRowsScanned());
+    assertEquals(3, scanner.getNumCompletedSplits());
+  }
+
+  @Test
+  public void testRingSplits() {
+    List<ParallelScanner.Split> splits = ParallelScanner.getSplits(
+        new TokenRing(new OrderPreservingPartitioner(), tokenMap()));
+    assertEquals(3, splits.size());
+    assertEquals(new ParallelScanner.Split("", "h", false, null), splits.get(0));
+    assertEquals("h1", splits.get(0).getHost());
+    assertEquals(new ParallelScanner.Split("h", "p", true, null), splits.get(1));
+    assertEquals("h2", splits.get(1).getHost());
+    // Wraps around to the first node
+    assertEquals(new ParallelScanner.Split("p", "", true, null), splits.get(2));
+    assertEquals("h1", splits.get(2).getHost());
+  }
+
+  @Test
+  public void testRandomPartitioner() throws Exception {
+    doReturn(new RandomPartitioner()).when(client).getPartitioner();
+    try {
+      scanner.getSplits();
+      fail("The ring can't be split by keys");
+    } catch (TException e) {
+      // ok
+    }
+  }
+
+  @Test
+  public void testQueue() throws Exception {
+    doReturn(new OrderPreservingPartitioner()).when(client).getPartitioner();
+    when(client.getTokenMap(false)).thenReturn(tokenMap());
+    BlockingQueue<KeySlice> queue = new ArrayBlockingQueue<KeySlice>(2);
+    Future<Void> future = scanner.scan(queue);
+    List<String> keys = new ArrayList<String>();
+    for (KeySlice row = queue.take(); row != ParallelScanner.END; row = queue.take()) {
+      keys.add(row.getKey());
+    }
+    assertNull(future.get());
+    Collections.sort(keys);
+    assertEquals(keys('a', 'z'), keys);
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    scanner.setMaxThreads(1);
+    scanner.setCheckpointFile(checkpoint);
+    List<ParallelScanner.Split> splits = ParallelScanner.splitAt(Arrays.asList("h", "p"));
+    try {
+      scanner.scan(splits, new Collector() {
+        @Override
+        public void onRow(KeySlice row) throws Exception {
+          if (row.getKey().equals("r")) {
+            throw new IllegalStateException("Can't take r");
+          }
+        }
+      });
+      fail("The scan should fail on r");
+    } catch (TException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(2, scanner.getNumCompletedSplits());
+
+    // Only the last split is scanned again
+    Collector collector = new Collector();
+    scanner.scan(splits, collector);
+    assertEquals(keys('q', 'z'), collector.sorted());
+    assertFalse(checkpoint.exists());
+  }
+
+  @Test
+  public void testThrottle() throws Exception {
+    scanner.setMaxRowsPerSecond(100);
+    long start = System.currentTimeMillis();
+    scanner.scan(ParallelScanner.splitAt(Arrays.asList("m")), new Collector());
+    // 26 rows, the first one right away
+    assertTrue(System.currentTimeMillis() - start >= 240);
+  }
+
+  @Test
+  public void testSplitFormat() {
+    ParallelScanner.Split split = new ParallelScanner.Split("a b\n", "", true, "h1");
+    assertEquals(split, ParallelScanner.Split.parse(split.format()));
+    assertNull(ParallelScanner.Split.parse("cut"));
+  }
+}
@@ -0,0 +1,84 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.cassandra.service.TimedOutException;
+import org.apache.cassandra.service.UnavailableException;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class RetryPolicyTest {
+
+  @Test
+  public void testBackoff() {
+    RetryPolicy policy = RetryPolicy.exponentialBackoff(10, 100);
+    for (int i = 0; i < 100; ++i) {
+      assertTrue(policy.getDelayMillis(new TimedOutException(), 0) <= 10);
+      assertTrue(policy.getDelayMillis(new UnavailableException(), 2) <= 40);
+      long delay = policy.getDelayMillis(new TimedOutException(), 100);
+      assertTrue(delay >= 0 && delay <= 100);
+    }
+    // Transport errors are retried at once
+    assertEquals(0, policy.getDelayMillis(new TTransportException(), 3));
+    assertEquals(0, RetryPolicy.noBackoff().getDelayMillis(new TimedOutException(), 3));
+  }
+
+  @Test
+  public void testBudget() {
+    RetryPolicy policy = RetryPolicy.noBackoff();
+    // Without a budget everything is retried
+    for (int i = 0; i < 10; ++i) {
+      assertTrue(policy.allowRetry(new TimedOutException()));
+    }
+
+    policy.setRetryBudget(0.1, 2);
+    assertTrue(policy.allowRetry(new TimedOutException()));
+    assertTrue(policy.allowRetry(new TTransportException()));
+    assertFalse(policy.allowRetry(new TimedOutException()));
+    assertEquals(1, policy.getNumSuppressedRetries());
+
+    // 10 operations make a retry
+    for (int i = 0; i < 9; ++i) {
+      policy.recordOperation();
+    }
+    assertFalse(policy.allowRetry(new TimedOutException()));
+    policy.recordOperation();
+    assertTrue(policy.allowRetry(new TimedOutException()));
+
+    // The budget doesn't grow past its max
+    for (int i = 0; i < 100; ++i) {
+      policy.recordOperation();
+    }
+    assertEquals(2.0, policy.getRetryBudget(), 0.001);
+    assertEquals(13, policy.getNumRetries());
+    assertEquals(2, policy.getNumSuppressedRetries());
+  }
+
+  @Test
+  public void testTinyBudget() {
+    RetryPolicy policy = RetryPolicy.noBackoff();
+    policy.setRetryBudget(0.0001, 1);
+    assertTrue(policy.allowRetry(new TimedOutException()));
+    // Still a budget, not unlimited retries
+    assertFalse(policy.allowRetry(new TimedOutException()));
+  }
+
+  @Test
+  public void testErrorTypes() {
+    RetryPolicy policy = RetryPolicy.noBackoff();
+    policy.setRetryUnavailable(false);
+    assertFalse(policy.allowRetry(new UnavailableException()));
+    assertTrue(policy.allowRetry(new TimedOutException()));
+    policy.setRetryTimedOut(false);
+    assertFalse(policy.allowRetry(new TimedOutException()));
+    assertTrue(policy.allowRetry(new TTransportException()));
+    assertEquals(2, policy.getNumSuppressedRetries());
+  }
+}
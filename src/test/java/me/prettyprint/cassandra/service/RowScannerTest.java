@@ -0,0 +1,163 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.service.ColumnOrSuperColumn;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.KeySlice;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.TimedOutException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class RowScannerTest {
+
+  private static final int NUM_ROWS = 25;
+
+  private Keyspace keyspace;
+  private final ColumnParent columnParent = new ColumnParent("Standard1", null);
+  private final SlicePredicate predicate = new SlicePredicate();
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Before
+  public void setup() throws Exception {
+    keyspace = mock(Keyspace.class);
+    when(keyspace.getRangeSlices((ColumnParent) anyObject(), (SlicePredicate) anyObject(),
+        anyString(), anyString(), anyInt())).thenAnswer(new Answer<List<KeySlice>>() {
+          @Override
+          public List<KeySlice> answer(InvocationOnMock invocation) throws Throwable {
+            calls.incrementAndGet();
+            Object[] args = invocation.getArguments();
+            return getRows((String) args[2], (String) args[3], (Integer) args[4]);
+          }
+        });
+  }
+
+  /**
+   * The rows key00 to key24, from start to finish inclusive.
+   */
+  private static List<KeySlice> getRows(String start, String finish, int count) {
+    List<KeySlice> ret = new ArrayList<KeySlice>();
+    for (int i = 0; i < NUM_ROWS && ret.size() < count; ++i) {
+      String key = String.format("key%02d", i);
+      if (key.compareTo(start) >= 0 && (finish.length() == 0 || key.compareTo(finish) <= 0)) {
+        ret.add(new KeySlice(key, new ArrayList<ColumnOrSuperColumn>()));
+      }
+    }
+    return ret;
+  }
+
+  private void assertScan(RowScanner scanner, int first, int last) {
+    for (int i = first; i <= last; ++i) {
+      assertTrue(scanner.hasNext());
+      assertEquals(String.format("key%02d", i), scanner.next().getKey());
+    }
+    assertFalse(scanner.hasNext());
+    scanner.close();
+  }
+
+  @Test
+  public void testScanWithPrefetch() {
+    assertScan(new RowScanner(keyspace, columnParent, predicate, "", "", 10), 0, NUM_ROWS - 1);
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testScanWithoutPrefetch() {
+    assertScan(new RowScanner(keyspace, columnParent, predicate, "", "", 10, 0), 0, NUM_ROWS - 1);
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testScanRange() {
+    assertScan(new RowScanner(keyspace, columnParent, predicate, "key03", "key17", 5, 3), 3, 17);
+  }
+
+  @Test
+  public void testPageOfOne() {
+    assertScan(new RowScanner(keyspace, columnParent, predicate, "key20", "", 1), 20,
+        NUM_ROWS - 1);
+  }
+
+  @Test
+  public void testPrefetchIsBounded() throws InterruptedException {
+    RowScanner scanner = new RowScanner(keyspace, columnParent, predicate, "", "", 2, 2);
+    scanner.next();
+    Thread.sleep(200);
+    // The current page, one queued page and one page waiting to be queued
+    assertEquals(3, calls.get());
+    scanner.close();
+  }
+
+  @Test
+  public void testCloseWaitsForFetch() throws Exception {
+    final AtomicBoolean fetching = new AtomicBoolean(false);
+    when(keyspace.getRangeSlices((ColumnParent) anyObject(), (SlicePredicate) anyObject(),
+        anyString(), anyString(), anyInt())).thenAnswer(new Answer<List<KeySlice>>() {
+          @Override
+          public List<KeySlice> answer(InvocationOnMock invocation) throws Throwable {
+            if (calls.incrementAndGet() > 1) {
+              // A fetch which doesn't respond to interrupts, like a blocking socket read
+              fetching.set(true);
+              long end = System.currentTimeMillis() + 200;
+              while (System.currentTimeMillis() < end) {
+                Thread.yield();
+              }
+              fetching.set(false);
+            }
+            Object[] args = invocation.getArguments();
+            return getRows((String) args[2], (String) args[3], (Integer) args[4]);
+          }
+        });
+    RowScanner scanner = new RowScanner(keyspace, columnParent, predicate, "", "", 2);
+    scanner.next();
+    while (!fetching.get()) {
+      Thread.sleep(1);
+    }
+    scanner.close();
+    assertFalse(fetching.get());
+  }
+
+  @Test
+  public void testError() throws Exception {
+    TimedOutException error = new TimedOutException();
+    when(keyspace.getRangeSlices((ColumnParent) anyObject(), (SlicePredicate) anyObject(),
+        anyString(), anyString(), anyInt())).thenThrow(error);
+    RowScanner scanner = new RowScanner(keyspace, columnParent, predicate, "", "", 10);
+    try {
+      scanner.hasNext();
+      fail("Should have thrown a ScanException");
+    } catch (ScanException e) {
+      assertSame(error, e.getCause());
+    }
+    // The prefetcher stopped at the error, which is thrown again
+    try {
+      scanner.hasNext();
+      fail("Should have thrown a ScanException");
+    } catch (ScanException e) {
+      assertSame(error, e.getCause());
+    }
+    scanner.close();
+  }
+}
@@ -0,0 +1,109 @@
+package me.prettyprint.cassandra.service;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+import static me.prettyprint.cassandra.utils.StringUtils.string;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.prettyprint.cassandra.testutils.EmbeddedServerHelper;
+
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.cassandra.service.TimedOutException;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class SharedKeyspaceTest {
+
+  private static EmbeddedServerHelper embedded;
+
+  @BeforeClass
+  public static void setup() throws TTransportException, IOException, InterruptedException {
+    embedded = new EmbeddedServerHelper();
+    embedded.setup();
+  }
+
+  @AfterClass
+  public static void teardown() throws IOException {
+    embedded.teardown();
+  }
+
+  @Test
+  public void testConcurrentOperations() throws Exception {
+    CassandraClientPool pool = CassandraClientPoolFactory.INSTANCE.createNew();
+    final KeyspaceOperations keyspace = new SharedKeyspace(pool, new String[] {"localhost:9170"},
+        "Keyspace1");
+    final ColumnPath cp = new ColumnPath("Standard1", null, bytes("testSharedKeyspace"));
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int t = 0; t < 8; ++t) {
+      final int thread = t;
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int i = 0; i < 20; ++i) {
+            String key = "testSharedKeyspace_" + thread + "_" + i;
+            keyspace.insert(key, cp, bytes("value_" + i));
+            assertEquals("value_" + i, string(keyspace.getColumn(key, cp).getValue()));
+            keyspace.remove(key, cp);
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> f : results) {
+      f.get();
+    }
+    executor.shutdown();
+
+    try {
+      keyspace.getColumn("testSharedKeyspace_0_0", cp);
+      fail("the value should already being deleted");
+    } catch (NotFoundException e) {
+      // ok
+    }
+    // All clients were released
+    assertEquals(0, pool.getNumActive());
+  }
+
+  @Test
+  public void testReleaseOnError() throws Exception {
+    CassandraClientPool pool = mock(CassandraClientPool.class);
+    CassandraClient client = mock(CassandraClient.class);
+    Keyspace clientKeyspace = mock(Keyspace.class);
+    ColumnPath cp = new ColumnPath("Standard1", null, bytes("c"));
+    when(pool.borrowClient()).thenReturn(client);
+    when(client.getKeyspace("Keyspace1", 1, CassandraClient.DEFAULT_FAILOVER_POLICY))
+        .thenReturn(clientKeyspace);
+    when(clientKeyspace.getClient()).thenReturn(client);
+    when(clientKeyspace.getColumn("key", cp)).thenThrow(new TimedOutException());
+
+    KeyspaceOperations keyspace = new SharedKeyspace(pool, null, "Keyspace1", 1,
+        CassandraClient.DEFAULT_FAILOVER_POLICY);
+    try {
+      keyspace.getColumn("key", cp);
+      fail("Expected a TimedOutException");
+    } catch (TimedOutException e) {
+      // ok
+    }
+    verify(pool).releaseClient(client);
+  }
+}
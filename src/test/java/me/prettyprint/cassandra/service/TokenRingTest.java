@@ -0,0 +1,54 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cassandra.dht.OrderPreservingPartitioner;
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class TokenRingTest {
+
+  @Test
+  public void testOrderPreserving() {
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put("g", "h1");
+    tokenMap.put("n", "h2");
+    tokenMap.put("t", "h3");
+    TokenRing ring = new TokenRing(new OrderPreservingPartitioner(), tokenMap);
+
+    assertEquals("h1", ring.getHost("a"));
+    assertEquals("h1", ring.getHost("g"));
+    assertEquals("h2", ring.getHost("ga"));
+    assertEquals("h3", ring.getHost("p"));
+    // wraps around
+    assertEquals("h1", ring.getHost("z"));
+  }
+
+  @Test
+  public void testRandom() {
+    RandomPartitioner partitioner = new RandomPartitioner();
+    String key = "testRandom";
+    String token = partitioner.getToken(key).toString();
+    Map<String, String> tokenMap = new HashMap<String, String>();
+    tokenMap.put(token, "h1");
+    tokenMap.put("0", "h2");
+    TokenRing ring = new TokenRing(partitioner, tokenMap);
+
+    assertEquals("h1", ring.getHost(key));
+  }
+
+  @Test
+  public void testEmpty() {
+    TokenRing ring = new TokenRing(new RandomPartitioner(), new HashMap<String, String>());
+    assertNull(ring.getHost("key"));
+  }
+}
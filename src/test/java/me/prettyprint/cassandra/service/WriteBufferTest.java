@@ -0,0 +1,219 @@
+package me.prettyprint.cassandra.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.SuperColumn;
+import org.apache.cassandra.service.TimedOutException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class WriteBufferTest {
+
+  private Keyspace keyspace;
+  private final List<Object[]> batches = Collections.synchronizedList(new ArrayList<Object[]>());
+  private volatile CountDownLatch writeLatch = new CountDownLatch(0);
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setup() throws Exception {
+    keyspace = mock(Keyspace.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writeLatch.await();
+        Object[] args = invocation.getArguments();
+        if ("bad".equals(args[0])) {
+          throw new TimedOutException();
+        }
+        batches.add(args);
+        return null;
+      }
+    }).when(keyspace).batchInsert(anyString(), (Map<String, List<Column>>) anyObject(),
+        (Map<String, List<SuperColumn>>) anyObject());
+  }
+
+  @Test
+  public void testFlushOnMaxWrites() throws Exception {
+    WriteBuffer buffer = new WriteBuffer(keyspace, 3, 1000000, 100000, 10);
+    buffer.insert("key", path("c1"), bytes("v1"));
+    buffer.insert("key", path("c2"), bytes("v2"));
+    assertEquals(2, buffer.getNumBufferedWrites());
+    buffer.insert("key", path("c3"), bytes("v3")).get(5, TimeUnit.SECONDS);
+
+    assertEquals(1, batches.size());
+    assertEquals("key", batches.get(0)[0]);
+    List<Column> columns = columnMap(0).get("Standard1");
+    assertEquals(3, columns.size());
+    assertEquals("c1", new String(columns.get(0).getName()));
+    assertEquals("v3", new String(columns.get(2).getValue()));
+    assertNull(batches.get(0)[2]);
+    buffer.close();
+  }
+
+  @Test
+  public void testFlushOnMaxBytes() throws Exception {
+    WriteBuffer buffer = new WriteBuffer(keyspace, 100, 10, 100000, 1000);
+    buffer.insert("key", path("c1"), new byte[20]).get(5, TimeUnit.SECONDS);
+    assertEquals(1, batches.size());
+    buffer.close();
+  }
+
+  @Test
+  public void testFlushOnDelay() throws Exception {
+    WriteBuffer buffer = new WriteBuffer(keyspace, 100, 1000000, 10, 1000);
+    // Let the writer wait on the empty buffer first
+    Thread.sleep(100);
+    buffer.insert("key", path("c1"), bytes("v1")).get(5, TimeUnit.SECONDS);
+    assertEquals(1, batches.size());
+    buffer.close();
+  }
+
+  @Test
+  public void testMaxBytesOfNonAsciiKey() throws Exception {
+    // 4 chars, 12 bytes in UTF-8
+    WriteBuffer buffer = new WriteBuffer(keyspace, 100, 12, 100000, 1000);
+    buffer.insert("\u20ac\u20ac\u20ac\u20ac", path("c"), new byte[0]).get(5, TimeUnit.SECONDS);
+    assertEquals(1, batches.size());
+    buffer.close();
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    WriteBuffer buffer = new WriteBuffer(keyspace, 100, 1000000, 100000, 1000);
+    buffer.insert("key1", path("c1"), bytes("old"));
+    buffer.insert("key1", path("c1"), bytes("new"));
+    buffer.insert("key2", path("c1"), bytes("v"));
+    ColumnPath sc1 = new ColumnPath("Super1", bytes("sc1"), bytes("c1"));
+    ColumnPath sc2 = new ColumnPath("Super1", bytes("sc1"), bytes("c2"));
+    buffer.insert("key1", sc1, bytes("v1"));
+    Future<Void> f = buffer.insert("key1", sc2, bytes("v2"));
+    buffer.flush();
+    assertTrue(f.isDone());
+    assertEquals(0, buffer.getNumBufferedWrites());
+
+    // One batch per row
+    assertEquals(2, batches.size());
+    assertEquals("key1", batches.get(0)[0]);
+    List<Column> columns = columnMap(0).get("Standard1");
+    assertEquals(1, columns.size());
+    assertEquals("new", new String(columns.get(0).getValue()));
+    List<SuperColumn> superColumns = superColumnMap(0).get("Super1");
+    assertEquals(1, superColumns.size());
+    assertEquals("sc1", new String(superColumns.get(0).getName()));
+    assertEquals(2, superColumns.get(0).getColumns().size());
+    assertEquals("key2", batches.get(1)[0]);
+    assertNull(batches.get(1)[2]);
+
+    // Nothing to flush
+    buffer.flush();
+    assertEquals(2, batches.size());
+    buffer.close();
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    WriteBuffer buffer = new WriteBuffer(keyspace);
+    Future<Void> bad = buffer.insert("bad", path("c1"), bytes("v1"));
+    Future<Void> good = buffer.insert("good", path("c1"), bytes("v1"));
+    buffer.flush();
+    try {
+      bad.get();
+      fail("Expected the write to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimedOutException);
+    }
+    assertNull(good.get());
+    assertEquals(1, batches.size());
+    buffer.close();
+  }
+
+  @Test
+  public void testBackPressure() throws Exception {
+    writeLatch = new CountDownLatch(1);
+    final WriteBuffer buffer = new WriteBuffer(keyspace, 1, 1000000, 100000, 1);
+    // Taken by the buffer's thread, which blocks writing it
+    buffer.insert("key", path("c1"), bytes("v1"));
+    while (buffer.getNumBufferedWrites() > 0) {
+      Thread.sleep(1);
+    }
+    // Buffered, which fills the buffer
+    buffer.insert("key", path("c2"), bytes("v2"));
+    final CountDownLatch inserted = new CountDownLatch(1);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          buffer.insert("key", path("c3"), bytes("v3"));
+          inserted.countDown();
+        } catch (InterruptedException e) {
+          // done
+        }
+      }
+    };
+    producer.start();
+    assertFalse(inserted.await(100, TimeUnit.MILLISECONDS));
+    writeLatch.countDown();
+    assertTrue(inserted.await(5, TimeUnit.SECONDS));
+    buffer.close();
+    assertEquals(3, batches.size());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    WriteBuffer buffer = new WriteBuffer(keyspace, 100, 1000000, 100000, 1000);
+    Future<Void> f = buffer.insert("key", path("c1"), bytes("v1"));
+    buffer.close();
+    assertTrue(f.isDone());
+    assertEquals(1, batches.size());
+    try {
+      buffer.insert("key", path("c2"), bytes("v2"));
+      fail("Expected the closed buffer to refuse writes");
+    } catch (IllegalStateException e) {
+      // ok
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, List<Column>> columnMap(int batch) {
+    return (Map<String, List<Column>>) batches.get(batch)[1];
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, List<SuperColumn>> superColumnMap(int batch) {
+    return (Map<String, List<SuperColumn>>) batches.get(batch)[2];
+  }
+
+  private static ColumnPath path(String column) {
+    return new ColumnPath("Standard1", null, bytes(column));
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes();
+  }
+}
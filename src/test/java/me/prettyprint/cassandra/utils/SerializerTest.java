@@ -0,0 +1,109 @@
+package me.prettyprint.cassandra.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class SerializerTest {
+
+  @Test
+  public void testLong() {
+    LongSerializer s = LongSerializer.get();
+    assertArrayEquals(new byte[] {0, 0, 0, 0, 0, 0, 1, 2}, s.toBytes(Long.valueOf(258)));
+    for (long l : new long[] {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1234567890123L}) {
+      assertEquals(Long.valueOf(l), s.fromBytes(s.toBytes(Long.valueOf(l))));
+    }
+    assertNull(s.toBytes(null));
+    assertNull(s.fromBytes(null));
+    assertInvalid(s, new byte[4]);
+  }
+
+  @Test
+  public void testInteger() {
+    IntegerSerializer s = IntegerSerializer.get();
+    assertArrayEquals(new byte[] {0, 0, 1, 2}, s.toBytes(258));
+    for (int i : new int[] {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 123456789}) {
+      assertEquals(Integer.valueOf(i), s.fromBytes(s.toBytes(i)));
+    }
+    assertInvalid(s, new byte[8]);
+  }
+
+  @Test
+  public void testDouble() {
+    DoubleSerializer s = DoubleSerializer.get();
+    for (double d : new double[] {0, -0.5, Math.PI, Double.MAX_VALUE, Double.NaN,
+        Double.NEGATIVE_INFINITY}) {
+      assertEquals(Double.valueOf(d), s.fromBytes(s.toBytes(d)));
+    }
+  }
+
+  @Test
+  public void testBoolean() {
+    BooleanSerializer s = BooleanSerializer.get();
+    assertArrayEquals(new byte[] {1}, s.toBytes(true));
+    assertEquals(Boolean.TRUE, s.fromBytes(s.toBytes(true)));
+    assertEquals(Boolean.FALSE, s.fromBytes(s.toBytes(false)));
+    assertInvalid(s, new byte[0]);
+  }
+
+  @Test
+  public void testString() {
+    StringSerializer s = StringSerializer.get();
+    assertEquals("\u05d0bc", s.fromBytes(s.toBytes("\u05d0bc")));
+    assertNull(s.toBytes(null));
+  }
+
+  @Test
+  public void testBytes() {
+    byte[] bytes = {1, 2, 3};
+    assertSame(bytes, BytesSerializer.get().toBytes(bytes));
+    assertSame(bytes, BytesSerializer.get().fromBytes(bytes));
+  }
+
+  @Test
+  public void testUUID() {
+    UUIDSerializer s = UUIDSerializer.get();
+    UUID uuid = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff");
+    byte[] bytes = s.toBytes(uuid);
+    assertEquals(16, bytes.length);
+    assertEquals(0x00, bytes[0]);
+    assertEquals((byte) 0xff, bytes[15]);
+    assertEquals(uuid, s.fromBytes(bytes));
+    UUID random = UUID.randomUUID();
+    assertEquals(random, s.fromBytes(s.toBytes(random)));
+    assertInvalid(s, new byte[8]);
+  }
+
+  @Test
+  public void testTimeUUID() {
+    TimeUUIDSerializer s = TimeUUIDSerializer.get();
+    UUID timeUuid = UUID.fromString("d2177dd0-eaa2-11de-a572-001b779c76e3");
+    assertEquals(timeUuid, s.fromBytes(s.toBytes(timeUuid)));
+    try {
+      s.toBytes(UUID.randomUUID());
+      fail("Expected an IllegalArgumentException for a random UUID");
+    } catch (IllegalArgumentException e) {
+      // ok
+    }
+  }
+
+  private static void assertInvalid(Serializer<?> s, byte[] bytes) {
+    try {
+      s.fromBytes(bytes);
+      fail("Expected an IllegalArgumentException for " + bytes.length + " bytes");
+    } catch (IllegalArgumentException e) {
+      // ok
+    }
+  }
+}
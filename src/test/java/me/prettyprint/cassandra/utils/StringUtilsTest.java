@@ -0,0 +1,64 @@
+package me.prettyprint.cassandra.utils;
+
+import static me.prettyprint.cassandra.utils.StringUtils.bytes;
+import static me.prettyprint.cassandra.utils.StringUtils.string;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class StringUtilsTest {
+
+  private static final String[] STRINGS = {
+    "",
+    "key",
+    "\u00e9t\u00e9",
+    "\u05e9\u05dc\u05d5\u05dd",
+    // A supplementary char, encoded as 4 bytes
+    "a\ud834\udd1eb",
+  };
+
+  @Test
+  public void testBytes() throws Exception {
+    for (String s : STRINGS) {
+      assertArrayEquals(s, s.getBytes("utf-8"), bytes(s));
+    }
+  }
+
+  @Test
+  public void testString() throws Exception {
+    for (String s : STRINGS) {
+      assertEquals(s, string(s.getBytes("utf-8")));
+    }
+    assertNull(string(null));
+  }
+
+  @Test
+  public void testEncode() throws Exception {
+    for (String s : STRINGS) {
+      assertArrayEquals(s, s.getBytes("utf-8"), toArray(StringUtils.encode(s)));
+    }
+    // Larger than the initial buffer
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      b.append(i % 2 == 0 ? 'a' : '\u05d0');
+    }
+    String s = b.toString();
+    assertArrayEquals(s.getBytes("utf-8"), toArray(StringUtils.encode(s)));
+    assertArrayEquals("key".getBytes("utf-8"), toArray(StringUtils.encode("key")));
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,53 @@
+package me.prettyprint.cassandra.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Ran Tavory (rantav@gmail.com)
+ *
+ */
+public class StripedCounterTest {
+
+  @Test
+  public void testIncrement() {
+    StripedCounter counter = new StripedCounter();
+    assertEquals(0, counter.sum());
+    counter.increment();
+    counter.add(10);
+    assertEquals(11, counter.sum());
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws InterruptedException {
+    final StripedCounter counter = new StripedCounter();
+    final int numThreads = 8;
+    final int numIncrements = 100000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(numThreads);
+    for (int i = 0; i < numThreads; ++i) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < numIncrements; ++j) {
+              counter.increment();
+            }
+          } catch (InterruptedException e) {
+            // the count will be wrong
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+    assertEquals(numThreads * numIncrements, counter.sum());
+  }
+}